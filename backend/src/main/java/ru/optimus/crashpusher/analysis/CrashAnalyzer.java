@@ -0,0 +1,110 @@
+package ru.optimus.crashpusher.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Разбор отчета о краше: исключение верхнего уровня, его сообщение и цепочка "Caused by".
+ * Результат сохраняется в колонки краша при приеме, чтобы статистика и уведомления не разбирали тела заново.
+ */
+public final class CrashAnalyzer {
+
+    public static final String UNKNOWN = "UnknownException";
+
+    public static final int MAX_CLASS_LENGTH = 255;
+    public static final int MAX_MESSAGE_LENGTH = 1000;
+    public static final int MAX_CAUSED_BY_LENGTH = 2000;
+
+    /**
+     * Разделитель классов в сохраненной цепочке причин
+     */
+    public static final String CAUSE_SEPARATOR = " <- ";
+
+    private static final String THROWABLE = "((?:[A-Za-z_$][\\w$]*\\.)+[A-Za-z_$][\\w$]*(?:Exception|Error|Throwable))";
+
+    // Заголовок стектрейса: строка начинается с имени исключения, дальше может идти ": сообщение"
+    private static final Pattern HEADER = Pattern.compile("^\\s*(?:Exception in thread \"[^\"]*\"\\s+)?" + THROWABLE + "(?::\\s*(.*))?$", Pattern.MULTILINE);
+    private static final Pattern CAUSED_BY = Pattern.compile("^\\s*Caused by:\\s*" + THROWABLE + "(?::\\s*(.*))?$", Pattern.MULTILINE);
+    // Запасной вариант — первое упоминание исключения в любом месте отчета
+    private static final Pattern ANYWHERE = Pattern.compile(THROWABLE);
+
+    private CrashAnalyzer() {
+    }
+
+    /**
+     * @param exceptionClass полное имя исключения или {@link #UNKNOWN}
+     * @param message        сообщение исключения, может быть null
+     * @param causes         классы из строк "Caused by" в порядке появления (последний — первопричина)
+     */
+    public record Analysis(String exceptionClass, String message, List<String> causes) {
+
+        public String rootCause() {
+            return causes.isEmpty() ? exceptionClass : causes.get(causes.size() - 1);
+        }
+
+        /**
+         * Цепочка причин для колонки caused_by, null если причин нет
+         */
+        public String causedBy() {
+            return causes.isEmpty() ? null : truncate(String.join(CAUSE_SEPARATOR, causes), MAX_CAUSED_BY_LENGTH);
+        }
+
+        /**
+         * Краткое описание для уведомлений: простое имя исключения и первопричины
+         */
+        public String summary() {
+            if (UNKNOWN.equals(exceptionClass)) return "Unknown Error";
+            String summary = simpleName(exceptionClass);
+            String root = rootCause();
+            return root.equals(exceptionClass) ? summary : summary + " (caused by " + simpleName(root) + ")";
+        }
+    }
+
+    public static Analysis analyze(String content) {
+        if (content == null || content.isEmpty()) {
+            return new Analysis(UNKNOWN, null, List.of());
+        }
+
+        String exceptionClass = UNKNOWN;
+        String message = null;
+        Matcher header = HEADER.matcher(content);
+        if (header.find()) {
+            exceptionClass = header.group(1);
+            message = header.group(2);
+        } else {
+            Matcher anywhere = ANYWHERE.matcher(content);
+            if (anywhere.find()) {
+                exceptionClass = anywhere.group(1);
+            }
+        }
+
+        List<String> causes = new ArrayList<>();
+        Matcher causedBy = CAUSED_BY.matcher(content);
+        while (causedBy.find()) {
+            causes.add(truncate(causedBy.group(1), MAX_CLASS_LENGTH));
+        }
+
+        return new Analysis(truncate(exceptionClass, MAX_CLASS_LENGTH), blankToNull(truncate(message, MAX_MESSAGE_LENGTH)), causes);
+    }
+
+    /**
+     * Краткое описание краша для уведомлений
+     */
+    public static String summary(String content) {
+        return analyze(content).summary();
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.strip();
+    }
+
+    private static String truncate(String value, int max) {
+        return value != null && value.length() > max ? value.substring(0, max) : value;
+    }
+}
@@ -0,0 +1,69 @@
+package ru.optimus.crashpusher.analysis;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Сигнатура краша — md5 в hex от нормализованного ключа: класс исключения и первые {@link #TOP_FRAMES}
+ * фреймов стектрейса (см. {@link StackFrames}). Отчеты об одном и том же баге с разными временем, модами,
+ * номерами строк и сообщениями попадают в одну группу.
+ * <p>
+ * Если фреймов нет, ключ — класс и сообщение без чисел; если нет и исключения — все содержимое.
+ */
+public final class CrashSignatures {
+
+    /**
+     * Версия алгоритма; краши со старой версией пересчитывает SignatureMigrationJob
+     */
+    public static final int VERSION = 1;
+
+    public static final int TOP_FRAMES = 8;
+
+    private static final int MAX_MESSAGE_KEY = 200;
+    private static final Pattern VOLATILE_PARTS = Pattern.compile("0x[0-9a-fA-F]+|\\d+");
+
+    private CrashSignatures() {
+    }
+
+    public static String of(String content) {
+        return of(CrashAnalyzer.analyze(content), StackFrames.extract(content), content);
+    }
+
+    /**
+     * Для приема, где исключение и фреймы уже разобраны
+     */
+    public static String of(CrashAnalyzer.Analysis analysis, Collection<String> frames, String content) {
+        StringBuilder key = new StringBuilder(analysis.exceptionClass());
+        if (!frames.isEmpty()) {
+            int n = 0;
+            for (String frame : frames) {
+                if (n++ == TOP_FRAMES) break;
+                key.append('\n').append(frame);
+            }
+        } else if (!CrashAnalyzer.UNKNOWN.equals(analysis.exceptionClass())) {
+            String message = analysis.message() != null ? VOLATILE_PARTS.matcher(analysis.message()).replaceAll("#") : "";
+            key.append(": ").append(message.length() > MAX_MESSAGE_KEY ? message.substring(0, MAX_MESSAGE_KEY) : message);
+        } else {
+            return md5(content != null ? content : "");
+        }
+        return md5(key.toString());
+    }
+
+    public static String preview(String content) {
+        if (content == null) return "";
+        return content.length() > 1000 ? content.substring(0, 1000) : content;
+    }
+
+    private static String md5(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
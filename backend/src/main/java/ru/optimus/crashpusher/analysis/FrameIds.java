@@ -0,0 +1,46 @@
+package ru.optimus.crashpusher.analysis;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Компактная запись последовательности id фреймов: каждый id — varint (1-2 байта для типичного словаря)
+ */
+public final class FrameIds {
+
+    private FrameIds() {
+    }
+
+    public static byte[] encode(int[] ids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ids.length * 2);
+        for (int id : ids) {
+            int value = id;
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+        return out.toByteArray();
+    }
+
+    public static int[] decode(byte[] bytes) {
+        if (bytes == null) return new int[0];
+
+        int[] ids = new int[bytes.length];
+        int count = 0;
+        int value = 0;
+        int shift = 0;
+        for (byte b : bytes) {
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                ids[count++] = value;
+                value = 0;
+                shift = 0;
+            } else {
+                shift += 7;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.optimus.crashpusher.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * MinHash-сигнатура множества строк (фреймов стектрейса): доля совпавших позиций у двух сигнатур
+ * оценивает коэффициент Жаккара исходных множеств.
+ * <p>
+ * Сигнатуры хранятся в БД, поэтому хэш-функции детерминированы и не должны меняться.
+ */
+public final class MinHash {
+
+    public static final int SIZE = 128;
+
+    private static final long[] SEEDS = new long[SIZE];
+
+    static {
+        long state = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < SIZE; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(state);
+        }
+    }
+
+    private MinHash() {
+    }
+
+    /**
+     * @return сигнатура или null для пустого множества
+     */
+    public static int[] of(Collection<String> elements) {
+        if (elements.isEmpty()) return null;
+
+        int[] signature = new int[SIZE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (String element : elements) {
+            long hash = fnv1a(element);
+            for (int i = 0; i < SIZE; i++) {
+                int h = (int) mix(hash ^ SEEDS[i]);
+                if (h < signature[i]) signature[i] = h;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Оценка коэффициента Жаккара
+     */
+    public static double similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (a[i] == b[i]) same++;
+        }
+        return (double) same / SIZE;
+    }
+
+    /**
+     * Пустой массив — фреймов нет (сигнатура посчитана, но индексировать нечего)
+     */
+    public static byte[] toBytes(int[] signature) {
+        if (signature == null) return new byte[0];
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE * Integer.BYTES);
+        buffer.asIntBuffer().put(signature);
+        return buffer.array();
+    }
+
+    public static int[] fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != SIZE * Integer.BYTES) return null;
+        int[] signature = new int[SIZE];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(signature);
+        return signature;
+    }
+
+    private static long fnv1a(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // splitmix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.optimus.crashpusher.analysis;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Разбор строк стектрейса ("at pkg.Class.method(File.java:42)") в нормализованные фреймы.
+ * Номера строк, имя модуля и сгенерированные номера лямбд отбрасываются, чтобы один и тот же
+ * баг на разных сборках и с разным набором модов давал одинаковые фреймы.
+ */
+public final class StackFrames {
+
+    /**
+     * Больше фреймов на краш не берем — глубокие рекурсивные трейсы иначе раздувают индекс
+     */
+    public static final int MAX_FRAMES = 256;
+
+    /**
+     * Ограничение длины фрейма (колонка словаря stack_frames)
+     */
+    public static final int MAX_FRAME_LENGTH = 512;
+
+    private static final Pattern FRAME = Pattern.compile("^\\s*at\\s+(?:[\\w.@-]*/)*([\\w$.<>/]+)\\(", Pattern.MULTILINE);
+    private static final Pattern LAMBDA_CLASS = Pattern.compile("\\$\\$Lambda(?:\\$\\d+)?(?:/0x[0-9a-f]+)?");
+    private static final Pattern LAMBDA_METHOD = Pattern.compile("(lambda\\$[\\w]+?)\\$\\d+");
+
+    private StackFrames() {
+    }
+
+    /**
+     * Уникальные фреймы в порядке появления
+     */
+    public static Set<String> extract(String content) {
+        Set<String> frames = new LinkedHashSet<>();
+        if (content == null || content.isEmpty()) return frames;
+
+        Matcher matcher = FRAME.matcher(content);
+        while (matcher.find() && frames.size() < MAX_FRAMES) {
+            frames.add(normalize(matcher.group(1)));
+        }
+        return frames;
+    }
+
+    /**
+     * Пакет класса из фрейма ("net.minecraft.client.Foo$Bar.run" -> "net.minecraft.client"),
+     * null для классов без пакета
+     */
+    public static String packageOf(String frame) {
+        int method = frame.lastIndexOf('.');
+        if (method <= 0) return null;
+        int cls = frame.lastIndexOf('.', method - 1);
+        return cls > 0 ? frame.substring(0, cls) : null;
+    }
+
+    static String normalize(String frame) {
+        String result = LAMBDA_CLASS.matcher(frame).replaceAll("\\$\\$Lambda");
+        result = LAMBDA_METHOD.matcher(result).replaceAll("$1");
+        return result.length() > MAX_FRAME_LENGTH ? result.substring(0, MAX_FRAME_LENGTH) : result;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.optimus.crashpusher.config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Создает триграммные GIN-индексы для поиска по содержимому крашей и подстроке в никах.
+ * Hibernate (ddl-auto=update) не умеет описывать индексы на выражения, поэтому делаем это сами.
+ * <p>
+ * Индексы строятся {@code CONCURRENTLY} в фоне: на большой таблице крашей обычный CREATE INDEX держал бы
+ * блокировку SHARE и останавливал прием крашей на все время построения. JdbcTemplate выполняет запросы
+ * в autocommit, вне транзакции, как того требует CONCURRENTLY. Прерванное построение оставляет невалидный индекс,
+ * который IF NOT EXISTS пропустил бы навсегда, — такой удаляем и строим заново.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CrashSearchIndexInitializer {
+
+    private static final Map<String, String> INDEXES = Map.of(
+            "idx_crashes_content_trgm", "crashes USING gin (lower(content) gin_trgm_ops)",
+            "idx_users_crash_username_trgm", "users_crash USING gin (lower(username) gin_trgm_ops)",
+            "idx_users_username_trgm", "users USING gin (lower(username) gin_trgm_ops)"
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createSearchIndex() {
+        Thread.ofPlatform().daemon().name("search-index-init").start(this::build);
+    }
+
+    private void build() {
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+        } catch (Exception e) {
+            // Без индекса поиск продолжит работать, просто через последовательное сканирование
+            log.warn("Failed to create trigram search indexes: {}", e.getMessage());
+            return;
+        }
+
+        int ready = 0;
+        for (Map.Entry<String, String> index : INDEXES.entrySet()) {
+            String name = index.getKey();
+            try {
+                Boolean invalid = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM pg_index i " +
+                        "JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ? AND NOT i.indisvalid)", Boolean.class, name);
+                if (Boolean.TRUE.equals(invalid)) {
+                    log.warn("Search index {} was left invalid by an interrupted build, rebuilding", name);
+                    jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+                }
+                jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + index.getValue());
+                ready++;
+            } catch (Exception e) {
+                log.warn("Failed to create search index {}: {}", name, e.getMessage());
+            }
+        }
+        log.info("Trigram search indexes are ready: {} of {}", ready, INDEXES.size());
+    }
+}
@@ -1,11 +1,11 @@
 package ru.optimus.crashpusher.config;
 
-import lombok.SneakyThrows;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 import ru.optimus.crashpusher.discord.DiscordBot;
+import ru.optimus.crashpusher.discord.DiscordDispatcher;
 import ru.optimus.crashpusher.discord.DiscordManager;
 import ru.optimus.crashpusher.pushers.AdaptPusher;
 import ru.optimus.crashpusher.service.CrashService;
@@ -14,20 +14,29 @@ import ru.optimus.crashpusher.service.CrashService;
 public class GlobalConfig {
 
 
-    @SneakyThrows
+    /**
+     * Бот подключается в фоне после старта приложения, см. {@link DiscordBot#start()}
+     */
     @Bean
     public DiscordBot discordBot(@Value("${bot.token}") String token, @Value("${bot.channel.feedback}") String channel) {
-        DiscordManager.setEnabled(true);
         return new DiscordBot(token, channel);
     }
 
     @Bean
-    public AdaptPusher adaptPusher(@Lazy DiscordManager discordManager, @Lazy CrashService service) {
-        return new AdaptPusher(discordManager, service);
+    public AdaptPusher adaptPusher(@Lazy CrashService service) {
+        return new AdaptPusher(service);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public DiscordDispatcher discordDispatcher(DiscordBot discordBot,
+                                              @Value("${discord.dispatcher.queue-capacity:256}") int queueCapacity,
+                                              @Value("${discord.dispatcher.digest-window-seconds:120}") int digestWindowSeconds,
+                                              @Value("${discord.dispatcher.min-interval-ms:1000}") long minIntervalMillis) {
+        return new DiscordDispatcher(discordBot, queueCapacity, digestWindowSeconds, minIntervalMillis);
     }
 
     @Bean
-    public DiscordManager discordManager(DiscordBot discordBot) {
-        return new DiscordManager(discordBot);
+    public DiscordManager discordManager(DiscordBot discordBot, DiscordDispatcher discordDispatcher) {
+        return new DiscordManager(discordBot, discordDispatcher);
     }
 }
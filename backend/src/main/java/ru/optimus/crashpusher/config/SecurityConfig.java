@@ -67,6 +67,8 @@ public class SecurityConfig {
         configuration.setAllowedOrigins(Collections.singletonList(corsIp));
         configuration.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"));
         configuration.setAllowedHeaders(List.of("*"));
+        // Общее число строк в постраничных списках
+        configuration.setExposedHeaders(List.of("X-Total-Count"));
         configuration.setAllowCredentials(true);
         configuration.setMaxAge(3600L);
 
@@ -3,16 +3,28 @@ package ru.optimus.crashpusher.controller;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import ru.optimus.crashpusher.dto.*;
 import ru.optimus.crashpusher.model.Crash;
 import ru.optimus.crashpusher.model.User;
 import ru.optimus.crashpusher.model.UserCrash;
+import ru.optimus.crashpusher.repository.projection.CrashGroupSummary;
+import ru.optimus.crashpusher.repository.projection.CrashPreview;
+import ru.optimus.crashpusher.repository.projection.CrashSearchHit;
 import ru.optimus.crashpusher.service.CrashService;
+import ru.optimus.crashpusher.stats.CrashSignatureTracker;
+import ru.optimus.crashpusher.stats.CrashSimilarityIndex;
+import ru.optimus.crashpusher.stats.DataVersion;
+import ru.optimus.crashpusher.stats.PlayerNameIndex;
 
 import org.springframework.web.bind.annotation.*;
 import ru.optimus.crashpusher.service.UserCrashService;
@@ -25,6 +37,7 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -36,9 +49,18 @@ import java.util.stream.Collectors;
 @Slf4j
 public class APIController {
 
+    /**
+     * Как часто меняется ETag у топа по скользящим окнам
+     */
+    private static final Duration TIME_GRANULARITY = Duration.ofMinutes(1);
+
     private final UserCrashService userCrashService;
     private final CrashService crashService;
     private final UserService userService;
+    private final CrashSignatureTracker crashSignatureTracker;
+    private final CrashSimilarityIndex crashSimilarityIndex;
+    private final DataVersion dataVersion;
+    private final PlayerNameIndex playerNameIndex;
 
     @GetMapping("/users")
     public ResponseEntity<List<Map<String, Object>>> getUsers(
@@ -59,147 +81,273 @@ public class APIController {
     }
 
 
+    // GET /players?q=&sort=crashes|unfixed|recent|name&page=&size= — игроки с агрегатами по крашам
+    @GetMapping("/players")
+    public ResponseEntity<List<Map<String, Object>>> getPlayers(
+            @RequestParam(value = "q", required = false, defaultValue = "") String q,
+            @RequestParam(value = "sort", defaultValue = "crashes") String sort,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "50") int size,
+            WebRequest request
+    ) {
+        return dataVersion.respond(request, () -> {
+            Page<UserCrash> players = userCrashService.findUsers(q, sort, Math.max(page, 0), Math.clamp(size, 1, 500));
+
+            List<Map<String, Object>> result = players.stream().map(u -> {
+                Map<String, Object> map = new HashMap<>();
+                map.put("id", u.getId());
+                map.put("username", u.getUsername());
+                map.put("crashesCount", u.getCrashCount());
+                map.put("unfixedCount", u.getUnfixedCount());
+                map.put("lastCrashAt", u.getLastCrashAt());
+                map.put("topSignature", u.getTopSignature());
+                map.put("topSignatureCount", u.getTopSignatureCount());
+                return map;
+            }).toList();
+
+            return ResponseEntity.ok()
+                    .header("X-Total-Count", String.valueOf(players.getTotalElements()))
+                    .body(result);
+        });
+    }
+
+    // GET /players/suggest?q=&limit= — автодополнение ника: сначала по префиксу, затем по подстроке
+    @GetMapping("/players/suggest")
+    public ResponseEntity<List<PlayerNameIndex.Suggestion>> suggestPlayers(
+            @RequestParam(value = "q", defaultValue = "") String q,
+            @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return ResponseEntity.ok(playerNameIndex.suggest(q, Math.clamp(limit, 1, 50)));
+    }
+
     @GetMapping("/users/{id}/crashes")
     public ResponseEntity<List<Map<String, Object>>> getUserCrashes(
             @PathVariable("id") Long userId,
             @RequestParam(value = "page", defaultValue = "0") int page,
-            @RequestParam(value = "size", defaultValue = "50") int size
+            @RequestParam(value = "size", defaultValue = "50") int size,
+            WebRequest request
     ) {
-        List<Crash> crashes = userCrashService.getCrashesByUser(userId);
+        return dataVersion.respond(request, () -> {
+            Page<CrashPreview> crashes = userCrashService.getCrashesByUser(userId, Math.max(page, 0), Math.clamp(size, 1, 500));
 
-        int fromIndex = Math.min(page * size, crashes.size());
-        int toIndex = Math.min(fromIndex + size, crashes.size());
-        List<Crash> pageCrashes = crashes.subList(fromIndex, toIndex);
-
-        List<Map<String, Object>> result = pageCrashes.stream().map(c -> {
-            Map<String, Object> map = new HashMap<>();
-            map.put("id", c.getId());
-            map.put("createdAt", c.getId());
-            map.put("summary", c.getContent() != null && c.getContent().length() > 100
-                    ? c.getContent().substring(0, 100)
-                    : c.getContent());
-            return map;
-        }).toList();
+            List<Map<String, Object>> result = crashes.stream().map(c -> {
+                Map<String, Object> map = new HashMap<>();
+                map.put("id", c.getId());
+                map.put("createdAt", c.getCreateAt());
+                map.put("summary", c.getSummary());
+                return map;
+            }).toList();
 
-        return ResponseEntity.ok(result);
+            return ResponseEntity.ok(result);
+        });
     }
 
     @GetMapping("/crashes/{id}")
-    public ResponseEntity<Crash> getCrashById(@PathVariable("id") Long crashId) {
-        Crash crash = crashService.getCrashById(crashId);
-        if (crash == null) return ResponseEntity.notFound().build();
-        return ResponseEntity.ok(crash);
+    public ResponseEntity<Crash> getCrashById(@PathVariable("id") Long crashId, WebRequest request) {
+        return dataVersion.respond(request, () -> {
+            Crash crash = crashService.getCrashById(crashId);
+            if (crash == null) return ResponseEntity.notFound().build();
+            return ResponseEntity.ok(crash);
+        });
     }
 
-    @GetMapping("/crashes")
-    public ResponseEntity<List<Map<String, Object>>> getGlobalCrashes(
-            @RequestParam(value = "grouped", required = false, defaultValue = "false") boolean grouped,
-            @RequestParam(value = "q", required = false, defaultValue = "") String q,
-            @RequestParam(value = "sort", required = false, defaultValue = "count_desc") String sort
+    @GetMapping(value = "/crashes/{id}/raw", produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> getCrashContent(@PathVariable("id") Long crashId, WebRequest request) {
+        return dataVersion.respond(request, () -> crashService.getCrashContent(crashId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build()));
+    }
+
+    // GET /crashes/regressions?limit= — исправленные группы, которые вернулись, и всплески новых сигнатур
+    @GetMapping("/crashes/regressions")
+    public ResponseEntity<List<Map<String, Object>>> getRegressions(
+            @RequestParam(value = "limit", defaultValue = "50") int limit,
+            WebRequest request
     ) {
-        List<Crash> allCrashes = crashService.getGlobalCrashes();
+        return dataVersion.respond(request, () -> {
+            List<Map<String, Object>> regressions = crashSignatureTracker.getRegressions(Math.clamp(limit, 1, 500)).stream()
+                    .map(info -> {
+                        Map<String, Object> map = new HashMap<>();
+                        map.put("signatureHash", info.getSignature());
+                        map.put("reason", info.getRegressionReason());
+                        map.put("regressedAt", info.getRegressedAt());
+                        map.put("firstSeen", info.getFirstSeen());
+                        map.put("lastSeen", info.getLastSeen());
+                        map.put("isFix", info.isFixed());
+                        map.put("fixedAt", info.getFixedAt());
+                        map.put("occurrencesSinceFix", info.getOccurrencesSinceFix());
+                        map.put("count", crashSignatureTracker.getCount(info.getSignature(), CrashSignatureTracker.Window.ALL));
+                        map.put("example", info.getPreview());
+                        map.put("exampleId", info.getExampleCrashId());
+                        return map;
+                    })
+                    .toList();
+            return ResponseEntity.ok(regressions);
+        });
+    }
 
-        if (!q.isEmpty()) {
-            allCrashes = allCrashes.stream()
-                    .filter(c -> c.getContent() != null && c.getContent().toLowerCase().contains(q.toLowerCase()))
+    // GET /crashes/{id}/similar?limit=&minSimilarity= — группы с похожим набором фреймов
+    @GetMapping("/crashes/{id}/similar")
+    public ResponseEntity<Map<String, Object>> getSimilarCrashes(
+            @PathVariable("id") Long crashId,
+            @RequestParam(value = "limit", defaultValue = "10") int limit,
+            @RequestParam(value = "minSimilarity", required = false) Double minSimilarity,
+            WebRequest request
+    ) {
+        return dataVersion.respond(request, () -> {
+            String signature = crashService.getCrashSignature(crashId).orElse(null);
+            if (signature == null) return ResponseEntity.notFound().build();
+
+            double min = minSimilarity != null ? minSimilarity : crashSimilarityIndex.getThreshold();
+            List<Map<String, Object>> similar = crashSimilarityIndex.findSimilar(signature, min, Math.clamp(limit, 1, 100)).stream()
+                    .map(n -> {
+                        Map<String, Object> map = new HashMap<>();
+                        map.put("signatureHash", n.signature());
+                        map.put("similarity", n.similarity());
+                        map.put("count", crashSignatureTracker.getCount(n.signature(), CrashSignatureTracker.Window.ALL));
+                        crashSignatureTracker.getSignature(n.signature()).ifPresent(info -> {
+                            map.put("example", info.getPreview());
+                            map.put("exampleId", info.getExampleCrashId());
+                            map.put("lastCreateAt", info.getLastSeen());
+                            map.put("isFix", info.isFixed());
+                        });
+                        return map;
+                    })
                     .toList();
-        }
 
-        if (!grouped) {
-            List<Map<String, Object>> result = allCrashes.stream().map(c -> {
-                Map<String, Object> map = new HashMap<>();
-                map.put("id", c.getId());
-                map.put("userId", c.getUserCrash() != null ? c.getUserCrash().getId() : null);
-                map.put("content", c.getContent());
-                map.put("isFix", c.isFix());
-                map.put("createAt", c.getCreateAt());
-                return map;
-            }).toList();
+            Map<String, Object> result = new HashMap<>();
+            result.put("signatureHash", signature);
+            crashSimilarityIndex.getCluster(signature).ifPresent(cluster -> {
+                result.put("cluster", cluster.root());
+                result.put("clusterSize", cluster.size());
+            });
+            result.put("similar", similar);
             return ResponseEntity.ok(result);
-        }
+        });
+    }
 
-        Map<String, List<Crash>> groupedMap = allCrashes.stream()
-                .collect(Collectors.groupingBy(c -> c.getContent() != null ? c.getContent() : ""));
-
-        List<Map<String, Object>> result = groupedMap.entrySet().stream().map(e -> {
-            List<Crash> crashes = e.getValue();
-            if (crashes.isEmpty()) return null;
-
-            if (sort.equals("date_desc")) {
-                crashes = crashes.stream()
-                        .sorted((a, b) -> b.getCreateAt().compareTo(a.getCreateAt()))
-                        .toList();
-            } else if (sort.equals("date_asc")) {
-                crashes = crashes.stream()
-                        .sorted(Comparator.comparing(Crash::getCreateAt))
-                        .toList();
+    @GetMapping("/crashes")
+    public ResponseEntity<List<Map<String, Object>>> getGlobalCrashes(
+            @RequestParam(value = "grouped", required = false, defaultValue = "false") boolean grouped,
+            @RequestParam(value = "q", required = false, defaultValue = "") String q,
+            @RequestParam(value = "sort", required = false, defaultValue = "count_desc") String sort,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", required = false) Integer size,
+            WebRequest request
+    ) {
+        return dataVersion.respond(request, () -> {
+            if (!q.isBlank()) {
+                int pageSize = size != null ? Math.clamp(size, 1, 500) : 50;
+                return searchCrashes(q.trim(), grouped, sort, Math.max(page, 0), pageSize);
             }
 
-            Crash first = crashes.getFirst();
-            Crash last = crashes.getLast();
+            // Без size отдаем весь список, как и раньше
+            Pageable pageable = size != null ? PageRequest.of(Math.max(page, 0), Math.clamp(size, 1, 500)) : Pageable.unpaged();
 
-            boolean hasFix = crashes.stream().anyMatch(Crash::isFix);
+            if (!grouped) {
+                Page<CrashPreview> crashes = crashService.getCrashPreviews(pageable);
+                List<Map<String, Object>> result = crashes.stream().map(c -> {
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("id", c.getId());
+                    map.put("userId", c.getUserId());
+                    map.put("summary", c.getSummary());
+                    map.put("isFix", c.getFix());
+                    map.put("createAt", c.getCreateAt());
+                    return map;
+                }).toList();
+                return ResponseEntity.ok()
+                        .header("X-Total-Count", String.valueOf(crashes.getTotalElements()))
+                        .body(result);
+            }
 
-            Map<String, Object> map = new HashMap<>();
-            map.put("id", first.getId());
-            map.put("signature", e.getKey());
-            map.put("count", crashes.size());
-            map.put("lastSeen", last.getId());
-            map.put("example", e.getKey());
-            map.put("exampleId", first.getId());
-            map.put("examplePlayer", first.getUserCrash() != null ? first.getUserCrash().getUsername() : "-");
-            map.put("isFix", hasFix);
-            map.put("createAt", first.getCreateAt());
-            map.put("lastCreateAt", last.getCreateAt());
-            return map;
-        }).filter(Objects::nonNull).toList();
+            Page<CrashGroupSummary> groups = crashService.getCrashGroups(sort, pageable);
+            return ResponseEntity.ok()
+                    .header("X-Total-Count", String.valueOf(groups.getTotalElements()))
+                    .body(groups.stream().map(this::toGroupMap).toList());
+        });
+    }
 
-        if (sort.equals("count_desc")) {
-            result = result.stream()
-                    .sorted((a, b) -> Long.compare((Integer) b.get("count"), (Integer) a.get("count")))
-                    .toList();
-        }
-        else if (sort.equals("date_desc")) {
-            result = result.stream()
-                    .sorted((a, b) -> ((LocalDateTime) b.get("createAt")).compareTo((LocalDateTime) a.get("createAt")))
-                    .toList();
-        } else if (sort.equals("date_asc")) {
-            result = result.stream()
-                    .sorted(Comparator.comparing(a -> ((LocalDateTime) a.get("createAt"))))
-                    .toList();
+
+    private ResponseEntity<List<Map<String, Object>>> searchCrashes(String q, boolean grouped, String sort, int page, int size) {
+        if (!grouped) {
+            Page<CrashSearchHit> hits = crashService.searchCrashes(q, page, size);
+            List<Map<String, Object>> result = hits.stream().map(h -> {
+                Map<String, Object> map = new HashMap<>();
+                map.put("id", h.getId());
+                map.put("userId", h.getUserId());
+                map.put("username", h.getUsername());
+                map.put("summary", h.getSnippet());
+                map.put("isFix", h.getFix());
+                map.put("createAt", h.getCreateAt());
+                return map;
+            }).toList();
+            return ResponseEntity.ok()
+                    .header("X-Total-Count", String.valueOf(hits.getTotalElements()))
+                    .body(result);
         }
 
-        return ResponseEntity.ok(result);
+        Page<CrashGroupSummary> groups = crashService.searchCrashGroups(q, sort, page, size);
+        return ResponseEntity.ok()
+                .header("X-Total-Count", String.valueOf(groups.getTotalElements()))
+                .body(groups.stream().map(this::toGroupMap).toList());
     }
 
+    private Map<String, Object> toGroupMap(CrashGroupSummary g) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", g.getFirstId());
+        map.put("signature", g.getPreview());
+        map.put("signatureHash", g.getSignature());
+        map.put("count", g.getCount());
+        map.put("lastSeen", g.getLastId());
+        map.put("example", g.getPreview());
+        map.put("exampleId", g.getFirstId());
+        map.put("examplePlayer", g.getExamplePlayer() != null ? g.getExamplePlayer() : "-");
+        map.put("isFix", g.getFix());
+        map.put("regressions", g.getRegressions());
+        map.put("createAt", g.getFirstCreateAt());
+        map.put("lastCreateAt", g.getLastCreateAt());
+        return map;
+    }
 
     @PatchMapping("/crashes/{id}/fix")
-    public ResponseEntity<?> setFix(@PathVariable long id,  @RequestBody UpdateCrashFixRequest request){
+    public ResponseEntity<?> setFix(@PathVariable long id,  @RequestBody UpdateCrashFixRequest request,
+                                    @RequestParam(value = "group", defaultValue = "false") boolean group){
+        if (group) {
+            // Вся группа с той же сигнатурой одним запросом
+            return crashService.setGroupFix(id, request.getIsFix())
+                    .<ResponseEntity<?>>map(signature -> ResponseEntity.ok(Map.of(
+                            "signatureHash", signature,
+                            "isFix", request.getIsFix())))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        }
         return ResponseEntity.ok(crashService.setFix(id, request.getIsFix()));
     }
 
-    // GET /crashes/top?limit=
+    // GET /crashes/top?limit=&window=1h|24h|7d|all
     @GetMapping("/crashes/top")
     public ResponseEntity<List<Map<String, Object>>> getTopCrashes(
-            @RequestParam(value = "limit", defaultValue = "10") int limit
+            @RequestParam(value = "limit", defaultValue = "10") int limit,
+            @RequestParam(value = "window", defaultValue = "all") String window,
+            WebRequest request
     ) {
-        List<Crash> allCrashes = crashService.getGlobalCrashes();
-
-        Map<String, Long> countMap = allCrashes.stream()
-                .collect(Collectors.groupingBy(c -> c.getContent() != null ? c.getContent() : "", Collectors.counting()));
-
-        List<Map<String, Object>> top = countMap.entrySet().stream()
-                .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-                .limit(limit)
-                .map(e -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("signature", e.getKey());
-                    map.put("count", e.getValue());
-                    map.put("example", e.getKey());
-                    return map;
-                })
-                .toList();
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> {
+            List<CrashSignatureTracker.TopSignature> topSignatures =
+                    crashSignatureTracker.getTopSignatures(CrashSignatureTracker.Window.fromParam(window), Math.clamp(limit, 0, 100));
+
+            // Поля как у сгруппированного /crashes: signature — превью, signatureHash — хеш группы
+            List<Map<String, Object>> top = topSignatures.stream()
+                    .map(t -> {
+                        Map<String, Object> map = new HashMap<>();
+                        map.put("signature", t.preview());
+                        map.put("signatureHash", t.signature());
+                        map.put("count", t.count());
+                        map.put("example", t.preview());
+                        map.put("exampleId", t.exampleCrashId());
+                        map.put("lastCreateAt", t.lastSeen());
+                        return map;
+                    })
+                    .toList();
 
-        return ResponseEntity.ok(top);
+            return ResponseEntity.ok(top);
+        });
     }
 }
@@ -0,0 +1,33 @@
+package ru.optimus.crashpusher.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.optimus.crashpusher.discord.DiscordBot;
+
+import java.util.Map;
+
+/**
+ * Проверка здоровья в формате actuator {@code /health}. Бэкенд работает и без Discord, поэтому состояние бота
+ * отдается отдельным компонентом и не влияет на общий статус. Эндпоинт публичный, поэтому здесь только статус;
+ * подробности (состояние, последняя ошибка) — в {@code /api/admin/notifications/discord}.
+ */
+@RestController
+@RequestMapping("/api/public/health")
+@RequiredArgsConstructor
+public class HealthController {
+
+    private final DiscordBot discordBot;
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> health() {
+        return ResponseEntity.ok(Map.of(
+                "status", "UP",
+                "components", Map.of("discord", Map.of(
+                        "status", discordBot.isConnected() ? "UP" : "DOWN"
+                ))
+        ));
+    }
+}
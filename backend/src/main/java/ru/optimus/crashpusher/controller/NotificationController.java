@@ -0,0 +1,49 @@
+package ru.optimus.crashpusher.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import ru.optimus.crashpusher.discord.DiscordBot;
+import ru.optimus.crashpusher.discord.NotificationRelay;
+import ru.optimus.crashpusher.pushers.PusherRegistry;
+
+import java.util.Map;
+
+/**
+ * Очередь уведомлений в Discord: отставание outbox, счетчики доставки и возврат DEAD-уведомлений;
+ * состояние бота Discord и остальных приемников крашей
+ */
+@RestController
+@RequestMapping("/api/admin/notifications")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+public class NotificationController {
+
+    private final NotificationRelay notificationRelay;
+    private final PusherRegistry pusherRegistry;
+    private final DiscordBot discordBot;
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(notificationRelay.getMetrics());
+    }
+
+    @PostMapping("/dead/retry")
+    public ResponseEntity<Map<String, Object>> retryDead() {
+        return ResponseEntity.ok(Map.of("requeued", notificationRelay.retryDead()));
+    }
+
+    /**
+     * Состояние подключения бота с последней ошибкой; в публичном health только UP/DOWN
+     */
+    @GetMapping("/discord")
+    public ResponseEntity<Map<String, Object>> getDiscord() {
+        return ResponseEntity.ok(discordBot.getStatus());
+    }
+
+    @GetMapping("/sinks")
+    public ResponseEntity<Map<String, Object>> getSinks() {
+        return ResponseEntity.ok(Map.of("sinks", pusherRegistry.getStatus()));
+    }
+}
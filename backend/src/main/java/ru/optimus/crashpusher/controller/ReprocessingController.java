@@ -0,0 +1,67 @@
+package ru.optimus.crashpusher.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import ru.optimus.crashpusher.reprocess.ReprocessingRunner;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Управление задачами перепроцессинга крашей: прогресс, запуск, остановка, сброс чекпоинта и лимит скорости
+ */
+@RestController
+@RequestMapping("/api/admin/reprocessing")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+public class ReprocessingController {
+
+    private final ReprocessingRunner reprocessingRunner;
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(Map.of(
+                "jobs", reprocessingRunner.getStatus(),
+                "rowsPerSecondLimit", reprocessingRunner.getRowsPerSecond()
+        ));
+    }
+
+    @PostMapping("/{job}/start")
+    public ResponseEntity<Map<String, Object>> start(@PathVariable String job) {
+        try {
+            return ResponseEntity.ok(Map.of("job", job, "started", reprocessingRunner.start(job)));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/{job}/stop")
+    public ResponseEntity<Map<String, Object>> stop(@PathVariable String job) {
+        try {
+            return ResponseEntity.ok(Map.of("job", job, "stopping", reprocessingRunner.stop(job)));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/{job}/reset")
+    public ResponseEntity<Map<String, Object>> reset(@PathVariable String job) {
+        try {
+            reprocessingRunner.reset(job);
+            return ResponseEntity.ok(Map.of("job", job, "reset", true));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PutMapping("/throttle")
+    public ResponseEntity<Map<String, Object>> throttle(@RequestParam int rowsPerSecond) {
+        reprocessingRunner.setRowsPerSecond(rowsPerSecond);
+        return ResponseEntity.ok(Map.of("rowsPerSecondLimit", reprocessingRunner.getRowsPerSecond()));
+    }
+}
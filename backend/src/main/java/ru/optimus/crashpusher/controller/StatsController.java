@@ -4,9 +4,17 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import ru.optimus.crashpusher.analysis.CrashAnalyzer;
+import ru.optimus.crashpusher.service.DashboardService;
 import ru.optimus.crashpusher.service.StatsService;
+import ru.optimus.crashpusher.stats.DataVersion;
+import ru.optimus.crashpusher.stats.StatsCache;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
 import java.util.Map;
 
 @RestController
@@ -14,55 +22,202 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class StatsController {
 
+    /**
+     * Как часто меняется ETag у статистики, посчитанной относительно текущего времени
+     */
+    private static final Duration TIME_GRANULARITY = Duration.ofMinutes(1);
+
+    private static final int MAX_SIGNATURE_LENGTH = 32;
+
+    private static final int MAX_ACTIVITY_HOURS = 168;
+
     private final StatsService statsService;
+    private final DashboardService dashboardService;
+    private final DataVersion dataVersion;
+    private final StatsCache statsCache;
+
+    /**
+     * Все разделы страницы статистики одним запросом, посчитанные параллельно из одной версии данных
+     */
+    @GetMapping("/dashboard")
+    public ResponseEntity<Map<String, Object>> getDashboard(
+            @RequestParam(defaultValue = "7d") String period,
+            @RequestParam(defaultValue = "10") int topPlayersLimit,
+            @RequestParam(defaultValue = "15") int exceptionsLimit,
+            @RequestParam(defaultValue = "24") int hours,
+            WebRequest request) {
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> ResponseEntity.ok(
+                dashboardService.getDashboard(StatsService.normalizePeriod(period), Math.clamp(topPlayersLimit, 1, 100),
+                        Math.clamp(exceptionsLimit, 1, 100), Math.clamp(hours, 1, MAX_ACTIVITY_HOURS))));
+    }
 
     @GetMapping("/overall")
-    public ResponseEntity<Map<String, Object>> getOverallStats() {
-        return ResponseEntity.ok(statsService.getOverallStatistics());
+    public ResponseEntity<Map<String, Object>> getOverallStats(WebRequest request) {
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> ResponseEntity.ok(
+                statsCache.get("overall", StatsCache.TIME_TTL, statsService::getOverallStatistics)));
     }
 
     @GetMapping("/trends")
     public ResponseEntity<Map<String, Object>> getCrashTrends(
-            @RequestParam(defaultValue = "7d") String period) {
-        return ResponseEntity.ok(statsService.getCrashTrends(period));
+            @RequestParam(defaultValue = "7d") String period,
+            WebRequest request) {
+        String p = StatsService.normalizePeriod(period);
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> ResponseEntity.ok(
+                statsCache.get("trends?period=" + p, StatsCache.TIME_TTL, () -> statsService.getCrashTrends(p))));
+    }
+
+    /**
+     * Ряд крашей из роллапов с дельтой к предыдущему периоду; по умолчанию всего, либо по сигнатуре или исключению
+     */
+    @GetMapping("/timeseries")
+    public ResponseEntity<Map<String, Object>> getTimeSeries(
+            @RequestParam(defaultValue = "7d") String period,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "auto") String granularity,
+            @RequestParam(required = false) String signature,
+            @RequestParam(required = false) String exception,
+            WebRequest request) {
+        if (!granularity.matches("(?i)auto|minute|hour|day")) {
+            return ResponseEntity.badRequest().body(Map.of("error", "granularity must be one of auto, minute, hour, day"));
+        }
+        if ((signature != null && signature.length() > MAX_SIGNATURE_LENGTH)
+                || (exception != null && exception.length() > CrashAnalyzer.MAX_CLASS_LENGTH)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "signature or exception is too long"));
+        }
+        String p = StatsService.normalizePeriod(period);
+        LocalDateTime start = toMinute(from);
+        LocalDateTime end = toMinute(to);
+        String step = granularity.toLowerCase(Locale.ROOT);
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> ResponseEntity.ok(
+                statsCache.get("timeseries?period=" + p + "&from=" + start + "&to=" + end + "&granularity=" + step
+                                + "&signature=" + signature + "&exception=" + exception, StatsCache.TIME_TTL,
+                        () -> statsService.getTimeSeries(p, start, end, step, signature, exception))));
     }
 
     @GetMapping("/top-players")
     public ResponseEntity<Map<String, Object>> getTopPlayers(
             @RequestParam(defaultValue = "10") int limit,
-            @RequestParam(defaultValue = "all") String period) {
-        return ResponseEntity.ok(statsService.getTopPlayers(limit, period));
+            @RequestParam(defaultValue = "all") String period,
+            WebRequest request) {
+        int top = Math.clamp(limit, 1, 100);
+        String p = StatsService.normalizePeriod(period);
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> ResponseEntity.ok(
+                statsCache.get("top-players?limit=" + top + "&period=" + p, StatsCache.TIME_TTL,
+                        () -> statsService.getTopPlayers(top, p))));
     }
 
     @GetMapping("/frequency")
-    public ResponseEntity<Map<String, Object>> getCrashFrequency() {
-        return ResponseEntity.ok(statsService.getCrashFrequencyDistribution());
+    public ResponseEntity<Map<String, Object>> getCrashFrequency(WebRequest request) {
+        return dataVersion.respond(request, () -> ResponseEntity.ok(
+                statsCache.get("frequency", StatsCache.DATA_TTL, statsService::getCrashFrequencyDistribution)));
     }
 
     @GetMapping("/fix-status")
-    public ResponseEntity<Map<String, Object>> getFixStats() {
-        return ResponseEntity.ok(statsService.getFixStatusStatistics());
+    public ResponseEntity<Map<String, Object>> getFixStats(WebRequest request) {
+        return dataVersion.respond(request, () -> ResponseEntity.ok(
+                statsCache.get("fix-status", StatsCache.DATA_TTL, statsService::getFixStatusStatistics)));
     }
 
     @GetMapping("/hourly")
-    public ResponseEntity<Map<String, Object>> getHourlyStats() {
-        return ResponseEntity.ok(statsService.getHourlyDistribution());
+    public ResponseEntity<Map<String, Object>> getHourlyStats(WebRequest request) {
+        return dataVersion.respond(request, () -> ResponseEntity.ok(
+                statsCache.get("hourly", StatsCache.DATA_TTL, statsService::getHourlyDistribution)));
     }
 
     @GetMapping("/exceptions")
     public ResponseEntity<Map<String, Object>> getExceptionStats(
-            @RequestParam(defaultValue = "15") int limit) {
-        return ResponseEntity.ok(statsService.getExceptionStatistics(limit));
+            @RequestParam(defaultValue = "15") int limit,
+            WebRequest request) {
+        int top = Math.clamp(limit, 1, 100);
+        return dataVersion.respond(request, () -> ResponseEntity.ok(
+                statsCache.get("exceptions?limit=" + top, StatsCache.DATA_TTL, () -> statsService.getExceptionStatistics(top))));
     }
 
     @GetMapping("/user-patterns")
-    public ResponseEntity<Map<String, Object>> getUserPatterns() {
-        return ResponseEntity.ok(statsService.getUserPatterns());
+    public ResponseEntity<Map<String, Object>> getUserPatterns(WebRequest request) {
+        return dataVersion.respond(request, () -> ResponseEntity.ok(
+                statsCache.get("user-patterns", StatsCache.DATA_TTL, statsService::getUserPatterns)));
+    }
+
+    @GetMapping("/packages")
+    public ResponseEntity<Map<String, Object>> getTopPackages(
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(defaultValue = "7d") String period,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            WebRequest request) {
+        String p = StatsService.normalizePeriod(period);
+        LocalDateTime start = toMinute(from);
+        LocalDateTime end = toMinute(to);
+        int top = Math.clamp(limit, 1, 500);
+        return dataVersion.respond(request, TIME_GRANULARITY,
+                () -> ResponseEntity.ok(statsCache.get("packages?limit=" + top + "&period=" + p + "&from=" + start + "&to=" + end,
+                        StatsCache.TIME_TTL, () -> statsService.getTopPackages(top, p, start, end))));
+    }
+
+    @GetMapping("/frames")
+    public ResponseEntity<Map<String, Object>> getTopFrames(
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(defaultValue = "7d") String period,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            WebRequest request) {
+        String p = StatsService.normalizePeriod(period);
+        LocalDateTime start = toMinute(from);
+        LocalDateTime end = toMinute(to);
+        int top = Math.clamp(limit, 1, 500);
+        return dataVersion.respond(request, TIME_GRANULARITY,
+                () -> ResponseEntity.ok(statsCache.get("frames?limit=" + top + "&period=" + p + "&from=" + start + "&to=" + end,
+                        StatsCache.TIME_TTL, () -> statsService.getTopFrames(top, p, start, end))));
+    }
+
+    // GET /frames/crashes?frame=pkg.Class.method или ?package=pkg
+    @GetMapping("/frames/crashes")
+    public ResponseEntity<Map<String, Object>> getCrashesWithFrame(
+            @RequestParam(required = false) String frame,
+            @RequestParam(value = "package", required = false) String pkg,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(defaultValue = "all") String period,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            WebRequest request) {
+        if (frame == null && pkg == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "frame or package is required"));
+        }
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> ResponseEntity.ok(
+                statsService.getCrashesWithFrame(frame, pkg, Math.clamp(limit, 1, 500), period, from, to)));
     }
 
     @GetMapping("/recent-activity")
     public ResponseEntity<Map<String, Object>> getRecentActivity(
-            @RequestParam(defaultValue = "24") int hours) {
-        return ResponseEntity.ok(statsService.getRecentActivity(hours));
+            @RequestParam(defaultValue = "24") int hours,
+            WebRequest request) {
+        int window = Math.clamp(hours, 1, MAX_ACTIVITY_HOURS);
+        return dataVersion.respond(request, TIME_GRANULARITY, () -> ResponseEntity.ok(
+                statsCache.get("recent-activity?hours=" + window, StatsCache.TIME_TTL, () -> statsService.getRecentActivity(window))));
+    }
+
+    /**
+     * Всплески крашей относительно EWMA-нормы; состояние живое, поэтому без кэша и ETag
+     */
+    @GetMapping("/anomalies")
+    public ResponseEntity<Map<String, Object>> getAnomalies(@RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(statsService.getAnomalies(Math.clamp(limit, 1, 100)));
+    }
+
+    /**
+     * Попадания, промахи и время вычисления в кэше статистики
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> getCacheMetrics() {
+        return ResponseEntity.ok(statsCache.getMetrics());
+    }
+
+    /**
+     * Границы диапазона с точностью до минуты (мельче роллапов нет) — чтобы секунды не плодили ключи кэша
+     */
+    private static LocalDateTime toMinute(LocalDateTime time) {
+        return time != null ? time.truncatedTo(ChronoUnit.MINUTES) : null;
     }
-}
\ No newline at end of file
+}
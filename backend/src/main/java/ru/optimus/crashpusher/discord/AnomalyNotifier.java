@@ -0,0 +1,27 @@
+package ru.optimus.crashpusher.discord;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.optimus.crashpusher.event.CrashAnomalyEvent;
+import ru.optimus.crashpusher.service.NotificationOutbox;
+
+/**
+ * Шлет всплески крашей в Discord (через outbox), если включено crash.anomalies.notify
+ */
+@Component
+@RequiredArgsConstructor
+public class AnomalyNotifier {
+
+    private final NotificationOutbox notificationOutbox;
+
+    @Value("${crash.anomalies.notify:false}")
+    private boolean notify;
+
+    @EventListener
+    public void onAnomaly(CrashAnomalyEvent event) {
+        if (!notify) return;
+        notificationOutbox.enqueueMessage(DiscordManager.anomalyMessage(event));
+    }
+}
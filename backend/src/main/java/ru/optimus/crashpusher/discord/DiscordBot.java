@@ -1,130 +1,274 @@
 package ru.optimus.crashpusher.discord;
 
+import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.events.StatusChangeEvent;
+import net.dv8tion.jda.api.events.channel.ChannelCreateEvent;
+import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.events.channel.update.ChannelUpdateNameEvent;
+import net.dv8tion.jda.api.events.session.ShutdownEvent;
+import net.dv8tion.jda.api.exceptions.InvalidTokenException;
+import net.dv8tion.jda.api.exceptions.RateLimitedException;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.requests.restaction.MessageCreateAction;
 import net.dv8tion.jda.api.utils.FileUpload;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 
-import javax.security.auth.login.LoginException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Обертка над JDA. Каналы ищутся по имени один раз, дальше берутся по id из кэша JDA;
+ * кэш имен сбрасывается, когда каналы создаются, удаляются или переименовываются.
+ * Отправка асинхронная через {@code submit()} — потоки не ждут ответа Discord.
+ * <p>
+ * Подключение идет в фоне после старта приложения, так что бэкенд поднимается, даже если Discord
+ * недоступен или токен неверный. Сообщения, отправленные до готовности, ждут ее; {@link DiscordManager#isEnabled()}
+ * отражает текущее состояние соединения.
+ */
+@Slf4j
 public class DiscordBot {
-    private final JDA jda;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 300_000;
+
+    private final String token;
     private final String defaultChannelName;
+    private final CompletableFuture<JDA> ready = new CompletableFuture<>();
+
+    private volatile JDA jda;
+    private volatile String state = "NOT_STARTED";
+    private volatile LocalDateTime stateSince = LocalDateTime.now();
+    private volatile String lastError;
+    private volatile boolean started;
+
+    /**
+     * Имя канала в нижнем регистре -> id
+     */
+    private final Map<String, Long> channelIds = new ConcurrentHashMap<>();
 
-    public DiscordBot(String token, String defaultChannelName) throws InterruptedException {
+    public DiscordBot(String token, String defaultChannelName) {
+        this.token = token;
         this.defaultChannelName = defaultChannelName;
+    }
+
+    /**
+     * Подключение на отдельном потоке. Если Discord недоступен уже при входе, пробуем снова с растущей паузой;
+     * после входа разрывы JDA переживает сам
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        Thread.ofPlatform().daemon().name("discord-bot-start").start(this::connect);
+    }
+
+    private void connect() {
+        long delay = 5000;
+        while (started) {
+            setState("STARTING");
+            try {
+                jda = JDABuilder.createDefault(token)
+                        .enableIntents(GatewayIntent.GUILD_MESSAGES)
+                        .addEventListeners(new ChannelCacheListener(), new StatusListener())
+                        .build();
+                jda.awaitReady();
+                // CONNECTED мог прийти раньше, чем jda присвоен
+                setState(jda.getStatus().name());
+                DiscordManager.setEnabled(isConnected());
+                lastError = null;
+                ready.complete(jda);
+                log.info("Discord бот запущен: {}", jda.getSelfUser().getAsTag());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (InvalidTokenException | IllegalArgumentException e) {
+                // С этим токеном не подключиться никогда
+                lastError = e.getMessage();
+                ready.completeExceptionally(e);
+                log.error("Discord бот не запустился: {}", e.getMessage());
+                return;
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                log.warn("Discord недоступен ({}), повтор через {} с", e.getMessage(), delay / 1000);
+            }
+
+            setState("RETRYING");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delay = Math.min(MAX_RETRY_DELAY_MILLIS, delay * 2);
+        }
+    }
+
+    /**
+     * Завершается, когда бот подключен; ошибкой — если подключиться не удалось
+     */
+    public CompletableFuture<JDA> whenReady() {
+        return ready;
+    }
 
-        this.jda = JDABuilder.createDefault(token)
-                .enableIntents(GatewayIntent.GUILD_MESSAGES)
-                .build();
+    /**
+     * Бот не подключится никогда: токен не задан или Discord его отверг. Временная недоступность сюда не относится
+     */
+    public boolean isDisabled() {
+        return token == null || token.isBlank() || ready.isCompletedExceptionally();
+    }
 
-        this.jda.awaitReady();
-        System.out.println("Discord бот запущен: " + jda.getSelfUser().getAsTag());
+    public boolean isConnected() {
+        JDA current = jda;
+        return current != null && current.getStatus() == JDA.Status.CONNECTED;
     }
 
     /**
-     * Отправка сообщения с файлом (СИНХРОННАЯ версия)
+     * Состояние для проверки здоровья: статус JDA (или NOT_STARTED / FAILED), с какого момента и последняя ошибка
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        // После неудачного старта JDA еще присылает SHUTTING_DOWN/SHUTDOWN — важнее, что старт провалился
+        status.put("state", ready.isCompletedExceptionally() ? "FAILED" : state);
+        status.put("since", stateSince.toString());
+        status.put("connected", isConnected());
+        if (lastError != null) {
+            status.put("error", lastError);
+        }
+        return status;
+    }
+
+    private void setState(String state) {
+        this.state = state;
+        this.stateSince = LocalDateTime.now();
+    }
+
+    /**
+     * Отправка сообщения с файлом в канал по умолчанию
      */
     public CompletableFuture<Void> sendMessageWithFile(String message, FileUpload fileUpload) {
         return sendMessageWithFileToChannel(defaultChannelName, message, fileUpload);
     }
 
     /**
-     * Отправка сообщения с файлом в конкретный канал (СИНХРОННАЯ версия)
+     * Отправка сообщения с файлом в конкретный канал после готовности бота; future завершается ошибкой,
+     * если канала нет или Discord отказал
      */
     public CompletableFuture<Void> sendMessageWithFileToChannel(String channelName, String message, FileUpload fileUpload) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                TextChannel channel = findTextChannelByName(channelName);
-                if (channel != null) {
-                    channel.sendMessage(message)
-                            .addFiles(fileUpload)
-                            .complete();
-
-                    System.out.println("Сообщение с файлом отправлено в канал: " + channelName);
-                } else {
-                    System.err.println("Канал не найден: " + channelName);
-                    throw new RuntimeException("Channel not found: " + channelName);
-                }
-            } catch (Exception e) {
-                System.err.println("Ошибка отправки файла в Discord: " + e.getMessage());
-                throw new RuntimeException(e);
-            }
-        });
+        return ready.thenCompose(j -> doSendMessageWithFile(channelName, message, fileUpload));
+    }
+
+    private CompletableFuture<Void> doSendMessageWithFile(String channelName, String message, FileUpload fileUpload) {
+        TextChannel channel = findTextChannelByName(channelName);
+        if (channel == null) {
+            log.warn("Канал не найден: {}", channelName);
+            return CompletableFuture.failedFuture(new IllegalStateException("Channel not found: " + channelName));
+        }
+        return channel.sendMessage(message)
+                .addFiles(fileUpload)
+                .submit()
+                .whenComplete((sent, e) -> {
+                    if (e != null) log.warn("Ошибка отправки файла в Discord: {}", e.getMessage());
+                    else log.debug("Сообщение с файлом отправлено в канал: {}", channelName);
+                })
+                .thenApply(sent -> null);
     }
 
     /**
-     * Отправка простого сообщения
+     * Отправка простого сообщения в канал по умолчанию
      */
     public CompletableFuture<Void> sendMessage(String message) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                TextChannel channel = findTextChannelByName(defaultChannelName);
-                if (channel != null) {
-                    channel.sendMessage(message).complete();
-                    System.out.println("Сообщение отправлено в канал: " + defaultChannelName);
-                } else {
-                    System.err.println("Канал не найден: " + defaultChannelName);
-                }
-            } catch (Exception e) {
-                System.err.println("Ошибка отправки сообщения в Discord: " + e.getMessage());
-            }
-        });
+        return sendMessageToChannel(defaultChannelName, message);
     }
 
     public CompletableFuture<Void> sendMessage(String message, String channelName) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                TextChannel channel = findTextChannelByName(channelName);
-                if (channel != null) {
-                    channel.sendMessage(message).complete();
-                } else {
-                    System.err.println("Канал не найден: " + defaultChannelName);
-                }
-            } catch (Exception e) {
-                System.err.println("Ошибка отправки сообщения в Discord: " + e.getMessage());
-            }
-        });
+        return sendMessageToChannel(channelName, message);
     }
 
+    /**
+     * Отправка простого сообщения в указанный канал после готовности бота; ошибки только логируются
+     */
+    public CompletableFuture<Void> sendMessageToChannel(String channelName, String message) {
+        return ready.thenCompose(j -> doSendMessage(channelName, message))
+                .exceptionally(e -> {
+                    log.warn("Сообщение в Discord не отправлено: {}", e.getMessage());
+                    return null;
+                });
+    }
 
-
+    private CompletableFuture<Void> doSendMessage(String channelName, String message) {
+        TextChannel channel = findTextChannelByName(channelName);
+        if (channel == null) {
+            log.warn("Канал не найден: {}", channelName);
+            return CompletableFuture.completedFuture(null);
+        }
+        return channel.sendMessage(message)
+                .submit()
+                .handle((sent, e) -> {
+                    if (e != null) log.warn("Ошибка отправки сообщения в Discord: {}", e.getMessage());
+                    else log.debug("Сообщение отправлено в канал: {}", channelName);
+                    return null;
+                });
+    }
 
     /**
-     * Отправка простого сообщения в указанный канал
+     * Синхронная отправка в канал по умолчанию для {@link DiscordDispatcher}: вызывается на его потоке
+     * и при лимите Discord не ждет, а бросает {@link RateLimitedException} с временем ожидания
+     *
+     * @param attachment содержимое вложения или null
      */
-    public CompletableFuture<Void> sendMessageToChannel(String channelName, String message) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                TextChannel channel = findTextChannelByName(channelName);
-                if (channel != null) {
-                    channel.sendMessage(message).complete();
-                    System.out.println("Сообщение отправлено в канал: " + channelName);
-                } else {
-                    System.err.println("Канал не найден: " + channelName);
-                }
-            } catch (Exception e) {
-                System.err.println("Ошибка отправки сообщения в Discord: " + e.getMessage());
-            }
-        });
+    void send(String message, String fileName, byte[] attachment) throws RateLimitedException {
+        if (!isConnected()) {
+            throw new IllegalStateException("Discord bot is not connected");
+        }
+        TextChannel channel = findTextChannelByName(defaultChannelName);
+        if (channel == null) {
+            throw new IllegalStateException("Channel not found: " + defaultChannelName);
+        }
+        MessageCreateAction action = channel.sendMessage(message);
+        if (attachment != null) {
+            action = action.addFiles(FileUpload.fromData(attachment, fileName));
+        }
+        action.complete(false);
     }
 
     /**
-     * Поиск текстового канала по имени
+     * Текстовый канал по имени: после первого поиска — по id из кэша JDA; null, пока бот не готов
      */
     TextChannel findTextChannelByName(String channelName) {
-        return jda.getTextChannelsByName(channelName, true)
+        JDA jda = this.jda;
+        if (jda == null) return null;
+        String key = channelName.toLowerCase(Locale.ROOT);
+        Long id = channelIds.get(key);
+        if (id != null) {
+            TextChannel channel = jda.getTextChannelById(id);
+            if (channel != null) return channel;
+            channelIds.remove(key, id);
+        }
+
+        TextChannel channel = jda.getTextChannelsByName(channelName, true)
                 .stream()
                 .findFirst()
                 .orElse(null);
+        if (channel != null) {
+            channelIds.put(key, channel.getIdLong());
+        }
+        return channel;
     }
 
     /**
      * Получение списка доступных каналов
      */
     public void printAvailableChannels() {
+        if (jda == null) return;
         System.out.println("=== Доступные текстовые каналы ===");
         jda.getTextChannels().forEach(channel ->
                 System.out.println("• " + channel.getName() + " (ID: " + channel.getId() + ")")
@@ -135,13 +279,64 @@ public class DiscordBot {
      * Корректное отключение бота
      */
     public void shutdown() {
-        if (jda != null) {
-            jda.shutdown();
-            System.out.println("Discord бот отключен");
+        synchronized (this) {
+            started = false;
         }
+        JDA current = jda;
+        if (current != null) {
+            current.shutdown();
+            log.info("Discord бот отключен");
+        }
+        DiscordManager.setEnabled(false);
     }
 
     public JDA getJda() {
         return jda;
     }
-}
\ No newline at end of file
+
+    /**
+     * Держит {@link DiscordManager#isEnabled()} в соответствии с соединением: разрывы и переподключения
+     * JDA проходят через смену статуса
+     */
+    private final class StatusListener extends ListenerAdapter {
+
+        @Override
+        public void onStatusChange(StatusChangeEvent event) {
+            // События от неудачной предыдущей попытки входа не в счет
+            if (event.getJDA() != jda) return;
+            JDA.Status status = event.getNewStatus();
+            setState(status.name());
+            DiscordManager.setEnabled(status == JDA.Status.CONNECTED);
+            if (status == JDA.Status.CONNECTED || status == JDA.Status.DISCONNECTED) {
+                log.info("Discord бот: {}", status);
+            }
+        }
+
+        @Override
+        public void onShutdown(ShutdownEvent event) {
+            if (event.getJDA() != jda) return;
+            DiscordManager.setEnabled(false);
+        }
+    }
+
+    /**
+     * Имя может начать указывать на другой канал — проще забыть все найденные id
+     */
+    private final class ChannelCacheListener extends ListenerAdapter {
+
+        @Override
+        public void onChannelCreate(ChannelCreateEvent event) {
+            channelIds.clear();
+        }
+
+        @Override
+        public void onChannelDelete(ChannelDeleteEvent event) {
+            channelIds.clear();
+        }
+
+        @Override
+        public void onChannelUpdateName(ChannelUpdateNameEvent event) {
+            channelIds.clear();
+        }
+    }
+}
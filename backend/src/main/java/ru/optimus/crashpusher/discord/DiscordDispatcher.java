@@ -0,0 +1,302 @@
+package ru.optimus.crashpusher.discord;
+
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.exceptions.RateLimitedException;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Очередь уведомлений в Discord со своим потоком отправки.
+ * <p>
+ * Вызывающий код только кладет уведомление в ограниченную очередь и сразу возвращается; если очередь полна,
+ * уведомление отбрасывается и учитывается в метриках. Один поток отправляет сообщения по порядку, не чаще
+ * {@code minIntervalMillis}, а при 429 от Discord ждет указанное им время и повторяет то же сообщение.
+ * <p>
+ * Краши одной сигнатуры склеиваются: первый в окне уходит полностью, остальные только считаются, и по
+ * окончании окна уходит одно сообщение-дайджест "×37 за 2 мин". Пока краш повторяется, раз в окно уходит
+ * новый дайджест, поэтому число сообщений при всплеске не растет вместе с числом крашей. Future краша,
+ * попавшего в дайджест, завершается вместе с отправкой дайджеста: до этого его строка outbox остается в работе,
+ * и при перезапуске посреди окна краш не теряется.
+ * <p>
+ * Каждое уведомление несет future с итогом отправки — по нему {@code NotificationRelay} отмечает строку outbox.
+ * При остановке future недоставленных сообщений так и остаются незавершенными: их строки вернутся в работу
+ * по истечении аренды.
+ */
+@Slf4j
+public class DiscordDispatcher {
+
+    /**
+     * Сколько игроков перечислять в дайджесте
+     */
+    private static final int DIGEST_PLAYERS = 5;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final DiscordBot bot;
+    private final BlockingQueue<Notification> queue;
+    private final long digestWindowMillis;
+    private final long minIntervalMillis;
+    private final Map<String, Digest> digests = new HashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread worker;
+    private long lastSentMillis;
+
+    public DiscordDispatcher(DiscordBot bot, int queueCapacity, int digestWindowSeconds, long minIntervalMillis) {
+        this.bot = bot;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.digestWindowMillis = Math.max(1, digestWindowSeconds) * 1000L;
+        this.minIntervalMillis = Math.max(0, minIntervalMillis);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        worker = Thread.ofPlatform().daemon().name("discord-dispatcher").start(this::run);
+    }
+
+    public void shutdown() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Поставить сообщение в очередь
+     *
+     * @return итог отправки; завершается {@link RejectedExecutionException}, если очередь полна
+     */
+    public CompletableFuture<Void> submit(String message) {
+        return offer(new Notification(message, null, null));
+    }
+
+    /**
+     * Уведомление о краше: первое в окне по сигнатуре уходит с вложением, остальные попадают в дайджест
+     *
+     * @param crashId      повторная отправка того же краша (истекла аренда) не считается в дайджесте дважды
+     * @param summary      строка для дайджеста, одна на сигнатуру
+     * @param notification собирает сообщение с вложением; вызывается, только если краш не попал в дайджест
+     * @return итог отправки; для краша, учтенного в дайджесте, — итог отправки дайджеста
+     */
+    public CompletableFuture<Void> submitCrash(String signature, long crashId, String playerName, String summary,
+                                               Supplier<Notification> notification) {
+        long now = System.currentTimeMillis();
+        Digest opened = new Digest(summary, now);
+        synchronized (digests) {
+            Digest digest = digests.get(signature);
+            if (digest != null) {
+                coalesced.incrementAndGet();
+                return digest.add(crashId, playerName);
+            }
+            // Окно открывается сразу, чтобы параллельный краш той же сигнатуры не ушел вторым полным сообщением
+            digests.put(signature, opened);
+        }
+
+        CompletableFuture<Void> result;
+        try {
+            result = offer(notification.get());
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        if (result.isCompletedExceptionally()) {
+            // Первый краш не ушел — окно закрываем, иначе следующие попали бы в дайджест без самого краша;
+            // успевшие в него краши уходят на повтор
+            List<CompletableFuture<Void>> stranded;
+            synchronized (digests) {
+                digests.remove(signature, opened);
+                stranded = new ArrayList<>(opened.crashes.values());
+            }
+            result.whenComplete((ignored, e) -> stranded.forEach(crash -> crash.completeExceptionally(e)));
+        }
+        return result;
+    }
+
+    /**
+     * Итог краша, который ждет отправки дайджеста, а не места в очереди
+     */
+    public static boolean awaitsDigest(CompletableFuture<?> result) {
+        return result instanceof DigestResult;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("queued", queue.size());
+        metrics.put("sent", sent.get());
+        metrics.put("failed", failed.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("coalesced", coalesced.get());
+        metrics.put("rateLimited", rateLimited.get());
+        synchronized (digests) {
+            metrics.put("openDigests", digests.size());
+        }
+        return metrics;
+    }
+
+    private CompletableFuture<Void> offer(Notification notification) {
+        if (!queue.offer(notification)) {
+            dropped.incrementAndGet();
+            notification.result().completeExceptionally(new RejectedExecutionException("Discord queue is full"));
+        }
+        return notification.result();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                // Пока бот не подключен, сообщения ждут в очереди
+                if (!bot.isConnected()) {
+                    Thread.sleep(1000);
+                    continue;
+                }
+                Notification notification = queue.poll(1, TimeUnit.SECONDS);
+                closeDigests(System.currentTimeMillis());
+                if (notification != null) {
+                    deliver(notification);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Ошибка диспетчера Discord", e);
+            }
+        }
+    }
+
+    /**
+     * Окна, которые закончились: с повторами — в дайджест и новое окно, без повторов — закрываем
+     */
+    private void closeDigests(long now) {
+        List<Notification> ready = new ArrayList<>();
+        synchronized (digests) {
+            Iterator<Map.Entry<String, Digest>> it = digests.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Digest> entry = it.next();
+                Digest digest = entry.getValue();
+                if (now - digest.windowStart < digestWindowMillis) continue;
+
+                if (digest.crashes.isEmpty()) {
+                    it.remove();
+                } else {
+                    Notification message = new Notification(digest.message(entry.getKey(), now - digest.windowStart), null, null);
+                    List<CompletableFuture<Void>> results = new ArrayList<>(digest.crashes.values());
+                    message.result().whenComplete((ignored, e) -> results.forEach(result -> {
+                        if (e == null) result.complete(null);
+                        else result.completeExceptionally(e);
+                    }));
+                    ready.add(message);
+                    digest.reset(now);
+                }
+            }
+        }
+        ready.forEach(this::offer);
+    }
+
+    private void deliver(Notification notification) throws InterruptedException {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            long wait = lastSentMillis + minIntervalMillis - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+            try {
+                bot.send(notification.message(), notification.fileName(), notification.attachment());
+                lastSentMillis = System.currentTimeMillis();
+                sent.incrementAndGet();
+                notification.result().complete(null);
+                return;
+            } catch (RateLimitedException e) {
+                // Discord сказал, сколько ждать, — ждем и повторяем то же сообщение
+                rateLimited.incrementAndGet();
+                Thread.sleep(Math.max(e.getRetryAfter(), minIntervalMillis));
+            } catch (Exception e) {
+                lastSentMillis = System.currentTimeMillis();
+                log.warn("Ошибка отправки сообщения в Discord", e);
+                failed.incrementAndGet();
+                notification.result().completeExceptionally(e);
+                return;
+            }
+        }
+        failed.incrementAndGet();
+        notification.result().completeExceptionally(new IllegalStateException("Discord rate limit: attempts exhausted"));
+    }
+
+    /**
+     * @param attachment содержимое вложения или null
+     * @param result     завершается после отправки или отказа
+     */
+    public record Notification(String message, String fileName, byte[] attachment, CompletableFuture<Void> result) {
+
+        public Notification(String message, String fileName, byte[] attachment) {
+            this(message, fileName, attachment, new CompletableFuture<>());
+        }
+    }
+
+    private static final class Digest {
+
+        final String summary;
+        final Set<String> players = new LinkedHashSet<>();
+        // Краши окна по id и итог их отправки
+        final Map<Long, CompletableFuture<Void>> crashes = new HashMap<>();
+        // Игроки сверх первых DIGEST_PLAYERS — в сообщении только их число
+        final Set<String> otherPlayers = new HashSet<>();
+        long windowStart;
+
+        Digest(String summary, long windowStart) {
+            this.summary = summary;
+            this.windowStart = windowStart;
+        }
+
+        CompletableFuture<Void> add(long crashId, String playerName) {
+            CompletableFuture<Void> existing = crashes.get(crashId);
+            if (existing != null) return existing;
+            CompletableFuture<Void> result = new DigestResult();
+            crashes.put(crashId, result);
+            addPlayer(playerName);
+            return result;
+        }
+
+        private void addPlayer(String playerName) {
+            if (players.contains(playerName)) return;
+            if (players.size() < DIGEST_PLAYERS) {
+                players.add(playerName);
+            } else {
+                otherPlayers.add(playerName);
+            }
+        }
+
+        void reset(long now) {
+            windowStart = now;
+            crashes.clear();
+            otherPlayers.clear();
+            players.clear();
+        }
+
+        String message(String signature, long elapsedMillis) {
+            String who = String.join(", ", players) + (otherPlayers.isEmpty() ? "" : " и другие (" + otherPlayers.size() + ")");
+            return String.format(
+                    "🔁 **Повтор краша** `%s`\n" +
+                            "📊 **×%d за последние %d мин** (`%s`)\n" +
+                            "👥 **Игроки:** %s\n" +
+                            "🕒 **Время:** <t:%d:F>",
+                    summary, crashes.size(), Math.max(1, Math.round(elapsedMillis / 60000.0)), signature, who,
+                    System.currentTimeMillis() / 1000
+            );
+        }
+    }
+
+    private static final class DigestResult extends CompletableFuture<Void> {
+    }
+}
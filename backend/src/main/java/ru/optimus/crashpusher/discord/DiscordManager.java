@@ -1,6 +1,7 @@
 package ru.optimus.crashpusher.discord;
 
 import lombok.*;
+import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.components.actionrow.ActionRow;
 import net.dv8tion.jda.api.components.buttons.Button;
@@ -11,145 +12,173 @@ import net.dv8tion.jda.api.entities.emoji.Emoji;
 import net.dv8tion.jda.api.utils.FileUpload;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import ru.optimus.crashpusher.analysis.CrashAnalyzer;
+import ru.optimus.crashpusher.analysis.CrashSignatures;
+import ru.optimus.crashpusher.event.CrashAnomalyEvent;
+import ru.optimus.crashpusher.event.CrashRegressionEvent;
+import ru.optimus.crashpusher.model.RegressionReason;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
 
+@Slf4j
 @RequiredArgsConstructor
 public class DiscordManager {
     private final DiscordBot bot;
+    private final DiscordDispatcher dispatcher;
+    /**
+     * Бот подключен к Discord; выставляется по статусу соединения в {@link DiscordBot}
+     */
     @Getter
     @Setter
-    private static boolean enabled = false;
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+    private static volatile boolean enabled = false;
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    /**
+     * Отчеты больше этого размера прикладываются сжатыми
+     */
+    @Value("${discord.attachments.gzip-threshold-bytes:1048576}")
+    private int gzipThresholdBytes;
+
+    /**
+     * Дальше отчет обрезается, а в сообщении дается ссылка на полный (лимит вложения Discord — 10 МБ)
+     */
+    @Value("${discord.attachments.max-bytes:8388608}")
+    private int maxAttachmentBytes;
 
     @Value("${cors}")
     private String corsIp;
 
     /**
-     * Отправка уведомления о краше с прикрепленным файлом
+     * Уведомление о краше с прикрепленным отчетом. Только ставит сообщение в очередь {@link DiscordDispatcher};
+     * повторы той же сигнатуры склеиваются в дайджест, и для них вложение даже не собирается
+     *
+     * @param signature сохраненная (нормализованная) сигнатура краша — ключ дайджеста; если ее нет, считается по отчету
+     * @param crashId id сохраненного краша — для ссылки на полный отчет, если вложение обрезано
+     * @return итог отправки; завершается ошибкой, если бот не готов или Discord отказал
      */
-    public void sendCrashNotification(String playerName, String crashContent, String originalFileName) {
-        System.out.println(bot);
-        System.out.println(enabled);
+    public CompletableFuture<Void> sendCrashNotification(String playerName, String crashContent, String signature,
+                                                         long crashId) {
         if (!enabled || bot == null) {
-            System.err.println("Discord бот не инициализирован!");
-            return;
+            return CompletableFuture.failedFuture(new IllegalStateException("Discord бот не инициализирован"));
         }
 
-        CompletableFuture.runAsync(() -> {
-            Path tempFile = null;
-            try {
-                tempFile = createTempCrashFile(playerName, crashContent, originalFileName);
-
-                sendCrashReportWithFile(playerName, crashContent, tempFile).join();
-
-            } catch (Exception e) {
-                System.err.println("Ошибка отправки краш-репорта в Discord: " + e.getMessage());
-            } finally {
-                // Удаляем файл в finally блоке
-                if (tempFile != null) {
-                    try {
-                        Files.deleteIfExists(tempFile);
-                        System.out.println("Временный файл удален: " + tempFile.getFileName());
-                    } catch (IOException e) {
-                        System.err.println("Не удалось удалить временный файл: " + tempFile + " - " + e.getMessage());
-                    }
-                }
+        String shortSummary = CrashAnalyzer.summary(crashContent);
+        String digestKey = signature != null ? signature : CrashSignatures.of(crashContent);
+        return dispatcher.submitCrash(digestKey, crashId, playerName, shortSummary, () -> {
+            Attachment attachment = buildAttachment(playerName, crashContent);
+            String message = String.format(
+                    "🚨 **Краш-репорт от игрока** `%s`\n" +
+                            "📊 **Краткое описание:** `%s`\n" +
+                            "📁 **Полный отчет прикреплен ниже** ⬇️\n" +
+                            "🕒 **Время:** <t:%d:F>",
+                    playerName, shortSummary, System.currentTimeMillis() / 1000
+            );
+            if (attachment.truncated()) {
+                message += String.format("\n✂️ **Отчет обрезан до %d КБ, полный:** %s",
+                        maxAttachmentBytes / 1024, crashUrl(crashId));
             }
+            return new DiscordDispatcher.Notification(message, attachment.fileName(), attachment.data());
         });
     }
 
     /**
-     * Создание временного файла для краш-репорта
+     * Отчет как вложение прямо из памяти: больше {@code maxAttachmentBytes} обрезается по границе символа,
+     * больше {@code gzipThresholdBytes} сжимается в .txt.gz
      */
-    private static Path createTempCrashFile(String playerName, String crashContent, String originalFileName) throws IOException {
-        String timestamp = dateFormat.format(new Date());
-        String safePlayerName = playerName.replaceAll("[^a-zA-Z0-9-_]", "_");
-        String fileName = String.format("crash_%s_%s.txt", safePlayerName, timestamp);
+    private Attachment buildAttachment(String playerName, String crashContent) {
+        byte[] data = crashContent.getBytes(StandardCharsets.UTF_8);
+        boolean truncated = data.length > maxAttachmentBytes;
+        if (truncated) {
+            int end = maxAttachmentBytes;
+            // Не режем многобайтовый символ UTF-8 посередине
+            while (end > 0 && (data[end] & 0xC0) == 0x80) end--;
+            data = Arrays.copyOf(data, end);
+        }
 
-        Path tempDir = Paths.get("./temp_crash_reports");
-        if (!Files.exists(tempDir)) {
-            Files.createDirectories(tempDir);
+        String fileName = crashFileName(playerName);
+        if (data.length > gzipThresholdBytes) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Attachment(fileName + ".gz", buffer.toByteArray(), truncated);
         }
+        return new Attachment(fileName, data, truncated);
+    }
 
-        Path tempFile = tempDir.resolve(fileName);
+    private static String crashFileName(String playerName) {
+        String timestamp = FILE_TIMESTAMP.format(LocalDateTime.now());
+        String safePlayerName = playerName.replaceAll("[^a-zA-Z0-9-_]", "_");
+        return String.format("crash_%s_%s.txt", safePlayerName, timestamp);
+    }
 
-        Files.write(tempFile, crashContent.getBytes(StandardCharsets.UTF_8));
-        return tempFile;
+    private String crashUrl(long crashId) {
+        String base = corsIp == null ? "" : corsIp.trim().replaceAll("/+$", "");
+        if (!base.startsWith("http://") && !base.startsWith("https://")) {
+            base = "http://" + base;
+        }
+        return base + "/crash/" + crashId;
     }
 
-    /**
-     * Отправка краш-репорта с прикрепленным файлом (возвращает CompletableFuture)
-     */
-    private CompletableFuture<Void> sendCrashReportWithFile(String playerName, String crashContent, Path crashFile) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                String shortSummary = extractCrashSummary(crashContent);
-
-                String message = String.format(
-                        "🚨 **Краш-репорт от игрока** `%s`\n" +
-                                "📊 **Краткое описание:** `%s`\n" +
-                                "📁 **Полный отчет прикреплен ниже** ⬇️\n" +
-                                "🕒 **Время:** <t:%d:F>",
-                        playerName, shortSummary, System.currentTimeMillis() / 1000
-                );
-
-                File file = crashFile.toFile();
-                FileUpload fileUpload = FileUpload.fromData(file, crashFile.getFileName().toString());
-
-                // Ждем завершения отправки
-                bot.sendMessageWithFile(message, fileUpload).join();
-
-                System.out.println("Краш-репорт отправлен в Discord с файлом: " + crashFile.getFileName());
-
-            } catch (Exception e) {
-                System.err.println("Ошибка отправки файла в Discord: " + e.getMessage());
-                throw new RuntimeException(e); // Пробрасываем исключение чтобы обработать в основном потоке
-            }
-        });
+    private record Attachment(String fileName, byte[] data, boolean truncated) {
     }
 
     /**
-     * Извлечение краткого описания краша
+     * Готовое сообщение в очередь {@link DiscordDispatcher}
      */
-    private static String extractCrashSummary(String crashContent) {
-        // Ищем основное исключение
-        if (crashContent.contains("java.lang.NullPointerException")) {
-            return "NullPointerException";
-        } else if (crashContent.contains("java.lang.ArrayIndexOutOfBoundsException")) {
-            return "ArrayIndexOutOfBoundsException";
-        } else if (crashContent.contains("java.io.IOException")) {
-            return "IOException";
-        } else if (crashContent.contains("OutOfMemoryError")) {
-            return "OutOfMemoryError";
+    public CompletableFuture<Void> sendMessage(String message) {
+        if (!enabled || bot == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Discord бот не инициализирован"));
         }
+        return dispatcher.submit(message);
+    }
 
-        // Пытаемся извлечь первую строку с исключением
-        String[] lines = crashContent.split("\n");
-        for (String line : lines) {
-            if (line.contains("Exception") || line.contains("Error")) {
-                // Берем только тип исключения без полного пути
-                String[] parts = line.trim().split("\\s+");
-                for (String part : parts) {
-                    if (part.contains("Exception") || part.contains("Error")) {
-                        return part.replace(":", "").trim();
-                    }
-                }
-                return line.trim();
-            }
-        }
+    /**
+     * Текст уведомления о регрессии группы крашей
+     */
+    public static String regressionMessage(CrashRegressionEvent event) {
+        String reason = event.reason() == RegressionReason.REAPPEARED
+                ? "исправленный краш появился снова (" + event.occurrences() + " после исправления)"
+                : "новая сигнатура: " + event.occurrences() + " крашей за час";
+        return String.format(
+                "⚠️ **Регрессия краша** `%s`\n" +
+                        "📊 **Причина:** %s\n" +
+                        "📄 **Пример:** `%s`\n" +
+                        "🕒 **Время:** <t:%d:F>",
+                event.signature(), reason,
+                event.exampleCrashId() != null ? "#" + event.exampleCrashId() : "-",
+                System.currentTimeMillis() / 1000
+        );
+    }
 
-        return "Unknown Error";
+    /**
+     * Текст уведомления о всплеске крашей
+     */
+    public static String anomalyMessage(CrashAnomalyEvent event) {
+        String scope = event.isGlobal() ? "все краши" : "`" + event.signature() + "`";
+        return String.format(
+                "📈 **Всплеск крашей:** %s\n" +
+                        "📊 **Окно:** %d крашей при норме %.1f ± %.1f (%.1fσ)\n" +
+                        "💥 **Исключение:** `%s`\n" +
+                        "📄 **Пример:** `%s`\n" +
+                        "🕒 **Время:** <t:%d:F>",
+                scope, event.count(), event.baseline(), event.stddev(), event.sigmas(),
+                event.exceptionClass() != null ? event.exceptionClass() : "-",
+                event.exampleCrashId() != null ? "#" + event.exampleCrashId() : "-",
+                System.currentTimeMillis() / 1000
+        );
     }
 
     /**
@@ -162,79 +191,85 @@ public class DiscordManager {
             FileUpload fileUpload = FileUpload.fromData(file, file.getName());
             bot.sendMessageWithFile(message, fileUpload);
         } catch (Exception e) {
-            System.err.println("Ошибка отправки файла: " + e.getMessage());
+            log.warn("Ошибка отправки файла в Discord", e);
         }
     }
 
     public CompletableFuture<Void> sendAdminConfirmationToken(String token, String channelName){
-        return CompletableFuture.runAsync(() -> {
+        return bot.sendMessageToChannel(channelName, "Токен для подтверждения регистрации %s".formatted(token));
+    }
+
+    /**
+     * Эмбед с токеном; если бот еще подключается, уходит после подключения
+     */
+    public CompletableFuture<Void> sendEmbedWithButtons(String token, String channelName, int expirationHours, String username) {
+        return bot.whenReady()
+                .thenCompose(jda -> sendEmbed(token, channelName, expirationHours, username))
+                .exceptionally(e -> {
+                    log.warn("Эмбед в Discord не отправлен", e);
+                    return null;
+                });
+    }
+
+    private CompletableFuture<Void> sendEmbed(String token, String channelName, int expirationHours, String username) {
+        try {
             TextChannel channel = bot.findTextChannelByName(channelName);
             if (channel == null) {
-                System.err.println("Канал не найден: " + channelName);
-                return;
+                log.warn("Канал не найден: {}", channelName);
+                return CompletableFuture.completedFuture(null);
             }
-            channel.sendMessage("Токен для подтверждения регистрации %s".formatted(token)).queue();
-        });
-    }
 
-    public CompletableFuture<Void> sendEmbedWithButtons(String token, String channelName, int expirationHours, String username) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                TextChannel channel = bot.findTextChannelByName(channelName);
-                if (channel == null) {
-                    System.err.println("Канал не найден: " + channelName);
-                    return;
-                }
-
-                // Валидация и формирование URL
-                String url = createValidUrl(token);
-                if (url == null) {
-                    System.err.println("Не удалось создать валидный URL для токена: " + token);
-                    return;
-                }
-
-                // Получаем гильдию для доступа к пользователям
-                Guild guild = channel.getGuild();
-
-                // Создаем сообщение с учетом языка
-                MessageData messageData = createLocalizedMessage(token, url, expirationHours, guild, username);
-
-                MessageEmbed embed = new EmbedBuilder()
-                        .setTitle(messageData.getTitle())
-                        .setDescription(messageData.getDescription())
-                        .setColor(0x5865F2)
-                        .addField(messageData.getFields().get(0).getName(),
-                                messageData.getFields().get(0).getValue(), false)
-                        .addField(messageData.getFields().get(1).getName(),
-                                messageData.getFields().get(1).getValue(), true)
-                        .addField(messageData.getFields().get(2).getName(),
-                                messageData.getFields().get(2).getValue(), true)
-                        .addField(messageData.getFields().get(3).getName(),
-                                messageData.getFields().get(3).getValue(), false)
-                        .setThumbnail("https://cdn-icons-png.flaticon.com/512/3063/3063817.png")
-                        .setFooter(messageData.getFooter(),
-                                "https://cdn-icons-png.flaticon.com/512/1077/1077012.png")
-                        .setTimestamp(java.time.Instant.now())
-                        .build();
-
-                ActionRow actionRow = ActionRow.of(
-                        Button.link(url, messageData.getButton1())
-                                .withEmoji(Emoji.fromUnicode("📊")),
-                        Button.secondary("copy_token", messageData.getButton2())
-                                .withEmoji(Emoji.fromUnicode("📋"))
-                );
-
-                channel.sendMessageEmbeds(embed)
-                        .setComponents(actionRow)
-                        .complete();
-
-                System.out.println("Эмбед успешно отправлен в канал: " + channelName);
-
-            } catch (Exception e) {
-                System.err.println("Ошибка отправки эмбеда в Discord: " + e.getMessage());
-                e.printStackTrace();
+            // Валидация и формирование URL
+            String url = createValidUrl(token);
+            if (url == null) {
+                log.warn("Не удалось сформировать ссылку для подтверждения");
+                return CompletableFuture.completedFuture(null);
             }
-        });
+
+            // Получаем гильдию для доступа к пользователям
+            Guild guild = channel.getGuild();
+
+            // Создаем сообщение с учетом языка
+            MessageData messageData = createLocalizedMessage(token, url, expirationHours, guild, username);
+
+            MessageEmbed embed = new EmbedBuilder()
+                    .setTitle(messageData.getTitle())
+                    .setDescription(messageData.getDescription())
+                    .setColor(0x5865F2)
+                    .addField(messageData.getFields().get(0).getName(),
+                            messageData.getFields().get(0).getValue(), false)
+                    .addField(messageData.getFields().get(1).getName(),
+                            messageData.getFields().get(1).getValue(), true)
+                    .addField(messageData.getFields().get(2).getName(),
+                            messageData.getFields().get(2).getValue(), true)
+                    .addField(messageData.getFields().get(3).getName(),
+                            messageData.getFields().get(3).getValue(), false)
+                    .setThumbnail("https://cdn-icons-png.flaticon.com/512/3063/3063817.png")
+                    .setFooter(messageData.getFooter(),
+                            "https://cdn-icons-png.flaticon.com/512/1077/1077012.png")
+                    .setTimestamp(java.time.Instant.now())
+                    .build();
+
+            ActionRow actionRow = ActionRow.of(
+                    Button.link(url, messageData.getButton1())
+                            .withEmoji(Emoji.fromUnicode("📊")),
+                    Button.secondary("copy_token", messageData.getButton2())
+                            .withEmoji(Emoji.fromUnicode("📋"))
+            );
+
+            return channel.sendMessageEmbeds(embed)
+                    .setComponents(actionRow)
+                    .submit()
+                    .handle((sent, e) -> {
+                        if (e != null) log.warn("Ошибка отправки эмбеда в Discord", e);
+                        else log.debug("Эмбед отправлен в канал: {}", channelName);
+                        return null;
+                    });
+
+        } catch (Exception e) {
+            log.warn("Ошибка отправки эмбеда в Discord", e);
+            return CompletableFuture.completedFuture(null);
+        }
     }
 
     /**
@@ -243,7 +278,7 @@ public class DiscordManager {
     private String createValidUrl(String token) {
         try {
             if (corsIp == null || corsIp.trim().isEmpty()) {
-                System.err.println("corsIp не настроен в конфигурации");
+                log.warn("cors не настроен в конфигурации");
                 return null;
             }
 
@@ -264,12 +299,11 @@ public class DiscordManager {
             String url = "http://" + cleanCorsIp + "/users?token=" + cleanToken;
 
 
-            System.out.println("Сформирован URL: " + url);
-            System.out.println("Длина токена: " + cleanToken.length());
+            log.debug("Сформирована ссылка для подтверждения, длина токена: {}", cleanToken.length());
             return url;
 
         } catch (Exception e) {
-            System.err.println("Ошибка при создании URL: " + e.getMessage());
+            log.warn("Ошибка при создании URL", e);
             return null;
         }
     }
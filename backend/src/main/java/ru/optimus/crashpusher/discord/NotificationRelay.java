@@ -0,0 +1,252 @@
+package ru.optimus.crashpusher.discord;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.optimus.crashpusher.model.OutboxKind;
+import ru.optimus.crashpusher.model.OutboxNotification;
+import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.repository.OutboxNotificationRepository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Доставка уведомлений из notification_outbox в Discord.
+ * <p>
+ * Раз в {@code poll-interval-ms} забирает порцию созревших строк ({@code FOR UPDATE SKIP LOCKED}, так что
+ * несколько экземпляров не берут одно и то же) и сдвигает им время следующей попытки на срок аренды.
+ * Дальше строки уходят в {@link DiscordDispatcher}; итог отправки копится в памяти и записывается в БД
+ * на следующем проходе, чтобы поток диспетчера не ходил в базу. Ошибка — повтор через base·2^(n-1),
+ * после {@code max-attempts} строка становится DEAD. Если процесс упал посреди отправки, строка вернется
+ * после аренды, поэтому доставка "хотя бы один раз".
+ * <p>
+ * Краш, склеенный в дайджест, отмечается отправленным только после отправки самого дайджеста, поэтому аренда
+ * должна быть длиннее окна дайджеста. Такие строки не занимают слоты {@code max-in-flight}: они ждут окна, а не
+ * очереди диспетчера. Неотправленные строки старше {@code max-pending-hours} удаляются как устаревшие.
+ */
+@Slf4j
+@Component
+public class NotificationRelay {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final OutboxNotificationRepository outboxRepository;
+    private final CrashRepository crashRepository;
+    private final DiscordManager discordManager;
+    private final DiscordDispatcher dispatcher;
+    private final TransactionTemplate transaction;
+
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long leaseMillis;
+    private final int retentionDays;
+    private final int maxPendingHours;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    public NotificationRelay(OutboxNotificationRepository outboxRepository,
+                             CrashRepository crashRepository,
+                             DiscordManager discordManager,
+                             DiscordDispatcher dispatcher,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${discord.outbox.batch-size:50}") int batchSize,
+                             @Value("${discord.outbox.max-in-flight:32}") int maxInFlight,
+                             @Value("${discord.outbox.max-attempts:10}") int maxAttempts,
+                             @Value("${discord.outbox.base-backoff-ms:5000}") long baseBackoffMillis,
+                             @Value("${discord.outbox.max-backoff-ms:3600000}") long maxBackoffMillis,
+                             @Value("${discord.outbox.lease-ms:300000}") long leaseMillis,
+                             @Value("${discord.outbox.retention-days:7}") int retentionDays,
+                             @Value("${discord.outbox.max-pending-hours:24}") int maxPendingHours) {
+        this.outboxRepository = outboxRepository;
+        this.crashRepository = crashRepository;
+        this.discordManager = discordManager;
+        this.dispatcher = dispatcher;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffMillis = Math.max(1, baseBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.baseBackoffMillis, maxBackoffMillis);
+        this.leaseMillis = Math.max(1000, leaseMillis);
+        this.retentionDays = Math.max(1, retentionDays);
+        this.maxPendingHours = Math.max(1, maxPendingHours);
+    }
+
+    @Scheduled(fixedDelayString = "${discord.outbox.poll-interval-ms:1000}")
+    public void relay() {
+        recordOutcomes();
+        if (!DiscordManager.isEnabled()) return;
+
+        int room = maxInFlight - inFlight.get();
+        if (room <= 0) return;
+
+        for (OutboxNotification notification : claim(Math.min(batchSize, room))) {
+            inFlight.incrementAndGet();
+            CompletableFuture<Void> result = send(notification);
+            boolean holdsSlot = !DiscordDispatcher.awaitsDigest(result);
+            if (!holdsSlot) {
+                inFlight.decrementAndGet();
+            }
+            result.whenComplete((ignored, e) -> {
+                outcomes.add(new Outcome(notification.getId(), notification.getAttempts(),
+                        e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+                if (holdsSlot) {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Отправленные строки старше {@code retention-days} больше не нужны, неотправленные старше
+     * {@code max-pending-hours} — тоже: бот долго был недоступен, и старые краши в канале только мешают
+     */
+    @Scheduled(initialDelayString = "${discord.outbox.cleanup-interval-ms:3600000}",
+            fixedDelayString = "${discord.outbox.cleanup-interval-ms:3600000}")
+    public void cleanup() {
+        int deleted = outboxRepository.deleteSentBefore(LocalDateTime.now().minusDays(retentionDays));
+        if (deleted > 0) {
+            log.info("Notification outbox: removed {} sent notifications", deleted);
+        }
+        int expired = outboxRepository.deletePendingBefore(LocalDateTime.now().minusHours(maxPendingHours));
+        if (expired > 0) {
+            log.warn("Notification outbox: dropped {} notifications pending for more than {} h", expired, maxPendingHours);
+        }
+    }
+
+    /**
+     * Вернуть DEAD-уведомления в очередь
+     *
+     * @return сколько строк вернулось
+     */
+    public int retryDead() {
+        return outboxRepository.requeueDead(LocalDateTime.now());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        recordOutcomes();
+    }
+
+    public Map<String, Object> getMetrics() {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("pending", 0L);
+        metrics.put("sent", 0L);
+        metrics.put("dead", 0L);
+        metrics.put("lagSeconds", 0L);
+        for (Object[] row : outboxRepository.countByStatus()) {
+            String status = (String) row[0];
+            metrics.put(status.toLowerCase(Locale.ROOT), ((Number) row[1]).longValue());
+            if ("PENDING".equals(status) && row[2] != null) {
+                LocalDateTime oldest = row[2] instanceof Timestamp timestamp
+                        ? timestamp.toLocalDateTime() : (LocalDateTime) row[2];
+                metrics.put("lagSeconds", Math.max(0, Duration.between(oldest, now).toSeconds()));
+            }
+        }
+        metrics.put("due", outboxRepository.countDue(now));
+        metrics.put("inFlight", inFlight.get());
+        metrics.put("delivered", delivered.get());
+        metrics.put("retried", retried.get());
+        metrics.put("deadLettered", deadLettered.get());
+        metrics.put("dispatcher", dispatcher.getMetrics());
+        return metrics;
+    }
+
+    /**
+     * Созревшие строки с уже сдвинутым временем следующей попытки и увеличенным счетчиком попыток
+     */
+    private List<OutboxNotification> claim(int limit) {
+        List<OutboxNotification> claimed = transaction.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<Long> ids = outboxRepository.lockDueIds(now, limit);
+            if (ids.isEmpty()) return List.of();
+            outboxRepository.lease(ids, now.plus(Duration.ofMillis(leaseMillis)));
+            List<OutboxNotification> rows = new ArrayList<>(outboxRepository.findAllById(ids));
+            rows.sort(Comparator.comparing(OutboxNotification::getId));
+            return rows;
+        });
+        return claimed == null ? List.of() : claimed;
+    }
+
+    private CompletableFuture<Void> send(OutboxNotification notification) {
+        try {
+            if (notification.getKind() == OutboxKind.MESSAGE) {
+                return discordManager.sendMessage(notification.getMessage());
+            }
+            Optional<String> content = crashRepository.findContentById(notification.getCrashId());
+            if (content.isEmpty()) {
+                return CompletableFuture.failedFuture(
+                        new NoSuchElementException("Crash " + notification.getCrashId() + " not found"));
+            }
+            // Повторы сигнатуры склеиваются диспетчером в дайджест — такой краш доставлен вместе с дайджестом
+            String signature = crashRepository.findSignatureById(notification.getCrashId()).orElse(null);
+            return discordManager.sendCrashNotification(notification.getPlayerName(), content.get(), signature,
+                    notification.getCrashId());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void recordOutcomes() {
+        Outcome outcome;
+        while ((outcome = outcomes.poll()) != null) {
+            try {
+                record(outcome);
+            } catch (Exception e) {
+                // Строка останется в аренде и вернется в работу после ее окончания
+                log.warn("Notification outbox: failed to record result of {}: {}", outcome.id(), e.getMessage());
+            }
+        }
+    }
+
+    private void record(Outcome outcome) {
+        LocalDateTime now = LocalDateTime.now();
+        if (outcome.error() == null) {
+            outboxRepository.markSent(outcome.id(), now);
+            delivered.incrementAndGet();
+            return;
+        }
+
+        String error = errorText(outcome.error());
+        // Краш удален — повторять нечего
+        if (outcome.attempts() >= maxAttempts || outcome.error() instanceof NoSuchElementException) {
+            outboxRepository.markDead(outcome.id(), error);
+            deadLettered.incrementAndGet();
+            log.warn("Notification {} moved to dead letters after {} attempts: {}", outcome.id(), outcome.attempts(), error);
+            return;
+        }
+
+        long backoff = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(30, outcome.attempts() - 1));
+        outboxRepository.scheduleRetry(outcome.id(), now.plus(Duration.ofMillis(backoff)), error);
+        retried.incrementAndGet();
+    }
+
+    private static String errorText(Throwable error) {
+        String text = error.getClass().getSimpleName() + (error.getMessage() != null ? ": " + error.getMessage() : "");
+        return text.length() > MAX_ERROR_LENGTH ? text.substring(0, MAX_ERROR_LENGTH) : text;
+    }
+
+    private record Outcome(long id, int attempts, Throwable error) {
+    }
+}
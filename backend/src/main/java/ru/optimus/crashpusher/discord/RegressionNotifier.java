@@ -0,0 +1,27 @@
+package ru.optimus.crashpusher.discord;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.optimus.crashpusher.event.CrashRegressionEvent;
+import ru.optimus.crashpusher.service.NotificationOutbox;
+
+/**
+ * Шлет регрессии крашей в Discord (через outbox), если включено crash.regressions.notify
+ */
+@Component
+@RequiredArgsConstructor
+public class RegressionNotifier {
+
+    private final NotificationOutbox notificationOutbox;
+
+    @Value("${crash.regressions.notify:false}")
+    private boolean notify;
+
+    @EventListener
+    public void onRegression(CrashRegressionEvent event) {
+        if (!notify) return;
+        notificationOutbox.enqueueMessage(DiscordManager.regressionMessage(event));
+    }
+}
@@ -0,0 +1,34 @@
+package ru.optimus.crashpusher.event;
+
+import java.time.LocalDateTime;
+
+/**
+ * Публикуется, когда число крашей в текущем окне превысило EWMA-базу на заданное число сигм
+ *
+ * @param signature      сигнатура группы или null для общего потока крашей
+ * @param exceptionClass исключение краша, на котором сработал детектор
+ * @param count          крашей в текущем окне на момент срабатывания
+ * @param baseline       EWMA среднего числа крашей за окно
+ * @param stddev         EWMA стандартного отклонения (с пуассоновским минимумом)
+ * @param exampleCrashId краш, на котором сработал детектор
+ */
+public record CrashAnomalyEvent(String signature,
+                                String exceptionClass,
+                                long count,
+                                double baseline,
+                                double stddev,
+                                LocalDateTime windowStart,
+                                Long exampleCrashId,
+                                LocalDateTime detectedAt) {
+
+    public boolean isGlobal() {
+        return signature == null;
+    }
+
+    /**
+     * На сколько сигм окно выше базы
+     */
+    public double sigmas() {
+        return stddev > 0 ? (count - baseline) / stddev : 0;
+    }
+}
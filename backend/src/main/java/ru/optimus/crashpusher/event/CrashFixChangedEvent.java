@@ -0,0 +1,9 @@
+package ru.optimus.crashpusher.event;
+
+/**
+ * Публикуется после смены статуса исправления у краша (только если статус действительно изменился)
+ */
+public record CrashFixChangedEvent(long crashId,
+                                   String signature,
+                                   boolean fix) {
+}
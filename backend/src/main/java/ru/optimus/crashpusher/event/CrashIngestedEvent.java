@@ -0,0 +1,22 @@
+package ru.optimus.crashpusher.event;
+
+import java.time.LocalDateTime;
+
+/**
+ * Публикуется после сохранения нового краша. Слушатели обновляют производные структуры
+ * (счетчики, индексы) инкрементально, не перечитывая таблицу крашей.
+ *
+ * @param userId         id игрока в users_crash
+ * @param exceptionClass исключение верхнего уровня (см. {@link ru.optimus.crashpusher.analysis.CrashAnalyzer})
+ * @param frameIds       id фреймов стектрейса из словаря stack_frames, в порядке появления
+ */
+public record CrashIngestedEvent(long crashId,
+                                 long userId,
+                                 String username,
+                                 String signature,
+                                 String content,
+                                 String exceptionClass,
+                                 LocalDateTime createdAt,
+                                 boolean regression,
+                                 int[] frameIds) {
+}
@@ -0,0 +1,16 @@
+package ru.optimus.crashpusher.event;
+
+import ru.optimus.crashpusher.model.RegressionReason;
+
+import java.time.LocalDateTime;
+
+/**
+ * Публикуется, когда группа крашей впервые помечается регрессией (после исправления или после сброса статуса)
+ */
+public record CrashRegressionEvent(String signature,
+                                   RegressionReason reason,
+                                   long occurrences,
+                                   String preview,
+                                   Long exampleCrashId,
+                                   LocalDateTime detectedAt) {
+}
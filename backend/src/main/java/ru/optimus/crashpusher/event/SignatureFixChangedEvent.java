@@ -0,0 +1,14 @@
+package ru.optimus.crashpusher.event;
+
+import java.time.LocalDateTime;
+
+/**
+ * Публикуется после смены статуса исправления у всей группы крашей с одной сигнатурой
+ *
+ * @param crashesUpdated сколько крашей группы реально сменили статус
+ */
+public record SignatureFixChangedEvent(String signature,
+                                       boolean fixed,
+                                       LocalDateTime fixedAt,
+                                       int crashesUpdated) {
+}
@@ -2,13 +2,20 @@ package ru.optimus.crashpusher.model;
 
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.time.LocalDateTime;
 
-@Table(name = "crashes")
+@Table(name = "crashes", indexes = {
+        @Index(name = "idx_crashes_signature", columnList = "signature"),
+        @Index(name = "idx_crashes_create_at", columnList = "create_at"),
+        @Index(name = "idx_crashes_exception_class", columnList = "exception_class"),
+        @Index(name = "idx_crashes_user_signature", columnList = "user_id, signature")
+})
 @Entity
 @Getter
 @Setter
@@ -26,9 +33,56 @@ public class Crash {
     @Column(length = Integer.MAX_VALUE)
     private String content;
 
+    @Column(length = 32)
+    private String signature;
+
+    /**
+     * Версия алгоритма, которым посчитана сигнатура ({@link ru.optimus.crashpusher.analysis.CrashSignatures#VERSION})
+     */
+    @ColumnDefault("0")
+    @Column(name = "signature_version", nullable = false)
+    private int signatureVersion;
+
+    /**
+     * MinHash множества фреймов стектрейса (см. {@link ru.optimus.crashpusher.analysis.MinHash}),
+     * пустой массив — фреймов нет
+     */
+    @JsonIgnore
+    @Column(name = "minhash")
+    private byte[] minhash;
+
+    /**
+     * Фреймы стектрейса как последовательность id словаря stack_frames (см. {@link ru.optimus.crashpusher.analysis.FrameIds})
+     */
+    @JsonIgnore
+    @Column(name = "frame_ids")
+    private byte[] frameIds;
+
+    /**
+     * Исключение верхнего уровня (см. {@link ru.optimus.crashpusher.analysis.CrashAnalyzer}), null — краш еще не разобран
+     */
+    @Column(name = "exception_class")
+    private String exceptionClass;
+
+    @Column(name = "exception_message", length = 1000)
+    private String exceptionMessage;
+
+    /**
+     * Классы из строк "Caused by" через " <- ", последний — первопричина
+     */
+    @Column(name = "caused_by", length = 2000)
+    private String causedBy;
+
     @Column(name = "is_fix", nullable = false)
     private boolean fix = false;
 
+    /**
+     * Краш пришел с сигнатурой, которая уже помечена исправленной
+     */
+    @ColumnDefault("false")
+    @Column(name = "is_regression", nullable = false)
+    private boolean regression = false;
+
     @Column(name = "create_at", nullable = false)
     private LocalDateTime createAt;
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package ru.optimus.crashpusher.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Число крашей в корзине времени (минута / час / день) по ключу: всего, сигнатура или исключение.
+ * Графики за любой период читают несколько сотен таких строк вместо самих крашей.
+ */
+@Entity
+@Table(name = "crash_rollups", uniqueConstraints = @UniqueConstraint(
+        name = "uk_crash_rollups_series", columnNames = {"granularity", "dimension", "rollup_key", "bucket"}))
+@Getter
+@Setter
+@NoArgsConstructor
+public class CrashRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    private RollupGranularity granularity;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private RollupDimension dimension;
+
+    /**
+     * Сигнатура, класс исключения или пустая строка для {@link RollupDimension#TOTAL}
+     */
+    @Column(name = "rollup_key", nullable = false)
+    private String key;
+
+    @Column(nullable = false)
+    private LocalDateTime bucket;
+
+    @Column(nullable = false)
+    private long crashes;
+}
@@ -0,0 +1,72 @@
+package ru.optimus.crashpusher.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.LocalDateTime;
+
+/**
+ * Группа крашей с одной сигнатурой (см. {@link ru.optimus.crashpusher.analysis.CrashSignatures}) с накопленными счетчиками
+ */
+@Entity
+@Table(name = "crash_signatures", indexes = {
+        @Index(name = "idx_crash_signatures_occurrences", columnList = "occurrences"),
+        @Index(name = "idx_crash_signatures_last_seen", columnList = "last_seen")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class CrashSignature {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true, length = 32)
+    private String signature;
+
+    @Column(nullable = false)
+    private long occurrences;
+
+    @Column(name = "first_seen", nullable = false)
+    private LocalDateTime firstSeen;
+
+    @Column(name = "last_seen", nullable = false)
+    private LocalDateTime lastSeen;
+
+    @Column(name = "example_crash_id")
+    private Long exampleCrashId;
+
+    @Column(length = 1000)
+    private String preview;
+
+    /**
+     * Статус исправления всей группы. Новые краши с исправленной сигнатурой считаются регрессиями
+     */
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean fixed;
+
+    @Column(name = "fixed_at")
+    private LocalDateTime fixedAt;
+
+    /**
+     * Сколько крашей пришло после пометки исправленной
+     */
+    @ColumnDefault("0")
+    @Column(name = "occurrences_since_fix", nullable = false)
+    private long occurrencesSinceFix;
+
+    /**
+     * Когда группа помечена регрессией; сбрасывается при смене статуса исправления
+     */
+    @Column(name = "regressed_at")
+    private LocalDateTime regressedAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "regression_reason", length = 32)
+    private RegressionReason regressionReason;
+}
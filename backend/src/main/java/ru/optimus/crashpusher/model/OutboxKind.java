@@ -0,0 +1,15 @@
+package ru.optimus.crashpusher.model;
+
+/**
+ * Вид уведомления в notification_outbox
+ */
+public enum OutboxKind {
+    /**
+     * Краш-репорт: текст и вложение собираются при отправке по crash_id
+     */
+    CRASH,
+    /**
+     * Готовый текст сообщения (регрессии, всплески)
+     */
+    MESSAGE
+}
@@ -0,0 +1,91 @@
+package ru.optimus.crashpusher.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Уведомление в Discord, записанное в той же транзакции, что и его причина (например, прием краша).
+ * Отправляет его {@code NotificationRelay}; строка остается в таблице, пока доставка не подтверждена.
+ */
+@Entity
+@Table(name = "notification_outbox", indexes = {
+        @Index(name = "idx_notification_outbox_due", columnList = "status, next_attempt_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class OutboxNotification {
+
+    /**
+     * Лимит длины сообщения в Discord
+     */
+    public static final int MAX_MESSAGE_LENGTH = 2000;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private OutboxKind kind;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private OutboxStatus status = OutboxStatus.PENDING;
+
+    @Column(name = "crash_id")
+    private Long crashId;
+
+    @Column(name = "player_name")
+    private String playerName;
+
+    /**
+     * Текст сообщения для {@link OutboxKind#MESSAGE}
+     */
+    @Column(length = MAX_MESSAGE_LENGTH)
+    private String message;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    /**
+     * Когда строку можно брать в отправку; на время отправки сдвигается вперед (аренда)
+     */
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    public static OutboxNotification crash(long crashId, String playerName) {
+        OutboxNotification notification = create(OutboxKind.CRASH);
+        notification.setCrashId(crashId);
+        notification.setPlayerName(playerName);
+        return notification;
+    }
+
+    public static OutboxNotification message(String message) {
+        OutboxNotification notification = create(OutboxKind.MESSAGE);
+        notification.setMessage(message);
+        return notification;
+    }
+
+    private static OutboxNotification create(OutboxKind kind) {
+        OutboxNotification notification = new OutboxNotification();
+        LocalDateTime now = LocalDateTime.now();
+        notification.setKind(kind);
+        notification.setCreatedAt(now);
+        notification.setNextAttemptAt(now);
+        return notification;
+    }
+}
@@ -0,0 +1,16 @@
+package ru.optimus.crashpusher.model;
+
+/**
+ * Состояние уведомления в notification_outbox
+ */
+public enum OutboxStatus {
+    /**
+     * Ждет отправки (или повтора после ошибки)
+     */
+    PENDING,
+    SENT,
+    /**
+     * Исчерпало попытки; вернуть в очередь можно через админский API
+     */
+    DEAD
+}
@@ -0,0 +1,15 @@
+package ru.optimus.crashpusher.model;
+
+/**
+ * Почему группа крашей помечена регрессией
+ */
+public enum RegressionReason {
+    /**
+     * Сигнатура была помечена исправленной и снова появилась
+     */
+    REAPPEARED,
+    /**
+     * Новая сигнатура за час превысила порог частоты
+     */
+    NEW_SIGNATURE_SPIKE
+}
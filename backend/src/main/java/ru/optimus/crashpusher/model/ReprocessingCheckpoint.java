@@ -0,0 +1,45 @@
+package ru.optimus.crashpusher.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Позиция задачи перепроцессинга крашей: после перезапуска задача продолжается с {@code lastId}
+ */
+@Entity
+@Table(name = "reprocessing_checkpoints")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ReprocessingCheckpoint {
+
+    @Id
+    @Column(length = 64)
+    private String job;
+
+    /**
+     * Последний обработанный id краша (keyset)
+     */
+    @Column(name = "last_id", nullable = false)
+    private long lastId;
+
+    @Column(nullable = false)
+    private long processed;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    public ReprocessingCheckpoint(String job) {
+        this.job = job;
+    }
+}
@@ -0,0 +1,19 @@
+package ru.optimus.crashpusher.model;
+
+/**
+ * По чему разложены счетчики в таблице crash_rollups
+ */
+public enum RollupDimension {
+    /**
+     * Все краши, ключ пустой
+     */
+    TOTAL,
+    /**
+     * Ключ — сигнатура группы
+     */
+    SIGNATURE,
+    /**
+     * Ключ — класс исключения
+     */
+    EXCEPTION
+}
@@ -0,0 +1,25 @@
+package ru.optimus.crashpusher.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Словарь фреймов стектрейса: нормализованный фрейм -> int id.
+ * Краши хранят свои фреймы последовательностью этих id (см. {@link Crash#getFrameIds()})
+ */
+@Entity
+@Table(name = "stack_frames")
+@Getter
+@Setter
+@NoArgsConstructor
+public class StackFrame {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(nullable = false, unique = true, length = 512)
+    private String frame;
+}
@@ -6,14 +6,19 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 @Entity
-@Table(name = "users_crash")
+@Table(name = "users_crash", indexes = {
+        @Index(name = "idx_users_crash_crash_count", columnList = "crash_count"),
+        @Index(name = "idx_users_crash_last_crash_at", columnList = "last_crash_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -30,5 +35,30 @@ public class UserCrash {
     @JsonManagedReference
     private List<Crash> crashes = new ArrayList<>();
 
+    /*
+     * Агрегаты по крашам игрока. Меняются атомарными UPDATE при приеме краша и смене статуса исправления
+     * (см. UserCrashRepository), а не через сущность; для старых игроков их досчитывает задача player-aggregates
+     */
+
+    @ColumnDefault("0")
+    @Column(name = "crash_count", nullable = false)
+    private long crashCount;
+
+    @ColumnDefault("0")
+    @Column(name = "unfixed_count", nullable = false)
+    private long unfixedCount;
+
+    @Column(name = "last_crash_at")
+    private LocalDateTime lastCrashAt;
+
+    /**
+     * Самая частая сигнатура игрока и число его крашей с ней
+     */
+    @Column(name = "top_signature", length = 32)
+    private String topSignature;
+
+    @ColumnDefault("0")
+    @Column(name = "top_signature_count", nullable = false)
+    private long topSignatureCount;
 
 }
\ No newline at end of file
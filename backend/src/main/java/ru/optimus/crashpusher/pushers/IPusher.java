@@ -1,8 +1,47 @@
 package ru.optimus.crashpusher.pushers;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Приемник крашей. Бины с {@link #fanOut()} подключаются к {@link PusherRegistry} и получают каждый
+ * сохраненный краш на своем потоке и со своей очередью.
+ * <p>
+ * Ключи данных: crash_id, player_name, signature, exception_class, created_at, regression, content.
+ */
 public interface IPusher {
 
     void push(Map<String, String> data);
+
+    /**
+     * Порция крашей за раз; по умолчанию — по одному. Исключение означает, что порцию надо повторить
+     */
+    default void pushAll(List<Map<String, String>> batch) throws Exception {
+        batch.forEach(this::push);
+    }
+
+    /**
+     * Получать сохраненные краши из {@link PusherRegistry}. Выключают приемники, которые сами стоят
+     * до сохранения (например, {@link AdaptPusher} — это и есть прием краша)
+     */
+    default boolean fanOut() {
+        return true;
+    }
+
+    /**
+     * Имя в настройках {@code crash.sinks.<name>.*} и в метриках
+     */
+    default String name() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Данные без текста отчета — для приемников, которым он не нужен целиком
+     */
+    static Map<String, String> withoutContent(Map<String, String> data) {
+        Map<String, String> copy = new HashMap<>(data);
+        copy.remove("content");
+        return copy;
+    }
 }
@@ -0,0 +1,50 @@
+package ru.optimus.crashpusher.pushers;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Последние краши в памяти — для тестов и отладки раздачи; включается crash.sinks.memory.enabled
+ */
+@Component
+@ConditionalOnProperty(name = "crash.sinks.memory.enabled", havingValue = "true")
+public class MemoryPusher implements IPusher {
+
+    private final int capacity;
+    private final Deque<Map<String, String>> received = new ArrayDeque<>();
+
+    public MemoryPusher(@Value("${crash.sinks.memory.capacity:100}") int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    @Override
+    public String name() {
+        return "memory";
+    }
+
+    @Override
+    public synchronized void push(Map<String, String> data) {
+        if (received.size() == capacity) {
+            received.removeFirst();
+        }
+        received.addLast(data);
+    }
+
+    /**
+     * Полученные краши, от старых к новым
+     */
+    public synchronized List<Map<String, String>> received() {
+        return new ArrayList<>(received);
+    }
+
+    public synchronized void clear() {
+        received.clear();
+    }
+}
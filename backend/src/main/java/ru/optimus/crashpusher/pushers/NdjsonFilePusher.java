@@ -0,0 +1,90 @@
+package ru.optimus.crashpusher.pushers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Краши построчно в JSON (NDJSON) в {@code crash.sinks.file.dir}: новый файл каждый день и при достижении
+ * {@code max-bytes} — crashes-2025-01-31.ndjson, crashes-2025-01-31.1.ndjson и т.д.
+ * Пишет только поток своей очереди, поэтому без синхронизации.
+ */
+@Component
+@ConditionalOnProperty(name = "crash.sinks.file.dir")
+public class NdjsonFilePusher implements IPusher {
+
+    private final ObjectMapper objectMapper;
+    private final Path dir;
+    private final long maxBytes;
+    private final boolean includeContent;
+
+    private LocalDate day;
+    private int part;
+
+    public NdjsonFilePusher(ObjectMapper objectMapper,
+                            @Value("${crash.sinks.file.dir}") String dir,
+                            @Value("${crash.sinks.file.max-bytes:104857600}") long maxBytes,
+                            @Value("${crash.sinks.file.include-content:false}") boolean includeContent) {
+        this.objectMapper = objectMapper;
+        this.dir = Path.of(dir.trim());
+        this.maxBytes = Math.max(1024, maxBytes);
+        this.includeContent = includeContent;
+    }
+
+    @Override
+    public String name() {
+        return "file";
+    }
+
+    @Override
+    public void push(Map<String, String> data) {
+        try {
+            pushAll(List.of(data));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void pushAll(List<Map<String, String>> batch) throws IOException {
+        Files.createDirectories(dir);
+        try (BufferedWriter writer = Files.newBufferedWriter(currentFile(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Map<String, String> data : batch) {
+                writer.write(objectMapper.writeValueAsString(includeContent ? data : IPusher.withoutContent(data)));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Файл текущего дня; переполненный закрывается, и пишем в следующую часть
+     */
+    private Path currentFile() throws IOException {
+        LocalDate today = LocalDate.now();
+        if (!today.equals(day)) {
+            day = today;
+            part = 0;
+        }
+        Path file = file(day, part);
+        while (Files.exists(file) && Files.size(file) >= maxBytes) {
+            file = file(day, ++part);
+        }
+        return file;
+    }
+
+    private Path file(LocalDate date, int part) {
+        return dir.resolve(part == 0 ? "crashes-" + date + ".ndjson" : "crashes-" + date + "." + part + ".ndjson");
+    }
+}
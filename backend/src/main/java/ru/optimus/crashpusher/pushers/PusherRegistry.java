@@ -0,0 +1,186 @@
+package ru.optimus.crashpusher.pushers;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Раздача сохраненных крашей всем подключенным {@link IPusher}.
+ * <p>
+ * У каждого приемника своя ограниченная очередь и свой поток: прием краша только кладет его в очереди
+ * и не ждет ни одного приемника, а медленный или упавший приемник не задерживает остальных. Поток набирает
+ * порцию до {@code batch-size} крашей или до истечения {@code linger-ms} и отдает ее целиком; при ошибке
+ * повторяет ту же порцию с растущей паузой, после {@code max-attempts} порция отбрасывается. Переполненная
+ * очередь отбрасывает новые краши — это учитывается в метриках.
+ */
+@Slf4j
+@Component
+public class PusherRegistry {
+
+    private final List<Sink> sinks = new ArrayList<>();
+
+    public PusherRegistry(List<IPusher> pushers, Environment environment) {
+        for (IPusher pusher : pushers) {
+            if (!pusher.fanOut()) continue;
+
+            String prefix = "crash.sinks." + pusher.name() + ".";
+            Sink sink = new Sink(pusher,
+                    environment.getProperty(prefix + "queue-capacity", Integer.class, 1000),
+                    environment.getProperty(prefix + "batch-size", Integer.class, 50),
+                    environment.getProperty(prefix + "linger-ms", Long.class, 1000L),
+                    environment.getProperty(prefix + "max-attempts", Integer.class, 5));
+            sinks.add(sink);
+            sink.start();
+            log.info("Crash sink registered: {}", pusher.name());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        if (sinks.isEmpty()) return;
+
+        Map<String, String> data = new HashMap<>();
+        data.put("crash_id", String.valueOf(event.crashId()));
+        data.put("player_name", event.username());
+        data.put("signature", event.signature());
+        data.put("exception_class", event.exceptionClass());
+        data.put("created_at", event.createdAt().toString());
+        data.put("regression", String.valueOf(event.regression()));
+        data.put("content", event.content());
+        Map<String, String> shared = Collections.unmodifiableMap(data);
+
+        for (Sink sink : sinks) {
+            sink.offer(shared);
+        }
+    }
+
+    public List<Map<String, Object>> getStatus() {
+        List<Map<String, Object>> status = new ArrayList<>();
+        for (Sink sink : sinks) {
+            status.add(sink.metrics());
+        }
+        return status;
+    }
+
+    /**
+     * Останавливаем потоки, дав им отправить то, что уже в очередях
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        sinks.forEach(Sink::stop);
+        for (Sink sink : sinks) {
+            sink.worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private static final class Sink {
+
+        private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+        final IPusher pusher;
+        final BlockingQueue<Map<String, String>> queue;
+        final int batchSize;
+        final long lingerMillis;
+        final int maxAttempts;
+        final Thread worker;
+
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong failedBatches = new AtomicLong();
+        final AtomicLong discarded = new AtomicLong();
+        volatile String lastError;
+        volatile boolean running = true;
+
+        Sink(IPusher pusher, int queueCapacity, int batchSize, long lingerMillis, int maxAttempts) {
+            this.pusher = pusher;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+            this.batchSize = Math.max(1, batchSize);
+            this.lingerMillis = Math.max(0, lingerMillis);
+            this.maxAttempts = Math.max(1, maxAttempts);
+            this.worker = Thread.ofPlatform().daemon().name("sink-" + pusher.name()).unstarted(this::run);
+        }
+
+        void start() {
+            worker.start();
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        void offer(Map<String, String> data) {
+            if (!queue.offer(data)) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        private void run() {
+            List<Map<String, String>> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    Map<String, String> first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                    while (batch.size() < batchSize && running) {
+                        Map<String, String> next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                    queue.drainTo(batch, batchSize - batch.size());
+
+                    deliver(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void deliver(List<Map<String, String>> batch) throws InterruptedException {
+            long backoff = 1000;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    pusher.pushAll(List.copyOf(batch));
+                    delivered.addAndGet(batch.size());
+                    return;
+                } catch (Exception e) {
+                    failedBatches.incrementAndGet();
+                    lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+                    if (attempt >= maxAttempts || !running) {
+                        discarded.addAndGet(batch.size());
+                        log.warn("Crash sink {} discarded {} crashes after {} attempts: {}",
+                                pusher.name(), batch.size(), attempt, lastError);
+                        return;
+                    }
+                    Thread.sleep(backoff);
+                    backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+                }
+            }
+        }
+
+        Map<String, Object> metrics() {
+            Map<String, Object> metrics = new HashMap<>();
+            metrics.put("name", pusher.name());
+            metrics.put("queued", queue.size());
+            metrics.put("delivered", delivered.get());
+            metrics.put("dropped", dropped.get());
+            metrics.put("failedBatches", failedBatches.get());
+            metrics.put("discarded", discarded.get());
+            metrics.put("lastError", lastError != null ? lastError : "");
+            return metrics;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ru.optimus.crashpusher.pushers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * POST порции крашей JSON-массивом на {@code crash.sinks.webhook.url}; ответ не 2xx — порция повторяется
+ */
+@Component
+@ConditionalOnProperty(name = "crash.sinks.webhook.url")
+public class WebhookPusher implements IPusher {
+
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+    private final URI url;
+    private final Duration timeout;
+    private final boolean includeContent;
+
+    public WebhookPusher(ObjectMapper objectMapper,
+                         @Value("${crash.sinks.webhook.url}") String url,
+                         @Value("${crash.sinks.webhook.timeout-ms:5000}") long timeoutMillis,
+                         @Value("${crash.sinks.webhook.include-content:false}") boolean includeContent) {
+        this.objectMapper = objectMapper;
+        this.url = URI.create(url.trim());
+        this.timeout = Duration.ofMillis(Math.max(100, timeoutMillis));
+        this.includeContent = includeContent;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    @Override
+    public String name() {
+        return "webhook";
+    }
+
+    @Override
+    public void push(Map<String, String> data) {
+        try {
+            pushAll(List.of(data));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void pushAll(List<Map<String, String>> batch) throws IOException, InterruptedException {
+        List<Map<String, String>> body = includeContent ? batch : batch.stream().map(IPusher::withoutContent).toList();
+        HttpRequest request = HttpRequest.newBuilder(url)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .build();
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Webhook responded " + response.statusCode());
+        }
+    }
+}
@@ -1,34 +1,263 @@
 package ru.optimus.crashpusher.repository;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.optimus.crashpusher.model.Crash;
+import ru.optimus.crashpusher.repository.projection.CrashGroupSummary;
+import ru.optimus.crashpusher.repository.projection.CrashPreview;
+import ru.optimus.crashpusher.repository.projection.CrashSearchHit;
+import ru.optimus.crashpusher.repository.projection.CrashSummary;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface CrashRepository extends JpaRepository<Crash, Long> {
-    List<Crash> findAllByUserCrashId(Long userId);
+
+    String SUMMARY_SELECT = "SELECT c.id AS id, u.id AS userId, u.username AS username, c.fix AS fix, " +
+            "c.createAt AS createAt, c.signature AS signature";
 
     long countByFix(boolean fix);
-    long countByCreateAtBefore(LocalDateTime date);
-    List<Crash> findByCreateAtAfter(LocalDateTime date);
 
-    // Исправленные запросы с userCrash вместо user
-    @Query("SELECT c.userCrash.username, COUNT(c), c.userCrash.id FROM Crash c WHERE c.createAt >= :startDate GROUP BY c.userCrash.id, c.userCrash.username ORDER BY COUNT(c) DESC")
-    List<Object[]> findTopUsersByCrashes(@Param("startDate") LocalDateTime startDate);
+    /**
+     * Тело краша — читается только для просмотра конкретного отчета
+     */
+    @Query("SELECT c.content FROM Crash c WHERE c.id = :id")
+    Optional<String> findContentById(@Param("id") Long id);
+
+    @Query("SELECT c.signature FROM Crash c WHERE c.id = :id")
+    Optional<String> findSignatureById(@Param("id") Long id);
+
+    /**
+     * Выставить статус исправления всем крашам группы одним запросом
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE crashes SET is_fix = :fix WHERE signature = :signature AND is_fix <> :fix", nativeQuery = true)
+    int updateFixBySignature(@Param("signature") String signature, @Param("fix") boolean fix);
+
+    /**
+     * MinHash каждой сигнатуры (у дубликатов она одинаковая, берем первый краш группы)
+     */
+    @Query(value = "SELECT DISTINCT ON (signature) signature, minhash FROM crashes " +
+            "WHERE minhash IS NOT NULL AND signature IS NOT NULL ORDER BY signature, id", nativeQuery = true)
+    List<Object[]> findMinhashesBySignature();
+
+    /**
+     * Следующая порция сигнатур без MinHash (по возрастанию сигнатуры после {@code after}) с содержимым примера
+     */
+    @Query(value = "SELECT g.signature, c.content FROM (" +
+            "SELECT signature, MIN(id) AS id FROM crashes WHERE minhash IS NULL AND signature > :after " +
+            "GROUP BY signature ORDER BY signature LIMIT :limit) g " +
+            "JOIN crashes c ON c.id = g.id ORDER BY g.signature", nativeQuery = true)
+    List<Object[]> findContentWithoutMinhash(@Param("after") String after, @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE crashes SET minhash = :minhash WHERE signature = :signature AND minhash IS NULL", nativeQuery = true)
+    int updateMinhashBySignature(@Param("signature") String signature, @Param("minhash") byte[] minhash);
+
+    /**
+     * Последовательность id фреймов каждой сигнатуры (у дубликатов она одинаковая)
+     */
+    @Query(value = "SELECT DISTINCT ON (signature) signature, frame_ids FROM crashes " +
+            "WHERE frame_ids IS NOT NULL AND signature IS NOT NULL ORDER BY signature, id", nativeQuery = true)
+    List<Object[]> findFrameIdsBySignature();
+
+    /**
+     * Следующая порция сигнатур без id фреймов (по возрастанию после {@code after}) с содержимым примера
+     */
+    @Query(value = "SELECT g.signature, c.content FROM (" +
+            "SELECT signature, MIN(id) AS id FROM crashes WHERE frame_ids IS NULL AND signature > :after " +
+            "GROUP BY signature ORDER BY signature LIMIT :limit) g " +
+            "JOIN crashes c ON c.id = g.id ORDER BY g.signature", nativeQuery = true)
+    List<Object[]> findContentWithoutFrameIds(@Param("after") String after, @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE crashes SET frame_ids = :frameIds WHERE signature = :signature AND frame_ids IS NULL", nativeQuery = true)
+    int updateFrameIdsBySignature(@Param("signature") String signature, @Param("frameIds") byte[] frameIds);
+
+    /**
+     * Следующая порция крашей без разобранного исключения по возрастанию id: id, сигнатура, содержимое
+     */
+    @Query(value = "SELECT id, signature, content FROM crashes WHERE exception_class IS NULL AND id > :afterId " +
+            "ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Object[]> findContentWithoutExceptionAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    @Query(value = "SELECT COUNT(*) FROM crashes WHERE exception_class IS NULL AND id > :afterId", nativeQuery = true)
+    long countWithoutExceptionAfterId(@Param("afterId") long afterId);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE crashes SET exception_class = :exceptionClass, exception_message = :message, caused_by = :causedBy " +
+            "WHERE id IN (:ids)", nativeQuery = true)
+    int updateExceptionByIds(@Param("ids") Collection<Long> ids,
+                             @Param("exceptionClass") String exceptionClass,
+                             @Param("message") String message,
+                             @Param("causedBy") String causedBy);
+
+    /**
+     * Следующая порция крашей, у которых сигнатура посчитана старой версией алгоритма: id, содержимое
+     */
+    @Query(value = "SELECT id, content FROM crashes WHERE signature_version < :version AND id > :afterId " +
+            "ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Object[]> findContentWithSignatureVersionBelowAfterId(@Param("version") int version,
+                                                               @Param("afterId") long afterId,
+                                                               @Param("limit") int limit);
+
+    @Query(value = "SELECT COUNT(*) FROM crashes WHERE signature_version < :version AND id > :afterId", nativeQuery = true)
+    long countWithSignatureVersionBelowAfterId(@Param("version") int version, @Param("afterId") long afterId);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE crashes SET signature = :signature, signature_version = :version WHERE id IN (:ids)", nativeQuery = true)
+    int updateSignatureByIds(@Param("ids") Collection<Long> ids,
+                             @Param("signature") String signature,
+                             @Param("version") int version);
 
-    @Query("SELECT f.frequency, COUNT(f.userId) FROM (" +
-            "SELECT u.id as userId, COUNT(c) as frequency FROM UserCrash u LEFT JOIN u.crashes c GROUP BY u.id" +
-            ") f GROUP BY f.frequency ORDER BY f.frequency")
-    List<Object[]> findCrashFrequencyDistribution();
+    /**
+     * id, сигнатуры и закодированные фреймы крашей порциями по возрастанию id
+     */
+    @Query(value = "SELECT id, signature, frame_ids FROM crashes WHERE id > :afterId ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Object[]> findSignaturesAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
 
-    @Query("SELECT HOUR(c.createAt), COUNT(c) FROM Crash c GROUP BY HOUR(c.createAt) ORDER BY HOUR(c.createAt)")
-    List<Object[]> findCrashesByHour();
+    /**
+     * id растут вместе с create_at, поэтому временное окно переводится в диапазон id
+     */
+    @Query(value = "SELECT id FROM crashes WHERE create_at >= :from ORDER BY create_at, id LIMIT 1", nativeQuery = true)
+    Optional<Long> findFirstIdCreatedFrom(@Param("from") LocalDateTime from);
+
+    @Query(value = "SELECT id FROM crashes WHERE create_at <= :to ORDER BY create_at DESC, id DESC LIMIT 1", nativeQuery = true)
+    Optional<Long> findLastIdCreatedUntil(@Param("to") LocalDateTime to);
+
+    @Query(SUMMARY_SELECT + " FROM Crash c LEFT JOIN c.userCrash u WHERE c.id IN :ids ORDER BY c.id DESC")
+    List<CrashSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT COALESCE(MAX(c.id), 0) FROM Crash c")
+    long findMaxId();
+
+    /**
+     * Какие из {@code ids} не больше {@code maxId} видны в текущей транзакции — в снимке REPEATABLE READ
+     * это краши, уже учтенные агрегатами этого снимка
+     */
+    @Query(value = "SELECT id FROM crashes WHERE id IN (:ids) AND id <= :maxId", nativeQuery = true)
+    List<Long> findIdsUpTo(@Param("ids") Collection<Long> ids, @Param("maxId") long maxId);
+
+    /**
+     * Агрегаты для счетчиков в памяти: число крашей и исправленных по часовым корзинам до {@code maxId} включительно
+     */
+    @Query(value = "SELECT date_trunc('hour', create_at) AS hour, COUNT(*), COUNT(*) FILTER (WHERE is_fix) " +
+            "FROM crashes WHERE id <= :maxId GROUP BY 1", nativeQuery = true)
+    List<Object[]> countByHourUpTo(@Param("maxId") long maxId);
+
+    /**
+     * Число крашей по исключению. Для еще не разобранных крашей (exception_class IS NULL, идет бэкфилл)
+     * тип вытаскивается регуляркой в БД
+     */
+    @Query(value = "SELECT coalesce(exception_class, " +
+            "substring(content from '(?:[A-Za-z0-9_]+\\.)+[A-Za-z0-9_]+(?:Exception|Error|Throwable)'), 'UnknownException') AS exception, " +
+            "COUNT(*) FROM crashes WHERE id <= :maxId GROUP BY 1", nativeQuery = true)
+    List<Object[]> countByExceptionUpTo(@Param("maxId") long maxId);
+
+    @Query(value = "SELECT u.username, COUNT(*) FROM crashes c JOIN users_crash u ON u.id = c.user_id " +
+            "WHERE c.id <= :maxId GROUP BY u.username", nativeQuery = true)
+    List<Object[]> countByUsernameUpTo(@Param("maxId") long maxId);
+
+    @Query(SUMMARY_SELECT + " FROM Crash c LEFT JOIN c.userCrash u WHERE c.createAt > :date ORDER BY c.createAt DESC")
+    List<CrashSummary> findSummariesByCreateAtAfter(@Param("date") LocalDateTime date);
+
+    @Query(value = SUMMARY_SELECT + ", SUBSTRING(c.content, 1, 100) AS summary " +
+            "FROM Crash c LEFT JOIN c.userCrash u WHERE u.id = :userId ORDER BY c.id",
+            countQuery = "SELECT COUNT(c) FROM Crash c WHERE c.userCrash.id = :userId")
+    Page<CrashPreview> findPreviewsByUserId(@Param("userId") Long userId, Pageable pageable);
+
+    @Query(value = SUMMARY_SELECT + ", SUBSTRING(c.content, 1, 200) AS summary " +
+            "FROM Crash c LEFT JOIN c.userCrash u ORDER BY c.id",
+            countQuery = "SELECT COUNT(c) FROM Crash c")
+    Page<CrashPreview> findPreviews(Pageable pageable);
+
+    /**
+     * Краши игроков по часам начиная с {@code since}: user_id, час, число — для скользящих окон лидерборда
+     */
+    @Query(value = "SELECT user_id, date_trunc('hour', create_at), COUNT(*) FROM crashes " +
+            "WHERE create_at >= :since AND user_id IS NOT NULL " +
+            "GROUP BY user_id, date_trunc('hour', create_at)", nativeQuery = true)
+    List<Object[]> countByUserHourlySince(@Param("since") LocalDateTime since);
+
+    @Query(value = "SELECT u.id, u.username, COUNT(*) FROM crashes c JOIN users_crash u ON u.id = c.user_id " +
+            "GROUP BY u.id, u.username", nativeQuery = true)
+    List<Object[]> countByUser();
 
     @Query("SELECT COUNT(c) FROM Crash c WHERE c.createAt BETWEEN :startDate AND :endDate")
     long countByCreateAtBetween(@Param("startDate") LocalDateTime startDate,
                                 @Param("endDate") LocalDateTime endDate);
 
-}
\ No newline at end of file
+    /**
+     * Поиск подстроки по содержимому краша через триграммный GIN-индекс на lower(content).
+     * Совпадения в шапке отчета (описание, исключение) идут первыми, дальше — по свежести.
+     */
+    @Query(value = "SELECT h.id AS id, h.user_id AS \"userId\", u.username AS username, h.is_fix AS fix, " +
+            "h.create_at AS \"createAt\", substr(h.content, greatest(h.pos - 80, 1), 240) AS snippet " +
+            "FROM (SELECT c.id, c.user_id, c.is_fix, c.create_at, c.content, strpos(lower(c.content), :needle) AS pos " +
+            "      FROM crashes c WHERE lower(c.content) LIKE :pattern ESCAPE '\\') h " +
+            "LEFT JOIN users_crash u ON u.id = h.user_id " +
+            "ORDER BY CASE WHEN h.pos <= 2048 THEN 0 ELSE 1 END, h.create_at DESC, h.id DESC",
+            countQuery = "SELECT COUNT(*) FROM crashes c WHERE lower(c.content) LIKE :pattern ESCAPE '\\'",
+            nativeQuery = true)
+    Page<CrashSearchHit> searchByContent(@Param("needle") String needle,
+                                         @Param("pattern") String pattern,
+                                         Pageable pageable);
+
+    /**
+     * Тот же поиск, но сгруппированный по сигнатуре — тела крашей в JVM не передаются,
+     * только превью примера группы.
+     */
+    @Query(value = "SELECT g.sig AS signature, g.cnt AS count, g.first_id AS \"firstId\", g.last_id AS \"lastId\", " +
+            "coalesce(s.fixed, g.fixed) AS fix, g.regressions AS regressions, " +
+            "g.first_at AS \"firstCreateAt\", g.last_at AS \"lastCreateAt\", " +
+            "u.username AS \"examplePlayer\", left(e.content, 1000) AS preview " +
+            "FROM (SELECT c.signature AS sig, COUNT(*) AS cnt, MIN(c.id) AS first_id, MAX(c.id) AS last_id, " +
+            "      bool_or(c.is_fix) AS fixed, COUNT(*) FILTER (WHERE c.is_regression) AS regressions, " +
+            "      MIN(c.create_at) AS first_at, MAX(c.create_at) AS last_at " +
+            "      FROM crashes c WHERE lower(c.content) LIKE :pattern ESCAPE '\\' GROUP BY c.signature) g " +
+            "JOIN crashes e ON e.id = g.first_id " +
+            "LEFT JOIN users_crash u ON u.id = e.user_id " +
+            "LEFT JOIN crash_signatures s ON s.signature = g.sig " +
+            "ORDER BY CASE WHEN :sort = 'count_desc' THEN g.cnt END DESC, " +
+            "CASE WHEN :sort = 'date_asc' THEN g.first_at END ASC, " +
+            "g.last_at DESC",
+            countQuery = "SELECT COUNT(DISTINCT c.signature) FROM crashes c WHERE lower(c.content) LIKE :pattern ESCAPE '\\'",
+            nativeQuery = true)
+    Page<CrashGroupSummary> searchGroupsByContent(@Param("pattern") String pattern,
+                                                  @Param("sort") String sort,
+                                                  Pageable pageable);
+
+    /**
+     * Все группы крашей по сигнатуре
+     */
+    @Query(value = "SELECT g.sig AS signature, g.cnt AS count, g.first_id AS \"firstId\", g.last_id AS \"lastId\", " +
+            "coalesce(s.fixed, g.fixed) AS fix, g.regressions AS regressions, " +
+            "g.first_at AS \"firstCreateAt\", g.last_at AS \"lastCreateAt\", " +
+            "u.username AS \"examplePlayer\", left(e.content, 1000) AS preview " +
+            "FROM (SELECT c.signature AS sig, COUNT(*) AS cnt, MIN(c.id) AS first_id, MAX(c.id) AS last_id, " +
+            "      bool_or(c.is_fix) AS fixed, COUNT(*) FILTER (WHERE c.is_regression) AS regressions, " +
+            "      MIN(c.create_at) AS first_at, MAX(c.create_at) AS last_at " +
+            "      FROM crashes c GROUP BY c.signature) g " +
+            "JOIN crashes e ON e.id = g.first_id " +
+            "LEFT JOIN users_crash u ON u.id = e.user_id " +
+            "LEFT JOIN crash_signatures s ON s.signature = g.sig " +
+            "ORDER BY CASE WHEN :sort = 'count_desc' THEN g.cnt END DESC, " +
+            "CASE WHEN :sort = 'date_asc' THEN g.first_at END ASC, " +
+            "g.last_at DESC",
+            countQuery = "SELECT COUNT(DISTINCT c.signature) FROM crashes c",
+            nativeQuery = true)
+    Page<CrashGroupSummary> findGroups(@Param("sort") String sort, Pageable pageable);
+
+}
@@ -0,0 +1,77 @@
+package ru.optimus.crashpusher.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.optimus.crashpusher.model.CrashRollup;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface CrashRollupRepository extends JpaRepository<CrashRollup, Long> {
+
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO crash_rollups (granularity, dimension, rollup_key, bucket, crashes) " +
+            "VALUES (:granularity, :dimension, :key, :bucket, :delta) " +
+            "ON CONFLICT (granularity, dimension, rollup_key, bucket) DO UPDATE SET crashes = crash_rollups.crashes + EXCLUDED.crashes",
+            nativeQuery = true)
+    int upsert(@Param("granularity") String granularity,
+               @Param("dimension") String dimension,
+               @Param("key") String key,
+               @Param("bucket") LocalDateTime bucket,
+               @Param("delta") long delta);
+
+    /**
+     * Заполнить корзины одного шага по уже принятым крашам начиная с {@code since}: всего, по сигнатурам и по исключениям.
+     * Для еще не разобранных крашей исключение берется регуляркой, как в {@code CrashRepository.countByExceptionUpTo}
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO crash_rollups (granularity, dimension, rollup_key, bucket, crashes) " +
+            "SELECT :granularity, 'TOTAL', '', date_trunc(:unit, create_at), COUNT(*) FROM crashes " +
+            "WHERE create_at >= :since GROUP BY 4 " +
+            "UNION ALL " +
+            "SELECT :granularity, 'SIGNATURE', coalesce(signature, ''), date_trunc(:unit, create_at), COUNT(*) FROM crashes " +
+            "WHERE create_at >= :since GROUP BY 3, 4 " +
+            "UNION ALL " +
+            "SELECT :granularity, 'EXCEPTION', coalesce(exception_class, " +
+            "substring(content from '(?:[A-Za-z0-9_]+\\.)+[A-Za-z0-9_]+(?:Exception|Error|Throwable)'), 'UnknownException'), " +
+            "date_trunc(:unit, create_at), COUNT(*) FROM crashes WHERE create_at >= :since GROUP BY 3, 4 " +
+            "ON CONFLICT (granularity, dimension, rollup_key, bucket) DO NOTHING",
+            nativeQuery = true)
+    int rebuildFromCrashes(@Param("granularity") String granularity,
+                           @Param("unit") String unit,
+                           @Param("since") LocalDateTime since);
+
+    /**
+     * Ряд корзин ключа в полуинтервале [from, to)
+     */
+    @Query(value = "SELECT bucket, crashes FROM crash_rollups " +
+            "WHERE granularity = :granularity AND dimension = :dimension AND rollup_key = :key " +
+            "AND bucket >= :from AND bucket < :to ORDER BY bucket", nativeQuery = true)
+    List<Object[]> findSeries(@Param("granularity") String granularity,
+                              @Param("dimension") String dimension,
+                              @Param("key") String key,
+                              @Param("from") LocalDateTime from,
+                              @Param("to") LocalDateTime to);
+
+    @Query(value = "SELECT coalesce(SUM(crashes), 0) FROM crash_rollups " +
+            "WHERE granularity = :granularity AND dimension = :dimension AND rollup_key = :key " +
+            "AND bucket >= :from AND bucket < :to", nativeQuery = true)
+    long sumSeries(@Param("granularity") String granularity,
+                   @Param("dimension") String dimension,
+                   @Param("key") String key,
+                   @Param("from") LocalDateTime from,
+                   @Param("to") LocalDateTime to);
+
+    /**
+     * Даунсэмплинг: мелкие корзины старше срока хранения удаляются, их сумма уже есть в корзинах крупнее
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM crash_rollups WHERE granularity = :granularity AND bucket < :before", nativeQuery = true)
+    int deleteOlderThan(@Param("granularity") String granularity, @Param("before") LocalDateTime before);
+}
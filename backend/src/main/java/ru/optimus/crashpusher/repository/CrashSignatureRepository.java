@@ -0,0 +1,150 @@
+package ru.optimus.crashpusher.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.optimus.crashpusher.model.CrashSignature;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface CrashSignatureRepository extends JpaRepository<CrashSignature, Long> {
+
+    Optional<CrashSignature> findBySignature(String signature);
+
+    /**
+     * Прибавить накопленный прирост к сигнатуре (или создать ее)
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO crash_signatures (signature, occurrences, first_seen, last_seen, example_crash_id, preview, " +
+            "occurrences_since_fix, regressed_at, regression_reason) " +
+            "VALUES (:signature, :delta, :firstSeen, :lastSeen, :exampleCrashId, :preview, " +
+            ":sinceFixDelta, :regressedAt, :regressionReason) " +
+            "ON CONFLICT (signature) DO UPDATE SET " +
+            "occurrences = crash_signatures.occurrences + EXCLUDED.occurrences, " +
+            "occurrences_since_fix = crash_signatures.occurrences_since_fix + EXCLUDED.occurrences_since_fix, " +
+            "regressed_at = coalesce(crash_signatures.regressed_at, EXCLUDED.regressed_at), " +
+            "regression_reason = coalesce(crash_signatures.regression_reason, EXCLUDED.regression_reason), " +
+            "first_seen = LEAST(crash_signatures.first_seen, EXCLUDED.first_seen), " +
+            "last_seen = GREATEST(crash_signatures.last_seen, EXCLUDED.last_seen), " +
+            "example_crash_id = coalesce(crash_signatures.example_crash_id, EXCLUDED.example_crash_id), " +
+            "preview = coalesce(crash_signatures.preview, EXCLUDED.preview)",
+            nativeQuery = true)
+    void upsertOccurrences(@Param("signature") String signature,
+                           @Param("delta") long delta,
+                           @Param("firstSeen") LocalDateTime firstSeen,
+                           @Param("lastSeen") LocalDateTime lastSeen,
+                           @Param("exampleCrashId") Long exampleCrashId,
+                           @Param("preview") String preview,
+                           @Param("sinceFixDelta") long sinceFixDelta,
+                           @Param("regressedAt") LocalDateTime regressedAt,
+                           @Param("regressionReason") String regressionReason);
+
+
+    /**
+     * Группы, которые трекер держит в памяти: исправленные, помеченные регрессией или встречавшиеся с {@code since}.
+     * Порциями по id
+     */
+    @Query(value = "SELECT * FROM crash_signatures WHERE id > :afterId " +
+            "AND (fixed OR regressed_at IS NOT NULL OR last_seen >= :since) ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<CrashSignature> findActiveAfter(@Param("afterId") long afterId,
+                                         @Param("since") LocalDateTime since,
+                                         @Param("limit") int limit);
+
+    @Query(value = "SELECT * FROM crash_signatures ORDER BY occurrences DESC LIMIT :limit", nativeQuery = true)
+    List<CrashSignature> findTopByOccurrences(@Param("limit") int limit);
+
+    /**
+     * Собрать таблицу сигнатур по уже существующим крашам
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO crash_signatures (signature, occurrences, first_seen, last_seen, example_crash_id, preview, fixed, fixed_at) " +
+            "SELECT g.signature, g.cnt, g.first_at, g.last_at, g.first_id, left(e.content, 1000), g.fixed, " +
+            "       CASE WHEN g.fixed THEN g.last_at END " +
+            "FROM (SELECT signature, COUNT(*) AS cnt, MIN(create_at) AS first_at, MAX(create_at) AS last_at, MIN(id) AS first_id, " +
+            "      bool_or(is_fix) AS fixed " +
+            "      FROM crashes WHERE signature IS NOT NULL GROUP BY signature) g " +
+            "JOIN crashes e ON e.id = g.first_id " +
+            "ON CONFLICT (signature) DO NOTHING",
+            nativeQuery = true)
+    int rebuildFromCrashes();
+
+    /**
+     * Остались ли группы, у которых нет ни одного краша — значит, краши перегруппированы и таблицу надо пересобрать
+     */
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM crash_signatures s " +
+            "WHERE NOT EXISTS (SELECT 1 FROM crashes c WHERE c.signature = s.signature))", nativeQuery = true)
+    boolean existsOrphaned();
+
+    /**
+     * Есть ли краши с сигнатурой без своей группы — например, после первого пересчета сигнатур,
+     * когда таблица групп собиралась еще по пустым сигнатурам
+     */
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM crashes c WHERE c.signature IS NOT NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM crash_signatures s WHERE s.signature = c.signature))", nativeQuery = true)
+    boolean existsUngrouped();
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM crash_signatures s WHERE NOT EXISTS (SELECT 1 FROM crashes c WHERE c.signature = s.signature)",
+            nativeQuery = true)
+    int deleteOrphaned();
+
+    /**
+     * Пересчитать счетчики всех групп по таблице крашей после смены сигнатур.
+     * Новая группа исправлена, только если исправлены все ее краши, кроме пришедших уже как регрессия;
+     * отметка регрессии переносится с этих крашей. У существующих групп статус исправления и регрессии не трогаем
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO crash_signatures (signature, occurrences, first_seen, last_seen, example_crash_id, preview, fixed, fixed_at, " +
+            "occurrences_since_fix, regressed_at, regression_reason) " +
+            "SELECT g.signature, g.cnt, g.first_at, g.last_at, g.first_id, left(e.content, 1000), g.fixed, " +
+            "       CASE WHEN g.fixed THEN g.fixed_at END, CASE WHEN g.fixed THEN g.regressions ELSE 0 END, " +
+            "       CASE WHEN g.fixed THEN g.regressed_at END, CASE WHEN g.fixed AND g.regressed_at IS NOT NULL THEN 'REAPPEARED' END " +
+            "FROM (SELECT signature, COUNT(*) AS cnt, MIN(create_at) AS first_at, MAX(create_at) AS last_at, MIN(id) AS first_id, " +
+            "      bool_and(is_fix OR is_regression) AS fixed, MAX(create_at) FILTER (WHERE NOT is_regression) AS fixed_at, " +
+            "      COUNT(*) FILTER (WHERE is_regression) AS regressions, " +
+            "      MIN(create_at) FILTER (WHERE is_regression) AS regressed_at " +
+            "      FROM crashes WHERE signature IS NOT NULL GROUP BY signature) g " +
+            "JOIN crashes e ON e.id = g.first_id " +
+            "ON CONFLICT (signature) DO UPDATE SET occurrences = EXCLUDED.occurrences, " +
+            "first_seen = EXCLUDED.first_seen, last_seen = EXCLUDED.last_seen, " +
+            "example_crash_id = EXCLUDED.example_crash_id, preview = EXCLUDED.preview",
+            nativeQuery = true)
+    int regroupFromCrashes();
+
+    /**
+     * Выставить статус исправления группе. Если строки сигнатуры еще нет (прирост не сброшен),
+     * она создается с нулевым счетчиком — прирост добавится при следующем сбросе.
+     * Отметка регрессии и счетчик после исправления сбрасываются.
+     *
+     * @return 0, если крашей с такой сигнатурой нет
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO crash_signatures (signature, occurrences, first_seen, last_seen, fixed, fixed_at) " +
+            "SELECT c.signature, 0, MIN(c.create_at), MAX(c.create_at), :fixed, :fixedAt " +
+            "FROM crashes c WHERE c.signature = :signature GROUP BY c.signature " +
+            "ON CONFLICT (signature) DO UPDATE SET fixed = EXCLUDED.fixed, fixed_at = EXCLUDED.fixed_at, " +
+            "occurrences_since_fix = 0, regressed_at = NULL, regression_reason = NULL",
+            nativeQuery = true)
+    int updateFixed(@Param("signature") String signature,
+                    @Param("fixed") boolean fixed,
+                    @Param("fixedAt") LocalDateTime fixedAt);
+
+    /**
+     * Количество крашей по сигнатурам и часам начиная с указанной даты, до {@code maxId} включительно
+     */
+    @Query(value = "SELECT signature, date_trunc('hour', create_at), COUNT(*) FROM crashes " +
+            "WHERE create_at >= :since AND id <= :maxId AND signature IS NOT NULL " +
+            "GROUP BY signature, date_trunc('hour', create_at)",
+            nativeQuery = true)
+    List<Object[]> countHourlySince(@Param("since") LocalDateTime since, @Param("maxId") long maxId);
+}
@@ -0,0 +1,22 @@
+package ru.optimus.crashpusher.repository;
+
+/**
+ * Шаблоны для {@code LIKE ... ESCAPE '\'}: спецсимволы из пользовательского ввода экранируются,
+ * поэтому "_" в нике ищется как "_", а не как любой символ
+ */
+public final class LikePatterns {
+
+    private LikePatterns() {
+    }
+
+    /**
+     * Вхождение подстроки
+     */
+    public static String contains(String needle) {
+        String escaped = needle
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        return "%" + escaped + "%";
+    }
+}
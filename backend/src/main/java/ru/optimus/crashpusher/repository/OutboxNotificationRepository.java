@@ -0,0 +1,82 @@
+package ru.optimus.crashpusher.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.optimus.crashpusher.model.OutboxNotification;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxNotificationRepository extends JpaRepository<OutboxNotification, Long> {
+
+    /**
+     * id уведомлений, которые пора отправить, по порядку создания. Строки блокируются до конца транзакции,
+     * а занятые другим экземпляром пропускаются
+     */
+    @Query(value = "SELECT id FROM notification_outbox WHERE status = 'PENDING' AND next_attempt_at <= :now " +
+            "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> lockDueIds(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * Аренда на время отправки: если процесс упадет, строка снова станет доступной после {@code until}
+     */
+    @Modifying
+    @Query(value = "UPDATE notification_outbox SET next_attempt_at = :until, attempts = attempts + 1 " +
+            "WHERE id IN (:ids)", nativeQuery = true)
+    int lease(@Param("ids") Collection<Long> ids, @Param("until") LocalDateTime until);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE notification_outbox SET status = 'SENT', sent_at = :now, last_error = NULL " +
+            "WHERE id = :id", nativeQuery = true)
+    int markSent(@Param("id") long id, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE notification_outbox SET next_attempt_at = :retryAt, last_error = :error " +
+            "WHERE id = :id", nativeQuery = true)
+    int scheduleRetry(@Param("id") long id, @Param("retryAt") LocalDateTime retryAt, @Param("error") String error);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE notification_outbox SET status = 'DEAD', last_error = :error WHERE id = :id",
+            nativeQuery = true)
+    int markDead(@Param("id") long id, @Param("error") String error);
+
+    /**
+     * Вернуть исчерпавшие попытки уведомления в очередь с обнуленным счетчиком
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE notification_outbox SET status = 'PENDING', attempts = 0, next_attempt_at = :now " +
+            "WHERE status = 'DEAD'", nativeQuery = true)
+    int requeueDead(@Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM notification_outbox WHERE status = 'SENT' AND sent_at < :before", nativeQuery = true)
+    int deleteSentBefore(@Param("before") LocalDateTime before);
+
+    /**
+     * Неотправленные уведомления, которые так и не ушли до {@code before}, — устарели
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM notification_outbox WHERE status = 'PENDING' AND created_at < :before", nativeQuery = true)
+    int deletePendingBefore(@Param("before") LocalDateTime before);
+
+    /**
+     * Статус, число строк и самая старая строка в статусе
+     */
+    @Query(value = "SELECT status, COUNT(*), MIN(created_at) FROM notification_outbox GROUP BY status",
+            nativeQuery = true)
+    List<Object[]> countByStatus();
+
+    @Query(value = "SELECT COUNT(*) FROM notification_outbox WHERE status = 'PENDING' AND next_attempt_at <= :now",
+            nativeQuery = true)
+    long countDue(@Param("now") LocalDateTime now);
+}
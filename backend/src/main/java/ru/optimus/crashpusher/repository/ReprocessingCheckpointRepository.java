@@ -0,0 +1,7 @@
+package ru.optimus.crashpusher.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.optimus.crashpusher.model.ReprocessingCheckpoint;
+
+public interface ReprocessingCheckpointRepository extends JpaRepository<ReprocessingCheckpoint, String> {
+}
@@ -0,0 +1,22 @@
+package ru.optimus.crashpusher.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.optimus.crashpusher.model.StackFrame;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface StackFrameRepository extends JpaRepository<StackFrame, Integer> {
+
+    List<StackFrame> findByFrameIn(Collection<String> frames);
+
+    /**
+     * Добавить фрейм, если его еще нет (параллельный прием того же фрейма не падает на уникальности)
+     */
+    @Modifying
+    @Query(value = "INSERT INTO stack_frames (frame) VALUES (:frame) ON CONFLICT (frame) DO NOTHING", nativeQuery = true)
+    void insertIfAbsent(@Param("frame") String frame);
+}
@@ -1,10 +1,96 @@
 package ru.optimus.crashpusher.repository;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.optimus.crashpusher.model.UserCrash;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserCrashRepository extends JpaRepository<UserCrash, Long> {
     Optional<UserCrash> findByUsername(String username);
+
+    /**
+     * id и ник всех игроков — для индекса подсказок
+     */
+    @Query("SELECT u.id, u.username FROM UserCrash u")
+    List<Object[]> findAllNames();
+
+    /**
+     * @param pattern шаблон из {@link LikePatterns#contains} в нижнем регистре
+     */
+    @Query("SELECT u FROM UserCrash u WHERE LOWER(u.username) LIKE :pattern ESCAPE '\\'")
+    Page<UserCrash> search(@Param("pattern") String pattern, Pageable pageable);
+
+    /**
+     * Учесть новый краш игрока. Краш уже вставлен, поэтому подзапрос видит и его; сигнатура становится
+     * топовой, если у игрока с ней теперь больше крашей, чем с прежней топовой
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE users_crash u SET crash_count = u.crash_count + 1, " +
+            "unfixed_count = u.unfixed_count + CASE WHEN :fix THEN 0 ELSE 1 END, " +
+            "last_crash_at = GREATEST(u.last_crash_at, :createdAt), " +
+            "top_signature = CASE WHEN s.n > u.top_signature_count THEN :signature ELSE u.top_signature END, " +
+            "top_signature_count = GREATEST(s.n, u.top_signature_count) " +
+            "FROM (SELECT COUNT(*) AS n FROM crashes WHERE user_id = :userId AND signature = :signature) s " +
+            "WHERE u.id = :userId", nativeQuery = true)
+    int recordCrash(@Param("userId") long userId,
+                    @Param("signature") String signature,
+                    @Param("fix") boolean fix,
+                    @Param("createdAt") LocalDateTime createdAt);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE users_crash SET unfixed_count = GREATEST(unfixed_count + :delta, 0) WHERE id = :userId",
+            nativeQuery = true)
+    int adjustUnfixed(@Param("userId") long userId, @Param("delta") long delta);
+
+    /**
+     * Перед сменой статуса всей группы: игрокам, у которых краши группы поменяют статус, сдвигаем unfixed_count
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE users_crash u SET unfixed_count = GREATEST(u.unfixed_count + " +
+            "CASE WHEN :fix THEN -d.n ELSE d.n END, 0) " +
+            "FROM (SELECT user_id, COUNT(*) AS n FROM crashes WHERE signature = :signature AND is_fix <> :fix " +
+            "GROUP BY user_id) d WHERE u.id = d.user_id", nativeQuery = true)
+    int adjustUnfixedBySignature(@Param("signature") String signature, @Param("fix") boolean fix);
+
+    /**
+     * Распределение игроков по числу крашей: число крашей, число игроков (по индексу crash_count)
+     */
+    @Query(value = "SELECT crash_count, COUNT(*) FROM users_crash WHERE crash_count > 0 " +
+            "GROUP BY crash_count ORDER BY crash_count", nativeQuery = true)
+    List<Object[]> countByCrashCount();
+
+    @Query(value = "SELECT id FROM users_crash WHERE id > :afterId ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Long> findIdsAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    @Query(value = "SELECT COUNT(*) FROM users_crash WHERE id > :afterId", nativeQuery = true)
+    long countAfter(@Param("afterId") long afterId);
+
+    /**
+     * Пересчитать агрегаты игроков целиком по таблице крашей
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE users_crash u SET crash_count = COALESCE(a.crashes, 0), " +
+            "unfixed_count = COALESCE(a.unfixed, 0), last_crash_at = a.last_at, " +
+            "top_signature = t.signature, top_signature_count = COALESCE(t.n, 0) " +
+            "FROM users_crash x " +
+            "LEFT JOIN (SELECT user_id, COUNT(*) AS crashes, COUNT(*) FILTER (WHERE NOT is_fix) AS unfixed, " +
+            "MAX(create_at) AS last_at FROM crashes WHERE user_id IN (:ids) GROUP BY user_id) a ON a.user_id = x.id " +
+            "LEFT JOIN (SELECT DISTINCT ON (user_id) user_id, signature, COUNT(*) AS n FROM crashes " +
+            "WHERE user_id IN (:ids) AND signature IS NOT NULL GROUP BY user_id, signature " +
+            "ORDER BY user_id, COUNT(*) DESC, MIN(id)) t ON t.user_id = x.id " +
+            "WHERE u.id = x.id AND x.id IN (:ids)", nativeQuery = true)
+    int recomputeAggregates(@Param("ids") Collection<Long> ids);
 }
@@ -1,6 +1,8 @@
 package ru.optimus.crashpusher.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.optimus.crashpusher.model.User;
 import ru.optimus.crashpusher.model.UserCrash;
 
@@ -11,7 +13,13 @@ public interface UserRepository extends JpaRepository<User, Long> {
 
     Optional<User> findByUsername(String username);
 
-    List<User> findByUsernameContainingIgnoreCase(String query);
+    /**
+     * Подстрока в нике без учета регистра; lower(username) покрыт триграммным индексом
+     *
+     * @param pattern шаблон из {@link LikePatterns#contains} в нижнем регистре
+     */
+    @Query("SELECT u FROM User u WHERE LOWER(u.username) LIKE :pattern ESCAPE '\\'")
+    List<User> searchByUsername(@Param("pattern") String pattern);
 
     boolean existsByUsername(String username);
 
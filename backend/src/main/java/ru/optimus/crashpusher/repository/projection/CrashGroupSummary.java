@@ -0,0 +1,29 @@
+package ru.optimus.crashpusher.repository.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * Группа одинаковых крашей (по сигнатуре), собранная на стороне БД — без тел крашей, только превью примера
+ */
+public interface CrashGroupSummary {
+
+    String getSignature();
+
+    Long getCount();
+
+    Long getFirstId();
+
+    Long getLastId();
+
+    Boolean getFix();
+
+    Long getRegressions();
+
+    LocalDateTime getFirstCreateAt();
+
+    LocalDateTime getLastCreateAt();
+
+    String getExamplePlayer();
+
+    String getPreview();
+}
@@ -0,0 +1,9 @@
+package ru.optimus.crashpusher.repository.projection;
+
+/**
+ * Метаданные краша и короткое начало отчета (вырезается в БД)
+ */
+public interface CrashPreview extends CrashSummary {
+
+    String getSummary();
+}
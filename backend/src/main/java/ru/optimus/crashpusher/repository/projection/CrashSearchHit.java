@@ -0,0 +1,21 @@
+package ru.optimus.crashpusher.repository.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * Результат полнотекстового поиска по крашам — без тела краша, только фрагмент вокруг совпадения
+ */
+public interface CrashSearchHit {
+
+    Long getId();
+
+    Long getUserId();
+
+    String getUsername();
+
+    Boolean getFix();
+
+    LocalDateTime getCreateAt();
+
+    String getSnippet();
+}
@@ -0,0 +1,21 @@
+package ru.optimus.crashpusher.repository.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * Метаданные краша без содержимого — для списков и статистики
+ */
+public interface CrashSummary {
+
+    Long getId();
+
+    Long getUserId();
+
+    String getUsername();
+
+    Boolean getFix();
+
+    LocalDateTime getCreateAt();
+
+    String getSignature();
+}
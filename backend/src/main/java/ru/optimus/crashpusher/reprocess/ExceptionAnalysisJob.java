@@ -0,0 +1,71 @@
+package ru.optimus.crashpusher.reprocess;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.optimus.crashpusher.analysis.CrashAnalyzer;
+import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.stats.StatsEngine;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Разбор исключений у крашей, принятых до появления колонок exception_*.
+ * Обработанные строки выпадают из выборки, поэтому повторный проход ничего не портит.
+ */
+@Component
+@RequiredArgsConstructor
+public class ExceptionAnalysisJob implements ReprocessingJob {
+
+    private final CrashRepository crashRepository;
+    private final StatsEngine statsEngine;
+
+    // Сколько крашей разобрано в текущем проходе
+    private final AtomicLong analyzed = new AtomicLong();
+
+    @Override
+    public String name() {
+        return "exception-analysis";
+    }
+
+    @Override
+    public boolean autoStart() {
+        return true;
+    }
+
+    @Override
+    public List<Object[]> fetchAfter(long afterId, int limit) {
+        return crashRepository.findContentWithoutExceptionAfterId(afterId, limit);
+    }
+
+    @Override
+    public long countAfter(long afterId) {
+        return crashRepository.countWithoutExceptionAfterId(afterId);
+    }
+
+    @Override
+    public void process(List<Object[]> rows) {
+        // Дубликаты разбираем один раз на тело и обновляем всех одним запросом. По сигнатуре группировать нельзя:
+        // в группе одинаковы исключение и верхние фреймы, но не сообщение
+        Map<String, List<Long>> idsByContent = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            String content = row[2] != null ? (String) row[2] : "";
+            idsByContent.computeIfAbsent(content, k -> new ArrayList<>()).add(((Number) row[0]).longValue());
+        }
+
+        for (Map.Entry<String, List<Long>> group : idsByContent.entrySet()) {
+            CrashAnalyzer.Analysis analysis = CrashAnalyzer.analyze(group.getKey());
+            analyzed.addAndGet(crashRepository.updateExceptionByIds(group.getValue(), analysis.exceptionClass(),
+                    analysis.message(), analysis.causedBy()));
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        // Счетчики по исключениям собирались, пока часть крашей была не разобрана. onComplete вызывается
+        // и на пустом проходе при каждом старте — тогда счетчики уже верные, StatsEngine.load() только что их собрал
+        if (analyzed.getAndSet(0) > 0) {
+            statsEngine.reconcile();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.optimus.crashpusher.reprocess;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.optimus.crashpusher.repository.UserCrashRepository;
+
+import java.util.List;
+
+/**
+ * Пересчет агрегатов игроков (число крашей, неисправленные, последний краш, топ-сигнатура) по таблице крашей.
+ * Проходит по users_crash, а не по крашам; после сброса чекпоинта заодно убирает накопившийся дрейф.
+ */
+@Component
+@RequiredArgsConstructor
+public class PlayerAggregatesJob implements ReprocessingJob {
+
+    public static final String NAME = "player-aggregates";
+
+    private final UserCrashRepository userCrashRepository;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean autoStart() {
+        return true;
+    }
+
+    @Override
+    public List<Object[]> fetchAfter(long afterId, int limit) {
+        return userCrashRepository.findIdsAfter(afterId, limit).stream()
+                .map(id -> new Object[]{id})
+                .toList();
+    }
+
+    @Override
+    public long countAfter(long afterId) {
+        return userCrashRepository.countAfter(afterId);
+    }
+
+    @Override
+    public void process(List<Object[]> rows) {
+        userCrashRepository.recomputeAggregates(rows.stream()
+                .map(row -> ((Number) row[0]).longValue())
+                .toList());
+    }
+}
@@ -0,0 +1,43 @@
+package ru.optimus.crashpusher.reprocess;
+
+import java.util.List;
+
+/**
+ * Задача пересчета производного поля у уже принятых крашей (исключение, сигнатура, фреймы и т.п.).
+ * <p>
+ * Краши читаются порциями по возрастанию id (keyset), первая колонка каждой строки — id краша.
+ * Порции обрабатываются параллельно, каждая в своей транзакции, поэтому {@link #process} должен
+ * быть идемпотентным и не зависеть от других порций.
+ */
+public interface ReprocessingJob {
+
+    /**
+     * Имя задачи — ключ чекпоинта и путь в админском API
+     */
+    String name();
+
+    /**
+     * Запускать (продолжать) задачу при старте приложения
+     */
+    default boolean autoStart() {
+        return false;
+    }
+
+    /**
+     * Следующая порция строк с id больше {@code afterId}, по возрастанию id
+     */
+    List<Object[]> fetchAfter(long afterId, int limit);
+
+    /**
+     * Оценка числа оставшихся строк — для прогресса и ETA
+     */
+    long countAfter(long afterId);
+
+    void process(List<Object[]> rows);
+
+    /**
+     * Вызывается после того, как обработана последняя порция
+     */
+    default void onComplete() {
+    }
+}
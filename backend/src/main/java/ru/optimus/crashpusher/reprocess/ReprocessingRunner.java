@@ -0,0 +1,306 @@
+package ru.optimus.crashpusher.reprocess;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.optimus.crashpusher.model.ReprocessingCheckpoint;
+import ru.optimus.crashpusher.repository.ReprocessingCheckpointRepository;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запуск задач {@link ReprocessingJob} по всей таблице крашей.
+ * <p>
+ * Один поток читает порции по keyset'у, за раз набирается до {@code parallelism} порций ("волна"),
+ * они обрабатываются параллельно на виртуальных потоках, каждая в своей транзакции. После волны
+ * чекпоинт (последний id) сохраняется в БД, так что перезапуск продолжает с него. Параллелизм
+ * меньше пула соединений, а лимит строк в секунду притормаживает задачу, чтобы прием живых
+ * крашей не ждал соединений.
+ */
+@Slf4j
+@Service
+public class ReprocessingRunner {
+
+    private final Map<String, ReprocessingJob> jobs = new LinkedHashMap<>();
+    private final ReprocessingCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transaction;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+
+    private final int chunkSize;
+    private final int parallelism;
+    private volatile int rowsPerSecond;
+
+    public ReprocessingRunner(List<ReprocessingJob> jobs,
+                              ReprocessingCheckpointRepository checkpointRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${crash.reprocess.chunk-size:500}") int chunkSize,
+                              @Value("${crash.reprocess.parallelism:4}") int parallelism,
+                              @Value("${crash.reprocess.rows-per-second:0}") int rowsPerSecond) {
+        for (ReprocessingJob job : jobs) {
+            this.jobs.put(job.name(), job);
+        }
+        this.checkpointRepository = checkpointRepository;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.rowsPerSecond = Math.max(0, rowsPerSecond);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        for (ReprocessingJob job : jobs.values()) {
+            if (job.autoStart()) {
+                start(job.name());
+            }
+        }
+    }
+
+    /**
+     * @return false, если задача уже выполняется
+     * @throws NoSuchElementException если задачи с таким именем нет
+     */
+    public synchronized boolean start(String name) {
+        ReprocessingJob job = getJob(name);
+        Run previous = runs.get(name);
+        if (previous != null && previous.state == State.RUNNING) {
+            return false;
+        }
+
+        Run run = new Run(job);
+        runs.put(name, run);
+        Thread.ofPlatform().daemon().name("reprocess-" + name).start(() -> execute(run));
+        return true;
+    }
+
+    /**
+     * Остановить после текущей волны; чекпоинт сохраняется
+     */
+    public boolean stop(String name) {
+        getJob(name);
+        Run run = runs.get(name);
+        if (run == null || run.state != State.RUNNING) return false;
+        run.stopRequested = true;
+        return true;
+    }
+
+    /**
+     * Сбросить чекпоинт — следующий запуск пройдет таблицу с начала
+     *
+     * @throws IllegalStateException если задача выполняется
+     */
+    public synchronized void reset(String name) {
+        getJob(name);
+        Run run = runs.get(name);
+        if (run != null && run.state == State.RUNNING) {
+            throw new IllegalStateException("Job " + name + " is running");
+        }
+        checkpointRepository.deleteById(name);
+        runs.remove(name);
+    }
+
+    /**
+     * Пройти таблицу заново с начала. Если задача сейчас выполняется, перезапуск откладывается до ее окончания:
+     * уже пройденные ею строки могли быть посчитаны по устаревшим данным
+     */
+    public synchronized void rerun(String name) {
+        getJob(name);
+        Run run = runs.get(name);
+        if (run != null && run.state == State.RUNNING) {
+            run.rerunRequested = true;
+            return;
+        }
+        reset(name);
+        start(name);
+    }
+
+    public int getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    /**
+     * Ограничение скорости для всех задач, 0 — без ограничения. Применяется со следующей волны
+     */
+    public void setRowsPerSecond(int rowsPerSecond) {
+        this.rowsPerSecond = Math.max(0, rowsPerSecond);
+    }
+
+    /**
+     * Состояние всех задач: прогресс, скорость и оценка оставшегося времени
+     */
+    public List<Map<String, Object>> getStatus() {
+        Map<String, ReprocessingCheckpoint> checkpoints = new HashMap<>();
+        for (ReprocessingCheckpoint checkpoint : checkpointRepository.findAllById(jobs.keySet())) {
+            checkpoints.put(checkpoint.getJob(), checkpoint);
+        }
+
+        List<Map<String, Object>> status = new ArrayList<>();
+        for (String name : jobs.keySet()) {
+            Run run = runs.get(name);
+            ReprocessingCheckpoint checkpoint = checkpoints.get(name);
+
+            Map<String, Object> map = new HashMap<>();
+            map.put("job", name);
+            map.put("state", run != null ? run.state : checkpoint != null && checkpoint.getCompletedAt() != null
+                    ? State.COMPLETED : State.IDLE);
+            map.put("processed", checkpoint != null ? checkpoint.getProcessed() : 0);
+            map.put("lastId", checkpoint != null ? checkpoint.getLastId() : 0);
+            map.put("startedAt", checkpoint != null ? checkpoint.getStartedAt() : null);
+            map.put("updatedAt", checkpoint != null ? checkpoint.getUpdatedAt() : null);
+            map.put("completedAt", checkpoint != null ? checkpoint.getCompletedAt() : null);
+            if (run != null) {
+                long processed = run.processed;
+                long total = Math.max(run.total, processed);
+                double rate = run.rate();
+                map.put("processed", processed);
+                map.put("total", total);
+                map.put("percent", total > 0 ? Math.round(processed * 1000.0 / total) / 10.0 : 100.0);
+                map.put("rowsPerSecond", Math.round(rate));
+                map.put("etaSeconds", run.state == State.RUNNING && rate > 0 ? Math.round((total - processed) / rate) : null);
+                map.put("error", run.error);
+            }
+            status.add(map);
+        }
+        return status;
+    }
+
+    private void execute(Run run) {
+        ReprocessingJob job = run.job;
+        try {
+            ReprocessingCheckpoint checkpoint = checkpointRepository.findById(job.name())
+                    .orElseGet(() -> new ReprocessingCheckpoint(job.name()));
+            if (checkpoint.getStartedAt() == null) {
+                checkpoint.setStartedAt(LocalDateTime.now());
+            }
+            checkpoint.setCompletedAt(null);
+
+            run.processed = checkpoint.getProcessed();
+            run.processedAtStart = checkpoint.getProcessed();
+            run.total = checkpoint.getProcessed() + job.countAfter(checkpoint.getLastId());
+
+            while (!run.stopRequested) {
+                long waveStarted = System.nanoTime();
+                List<List<Object[]>> wave = readWave(job, checkpoint.getLastId());
+                if (wave.isEmpty()) {
+                    checkpoint.setCompletedAt(LocalDateTime.now());
+                    break;
+                }
+
+                CompletableFuture.allOf(wave.stream()
+                        .map(chunk -> CompletableFuture.runAsync(
+                                () -> transaction.executeWithoutResult(status -> job.process(chunk)), executor))
+                        .toArray(CompletableFuture[]::new)).join();
+
+                List<Object[]> lastChunk = wave.get(wave.size() - 1);
+                int rows = wave.stream().mapToInt(List::size).sum();
+                checkpoint.setLastId(((Number) lastChunk.get(lastChunk.size() - 1)[0]).longValue());
+                checkpoint.setProcessed(checkpoint.getProcessed() + rows);
+                checkpoint.setUpdatedAt(LocalDateTime.now());
+                checkpointRepository.save(checkpoint);
+                run.processed = checkpoint.getProcessed();
+
+                throttle(rows, waveStarted);
+            }
+
+            checkpointRepository.save(checkpoint);
+            run.finishedNanos = System.nanoTime();
+            if (checkpoint.getCompletedAt() != null) {
+                log.info("Reprocessing job {} finished: {} rows", job.name(), run.processed - run.processedAtStart);
+                job.onComplete();
+                finish(run, State.COMPLETED);
+            } else {
+                log.info("Reprocessing job {} stopped at {} rows", job.name(), run.processed);
+                finish(run, State.STOPPED);
+            }
+        } catch (Exception e) {
+            run.error = e.getMessage();
+            run.finishedNanos = System.nanoTime();
+            log.warn("Reprocessing job {} failed: {}", job.name(), e.getMessage());
+            finish(run, State.FAILED);
+        }
+    }
+
+    /**
+     * Смена состояния под тем же монитором, что и {@link #rerun}, чтобы отложенный перезапуск не потерялся
+     */
+    private synchronized void finish(Run run, State state) {
+        run.state = state;
+        if (run.rerunRequested && state != State.STOPPED) {
+            log.info("Reprocessing job {} restarts from the beginning", run.job.name());
+            reset(run.job.name());
+            start(run.job.name());
+        }
+    }
+
+    private List<List<Object[]>> readWave(ReprocessingJob job, long afterId) {
+        List<List<Object[]>> wave = new ArrayList<>(parallelism);
+        long after = afterId;
+        while (wave.size() < parallelism) {
+            List<Object[]> chunk = job.fetchAfter(after, chunkSize);
+            if (chunk.isEmpty()) break;
+            wave.add(chunk);
+            after = ((Number) chunk.get(chunk.size() - 1)[0]).longValue();
+            if (chunk.size() < chunkSize) break;
+        }
+        return wave;
+    }
+
+    private void throttle(int rows, long startedNanos) throws InterruptedException {
+        int limit = rowsPerSecond;
+        if (limit <= 0) return;
+        long minNanos = TimeUnit.SECONDS.toNanos(rows) / limit;
+        long elapsed = System.nanoTime() - startedNanos;
+        if (elapsed < minNanos) {
+            TimeUnit.NANOSECONDS.sleep(minNanos - elapsed);
+        }
+    }
+
+    private ReprocessingJob getJob(String name) {
+        ReprocessingJob job = jobs.get(name);
+        if (job == null) {
+            throw new NoSuchElementException("Unknown reprocessing job: " + name);
+        }
+        return job;
+    }
+
+    public enum State {
+        IDLE, RUNNING, STOPPED, COMPLETED, FAILED
+    }
+
+    private static final class Run {
+
+        final ReprocessingJob job;
+        final long startedNanos = System.nanoTime();
+        volatile State state = State.RUNNING;
+        volatile boolean stopRequested;
+        volatile boolean rerunRequested;
+        volatile long processed;
+        volatile long processedAtStart;
+        volatile long total;
+        volatile String error;
+        volatile long finishedNanos;
+
+        Run(ReprocessingJob job) {
+            this.job = job;
+        }
+
+        /**
+         * Строк в секунду в текущем запуске
+         */
+        double rate() {
+            long until = state == State.RUNNING ? System.nanoTime() : finishedNanos;
+            double seconds = (until - startedNanos) / 1e9;
+            return seconds > 0 ? (processed - processedAtStart) / seconds : 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.optimus.crashpusher.reprocess;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import ru.optimus.crashpusher.analysis.CrashAnalyzer;
+import ru.optimus.crashpusher.analysis.CrashSignatures;
+import ru.optimus.crashpusher.analysis.StackFrames;
+import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.repository.CrashSignatureRepository;
+import ru.optimus.crashpusher.stats.CrashSignatureTracker;
+import ru.optimus.crashpusher.stats.CrashSimilarityIndex;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пересчет сигнатур у крашей, посчитанных старой версией {@link CrashSignatures}
+ * (раньше сигнатурой был md5 всего отчета, и одинаковые баги не группировались).
+ * Обработанные строки выпадают из выборки, поэтому повторный проход ничего не портит.
+ * <p>
+ * После прохода группы в crash_signatures, трекер и индекс похожих крашей пересобираются по новым сигнатурам,
+ * а агрегаты игроков (топ-сигнатура) пересчитываются заново. При первом обновлении сигнатуры у старых крашей
+ * пустые и таблица групп тоже пустая, поэтому пересборка идет, если проход что-то пересчитал или у каких-то крашей
+ * нет группы (например, прошлый запуск упал между пересчетом и пересборкой).
+ */
+@Slf4j
+@Component
+public class SignatureMigrationJob implements ReprocessingJob {
+
+    private final CrashRepository crashRepository;
+    private final CrashSignatureRepository signatureRepository;
+    private final CrashSignatureTracker crashSignatureTracker;
+    private final CrashSimilarityIndex crashSimilarityIndex;
+    private final ReprocessingRunner reprocessingRunner;
+
+    // Сколько крашей пересчитано в текущем проходе
+    private final AtomicLong migrated = new AtomicLong();
+
+    public SignatureMigrationJob(CrashRepository crashRepository,
+                                 CrashSignatureRepository signatureRepository,
+                                 CrashSignatureTracker crashSignatureTracker,
+                                 CrashSimilarityIndex crashSimilarityIndex,
+                                 @Lazy ReprocessingRunner reprocessingRunner) {
+        this.crashRepository = crashRepository;
+        this.signatureRepository = signatureRepository;
+        this.crashSignatureTracker = crashSignatureTracker;
+        this.crashSimilarityIndex = crashSimilarityIndex;
+        this.reprocessingRunner = reprocessingRunner;
+    }
+
+    @Override
+    public String name() {
+        return "signature-migration";
+    }
+
+    @Override
+    public boolean autoStart() {
+        return true;
+    }
+
+    @Override
+    public List<Object[]> fetchAfter(long afterId, int limit) {
+        return crashRepository.findContentWithSignatureVersionBelowAfterId(CrashSignatures.VERSION, afterId, limit);
+    }
+
+    @Override
+    public long countAfter(long afterId) {
+        return crashRepository.countWithSignatureVersionBelowAfterId(CrashSignatures.VERSION, afterId);
+    }
+
+    @Override
+    public void process(List<Object[]> rows) {
+        // Дубликаты разбираем один раз на тело, краши одной группы обновляем одним запросом
+        Map<String, String> signatureByContent = new HashMap<>();
+        Map<String, List<Long>> idsBySignature = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            String content = (String) row[1];
+            String signature = signatureByContent.computeIfAbsent(content != null ? content : "",
+                    c -> CrashSignatures.of(CrashAnalyzer.analyze(content), StackFrames.extract(content), content));
+            idsBySignature.computeIfAbsent(signature, s -> new ArrayList<>()).add(((Number) row[0]).longValue());
+        }
+
+        idsBySignature.forEach((signature, ids) ->
+                migrated.addAndGet(crashRepository.updateSignatureByIds(ids, signature, CrashSignatures.VERSION)));
+    }
+
+    @Override
+    public void onComplete() {
+        // onComplete вызывается и на пустом проходе при каждом старте — пересобираем, только если есть что
+        long updated = migrated.getAndSet(0);
+        if (updated == 0 && !signatureRepository.existsUngrouped() && !signatureRepository.existsOrphaned()) return;
+
+        int groups = crashSignatureTracker.regroup();
+        crashSimilarityIndex.reload();
+        log.info("Crash signatures regrouped: {} groups, {} crashes migrated", groups, updated);
+
+        // Агрегаты игроков могли пройти (или еще идти) по старым сигнатурам — пересчитываем с начала после них
+        reprocessingRunner.rerun(PlayerAggregatesJob.NAME);
+    }
+}
@@ -1,15 +1,34 @@
 package ru.optimus.crashpusher.service;
 
 import lombok.AllArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.optimus.crashpusher.analysis.CrashAnalyzer;
+import ru.optimus.crashpusher.analysis.CrashSignatures;
+import ru.optimus.crashpusher.analysis.FrameIds;
+import ru.optimus.crashpusher.analysis.MinHash;
+import ru.optimus.crashpusher.analysis.StackFrames;
+import ru.optimus.crashpusher.event.CrashFixChangedEvent;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.event.SignatureFixChangedEvent;
 import ru.optimus.crashpusher.model.Crash;
 import ru.optimus.crashpusher.model.UserCrash;
 import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.repository.CrashSignatureRepository;
+import ru.optimus.crashpusher.repository.LikePatterns;
 import ru.optimus.crashpusher.repository.UserCrashRepository;
+import ru.optimus.crashpusher.repository.projection.CrashGroupSummary;
+import ru.optimus.crashpusher.repository.projection.CrashPreview;
+import ru.optimus.crashpusher.repository.projection.CrashSearchHit;
+import ru.optimus.crashpusher.stats.CrashSignatureTracker;
 
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 @Service
 @AllArgsConstructor
@@ -17,6 +36,11 @@ public class CrashService {
 
     private UserCrashRepository userCrashRepository;
     private CrashRepository crashRepository;
+    private CrashSignatureRepository crashSignatureRepository;
+    private CrashSignatureTracker crashSignatureTracker;
+    private StackFrameDictionary stackFrameDictionary;
+    private NotificationOutbox notificationOutbox;
+    private ApplicationEventPublisher eventPublisher;
 
 
     @Transactional
@@ -26,11 +50,31 @@ public class CrashService {
         if (userCrash == null) {
             userCrash = new UserCrash();
             userCrash.setUsername(username);
+            userCrash = userCrashRepository.save(userCrash);
         }
         crash.setCreateAt(LocalDateTime.now());
+        CrashAnalyzer.Analysis analysis = CrashAnalyzer.analyze(crash.getContent());
+        crash.setExceptionClass(analysis.exceptionClass());
+        crash.setExceptionMessage(analysis.message());
+        crash.setCausedBy(analysis.causedBy());
+        // Фреймы разбираются один раз: сигнатура группы, словарные id для аналитики и MinHash для поиска похожих
+        Set<String> frames = StackFrames.extract(crash.getContent());
+        crash.setSignature(CrashSignatures.of(analysis, frames, crash.getContent()));
+        crash.setSignatureVersion(CrashSignatures.VERSION);
+        int[] frameIds = stackFrameDictionary.resolve(frames);
+        crash.setFrameIds(FrameIds.encode(frameIds));
+        crash.setMinhash(MinHash.toBytes(MinHash.of(frames)));
+        // Группа уже помечена исправленной — значит, исправление не помогло
+        crash.setRegression(crashSignatureTracker.isFixed(crash.getSignature()));
         crash.setUserCrash(userCrash);
-        userCrash.getCrashes().add(crash);
-        return userCrashRepository.save(userCrash);
+        // Сохраняем краш напрямую, чтобы не подгружать всю коллекцию крашей игрока
+        crashRepository.save(crash);
+        userCrashRepository.recordCrash(userCrash.getId(), crash.getSignature(), crash.isFix(), crash.getCreateAt());
+        notificationOutbox.enqueueCrash(crash.getId(), username);
+
+        eventPublisher.publishEvent(new CrashIngestedEvent(crash.getId(), userCrash.getId(), username, crash.getSignature(),
+                crash.getContent(), crash.getExceptionClass(), crash.getCreateAt(), crash.isRegression(), frameIds));
+        return userCrash;
     }
 
     @Transactional
@@ -39,22 +83,78 @@ public class CrashService {
         if(crash == null){
             throw new NullPointerException("Crash is null!");
         }
+        boolean changed = crash.isFix() != fix;
         crash.setFix(fix);
-        return crashRepository.save(crash);
+        crash = crashRepository.save(crash);
+
+        if (changed) {
+            if (crash.getUserCrash() != null) {
+                userCrashRepository.adjustUnfixed(crash.getUserCrash().getId(), fix ? -1 : 1);
+            }
+            eventPublisher.publishEvent(new CrashFixChangedEvent(crash.getId(), crash.getSignature(), fix));
+        }
+        return crash;
     }
 
 
+    /**
+     * Выставить статус исправления всей группе, к которой относится краш
+     *
+     * @return сигнатура группы или пусто, если краша нет
+     */
+    @Transactional
+    public Optional<String> setGroupFix(long crashId, boolean fix) {
+        Optional<String> signature = crashRepository.findSignatureById(crashId);
+        signature.ifPresent(s -> setSignatureFix(s, fix));
+        return signature;
+    }
 
-    public List<Crash> getCrashesByUser(Long userId) {
-        return crashRepository.findAllByUserCrashId(userId);
+    @Transactional
+    public int setSignatureFix(String signature, boolean fix) {
+        LocalDateTime fixedAt = fix ? LocalDateTime.now() : null;
+        if (crashSignatureRepository.updateFixed(signature, fix, fixedAt) == 0) {
+            return 0;
+        }
+        userCrashRepository.adjustUnfixedBySignature(signature, fix);
+        int updated = crashRepository.updateFixBySignature(signature, fix);
+
+        eventPublisher.publishEvent(new SignatureFixChangedEvent(signature, fix, fixedAt, updated));
+        return updated;
     }
 
     public Crash getCrashById(Long crashId) {
         return crashRepository.findById(crashId).orElse(null);
     }
 
+    public Optional<String> getCrashSignature(Long crashId) {
+        return crashRepository.findSignatureById(crashId);
+    }
+
+    public Optional<String> getCrashContent(Long crashId) {
+        return crashRepository.findContentById(crashId);
+    }
+
+    /**
+     * Список крашей без тел — только метаданные и начало отчета
+     */
+    public Page<CrashPreview> getCrashPreviews(Pageable pageable) {
+        return crashRepository.findPreviews(pageable);
+    }
+
+    public Page<CrashGroupSummary> getCrashGroups(String sort, Pageable pageable) {
+        return crashRepository.findGroups(sort, pageable);
+    }
+
+    /**
+     * Поиск крашей по подстроке (имя класса, id мода, фрагмент сообщения) без загрузки тел крашей
+     */
+    public Page<CrashSearchHit> searchCrashes(String query, int page, int size) {
+        String needle = query.toLowerCase();
+        return crashRepository.searchByContent(needle, LikePatterns.contains(needle), PageRequest.of(page, size));
+    }
 
-    public List<Crash> getGlobalCrashes() {
-        return crashRepository.findAll();
+    public Page<CrashGroupSummary> searchCrashGroups(String query, String sort, int page, int size) {
+        String needle = query.toLowerCase();
+        return crashRepository.searchGroupsByContent(LikePatterns.contains(needle), sort, PageRequest.of(page, size));
     }
 }
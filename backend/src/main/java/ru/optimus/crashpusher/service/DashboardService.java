@@ -0,0 +1,68 @@
+package ru.optimus.crashpusher.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.optimus.crashpusher.stats.DataVersion;
+import ru.optimus.crashpusher.stats.StatsCache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Вся страница статистики одним ответом.
+ * <p>
+ * Разделы считаются параллельно на ограниченном пуле {@link StatsCache} и берутся из одной версии данных,
+ * поэтому цифры в разделах согласованы между собой, а время ответа — время самого медленного раздела.
+ * Ключи кэша совпадают с отдельными эндпоинтами {@code /api/stats/*}, так что они делят уже посчитанные ответы.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DashboardService {
+
+    private final StatsService statsService;
+    private final StatsCache statsCache;
+    private final DataVersion dataVersion;
+
+    public Map<String, Object> getDashboard(String period, int topPlayersLimit, int exceptionsLimit, int hours) {
+        long version = dataVersion.current();
+
+        Map<String, CompletableFuture<Map<String, Object>>> sections = new LinkedHashMap<>();
+        sections.put("overall", section("overall", version, StatsCache.TIME_TTL, statsService::getOverallStatistics));
+        sections.put("trends", section("trends?period=" + period, version, StatsCache.TIME_TTL,
+                () -> statsService.getCrashTrends(period)));
+        sections.put("topPlayers", section("top-players?limit=" + topPlayersLimit + "&period=" + period, version,
+                StatsCache.TIME_TTL, () -> statsService.getTopPlayers(topPlayersLimit, period)));
+        sections.put("frequency", section("frequency", version, StatsCache.DATA_TTL, statsService::getCrashFrequencyDistribution));
+        sections.put("fixStats", section("fix-status", version, StatsCache.DATA_TTL, statsService::getFixStatusStatistics));
+        sections.put("hourly", section("hourly", version, StatsCache.DATA_TTL, statsService::getHourlyDistribution));
+        sections.put("exceptions", section("exceptions?limit=" + exceptionsLimit, version, StatsCache.DATA_TTL,
+                () -> statsService.getExceptionStatistics(exceptionsLimit)));
+        sections.put("userPatterns", section("user-patterns", version, StatsCache.DATA_TTL, statsService::getUserPatterns));
+        sections.put("recentActivity", section("recent-activity?hours=" + hours, version, StatsCache.TIME_TTL,
+                () -> statsService.getRecentActivity(hours)));
+
+        CompletableFuture.allOf(sections.values().toArray(CompletableFuture[]::new)).join();
+
+        Map<String, Object> dashboard = new LinkedHashMap<>();
+        dashboard.put("version", version);
+        sections.forEach((name, section) -> dashboard.put(name, section.join()));
+        return dashboard;
+    }
+
+    /**
+     * Ошибка одного раздела не роняет всю страницу — раздел приходит с полем error
+     */
+    private CompletableFuture<Map<String, Object>> section(String key, long version, Duration ttl,
+                                                          Supplier<Map<String, Object>> loader) {
+        return statsCache.getAsync(key, version, ttl, loader)
+                .exceptionally(e -> {
+                    log.warn("Dashboard section {} failed: {}", key, e.getMessage());
+                    return Map.of("error", "unavailable");
+                });
+    }
+}
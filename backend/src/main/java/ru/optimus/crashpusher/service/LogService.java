@@ -9,6 +9,7 @@ import org.springframework.stereotype.Service;
 import ru.optimus.crashpusher.dto.LogFilterDTO;
 import ru.optimus.crashpusher.model.Log;
 import ru.optimus.crashpusher.repository.LogRepository;
+import ru.optimus.crashpusher.stats.DataVersion;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -21,6 +22,7 @@ import java.util.stream.Collectors;
 public class LogService {
 
     private final LogRepository logRepository;
+    private final DataVersion dataVersion;
 
     /**
      * Получить все логи с фильтрацией по дате и пагинацией
@@ -105,6 +107,7 @@ public class LogService {
     public void deleteLog(Long id) {
         log.debug("Deleting log with id: {}", id);
         logRepository.deleteById(id);
+        dataVersion.bumpNow();
     }
 
     /**
@@ -113,13 +116,16 @@ public class LogService {
     public void deleteLogs(List<Long> ids) {
         log.debug("Deleting logs with ids: {}", ids);
         logRepository.deleteAllById(ids);
+        dataVersion.bumpNow();
     }
 
     /**
      * Создать новый лог
      */
     public Log create(Log log) {
-        return logRepository.save(log);
+        Log saved = logRepository.save(log);
+        dataVersion.bump();
+        return saved;
     }
 
     /**
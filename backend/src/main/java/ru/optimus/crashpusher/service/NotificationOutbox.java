@@ -0,0 +1,43 @@
+package ru.optimus.crashpusher.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.optimus.crashpusher.discord.DiscordBot;
+import ru.optimus.crashpusher.model.OutboxNotification;
+import ru.optimus.crashpusher.repository.OutboxNotificationRepository;
+
+/**
+ * Запись уведомлений в notification_outbox. Сама отправка — в {@code NotificationRelay},
+ * поэтому прием краша не ждет Discord и не теряет уведомление, если Discord недоступен.
+ * Если бот отключен совсем (нет токена или он отвергнут), уведомления не пишутся: отправлять их некому,
+ * а после включения бота пачка старых крашей в канале никому не нужна.
+ */
+@Service
+@RequiredArgsConstructor
+public class NotificationOutbox {
+
+    private final OutboxNotificationRepository outboxRepository;
+    private final DiscordBot discordBot;
+
+    /**
+     * Уведомление о краше в транзакции приема: строка появится только вместе с самим крашем
+     */
+    @Transactional
+    public void enqueueCrash(long crashId, String playerName) {
+        if (discordBot.isDisabled()) return;
+        outboxRepository.save(OutboxNotification.crash(crashId, playerName));
+    }
+
+    /**
+     * Готовое сообщение. Своя транзакция: вызывается и из слушателей после коммита, где внешняя уже завершена
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void enqueueMessage(String message) {
+        if (discordBot.isDisabled()) return;
+        int max = OutboxNotification.MAX_MESSAGE_LENGTH;
+        String text = message.length() > max ? message.substring(0, max) : message;
+        outboxRepository.save(OutboxNotification.message(text));
+    }
+}
@@ -0,0 +1,101 @@
+package ru.optimus.crashpusher.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.optimus.crashpusher.model.StackFrame;
+import ru.optimus.crashpusher.repository.StackFrameRepository;
+
+import java.util.*;
+
+/**
+ * Интернирование фреймов в id из таблицы stack_frames.
+ * <p>
+ * Горячие фреймы (Forge/Minecraft повторяют одни и те же несколько тысяч) держатся в LRU, так что
+ * обычный прием краша обходится без запросов к словарю. Новые фреймы пишутся в отдельной транзакции:
+ * словарь только растет, и откат приема краша не должен оставить в кэше id, которого нет в БД.
+ */
+@Slf4j
+@Service
+public class StackFrameDictionary {
+
+    private final StackFrameRepository stackFrameRepository;
+    private final TransactionTemplate newTransaction;
+    private final Map<String, Integer> hotFrames;
+
+    public StackFrameDictionary(StackFrameRepository stackFrameRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${crash.frames.cache-size:20000}") int cacheSize) {
+        this.stackFrameRepository = stackFrameRepository;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.hotFrames = Collections.synchronizedMap(new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * id фреймов в том же порядке; отсутствующие в словаре добавляются
+     */
+    public int[] resolve(Collection<String> frames) {
+        int[] ids = new int[frames.size()];
+        List<String> misses = new ArrayList<>();
+        int i = 0;
+        for (String frame : frames) {
+            Integer id = hotFrames.get(frame);
+            if (id == null) {
+                misses.add(frame);
+                ids[i++] = -1;
+            } else {
+                ids[i++] = id;
+            }
+        }
+        if (misses.isEmpty()) return ids;
+
+        Map<String, Integer> resolved = newTransaction.execute(status -> lookupOrInsert(misses));
+        hotFrames.putAll(resolved);
+
+        i = 0;
+        for (String frame : frames) {
+            if (ids[i] < 0) ids[i] = resolved.get(frame);
+            i++;
+        }
+        return ids;
+    }
+
+    /**
+     * Фреймы по id — для подписей в аналитике
+     */
+    public Map<Integer, String> names(Collection<Integer> ids) {
+        Map<Integer, String> names = new HashMap<>();
+        for (StackFrame frame : stackFrameRepository.findAllById(ids)) {
+            names.put(frame.getId(), frame.getFrame());
+        }
+        return names;
+    }
+
+    public List<StackFrame> findAll() {
+        return stackFrameRepository.findAll();
+    }
+
+    private Map<String, Integer> lookupOrInsert(List<String> frames) {
+        Map<String, Integer> result = new HashMap<>();
+        for (StackFrame frame : stackFrameRepository.findByFrameIn(frames)) {
+            result.put(frame.getFrame(), frame.getId());
+        }
+        if (result.size() == frames.size()) return result;
+
+        List<String> missing = frames.stream().filter(f -> !result.containsKey(f)).toList();
+        missing.forEach(stackFrameRepository::insertIfAbsent);
+        for (StackFrame frame : stackFrameRepository.findByFrameIn(missing)) {
+            result.put(frame.getFrame(), frame.getId());
+        }
+        return result;
+    }
+}
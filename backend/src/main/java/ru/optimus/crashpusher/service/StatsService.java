@@ -2,33 +2,53 @@ package ru.optimus.crashpusher.service;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
-import ru.optimus.crashpusher.model.Crash;
 import ru.optimus.crashpusher.repository.CrashRepository;
 import ru.optimus.crashpusher.repository.UserCrashRepository;
-
+import ru.optimus.crashpusher.repository.projection.CrashSummary;
+import ru.optimus.crashpusher.model.RollupDimension;
+import ru.optimus.crashpusher.model.RollupGranularity;
+import ru.optimus.crashpusher.stats.CrashAnomalyDetector;
+import ru.optimus.crashpusher.stats.CrashRollups;
+import ru.optimus.crashpusher.stats.PlayerLeaderboard;
+import ru.optimus.crashpusher.stats.StackFrameIndex;
+import ru.optimus.crashpusher.stats.StatsEngine;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class StatsService {
 
+    /**
+     * Предел числа корзин в одном ряду при автоматическом выборе шага
+     */
+    private static final int MAX_SERIES_POINTS = 400;
+
     private final CrashRepository crashRepository;
     private final UserCrashRepository userCrashRepository;
+    private final StackFrameIndex stackFrameIndex;
+    private final StatsEngine statsEngine;
+    private final CrashRollups crashRollups;
+    private final CrashAnomalyDetector anomalyDetector;
+    private final PlayerLeaderboard playerLeaderboard;
 
     public Map<String, Object> getOverallStatistics() {
-        long totalCrashes = crashRepository.count();
-        long uniqueUsers = userCrashRepository.count();
-        long fixedCrashes = crashRepository.countByFix(true);
+        StatsEngine.Totals totals = statsEngine.totals();
+        long totalCrashes = totals.crashes();
+        long uniqueUsers = totals.players();
+        long fixedCrashes = totals.fixed();
 
         double fixRate = totalCrashes > 0 ? (fixedCrashes * 100.0) / totalCrashes : 0;
         double avgCrashesPerUser = uniqueUsers > 0 ? (double) totalCrashes / uniqueUsers : 0;
 
-        // Calculate changes (you might want to compare with previous period)
-        LocalDateTime weekAgo = LocalDateTime.now().minusDays(7);
-        long previousCrashes = crashRepository.countByCreateAtBefore(weekAgo);
-        long crashChange = totalCrashes - previousCrashes;
+        // Неделя к предыдущей неделе по часовым корзинам
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime weekAgo = now.minusDays(7);
+        long crashChange = crashRollups.sum(RollupGranularity.HOUR, RollupDimension.TOTAL, "", weekAgo, now.plusHours(1))
+                - crashRollups.sum(RollupGranularity.HOUR, RollupDimension.TOTAL, "", weekAgo.minusDays(7), RollupGranularity.HOUR.truncate(weekAgo));
 
         return Map.of(
                 "totalCrashes", totalCrashes,
@@ -44,37 +64,76 @@ public class StatsService {
 
     public Map<String, Object> getCrashTrends(String period) {
         LocalDateTime startDate = getStartDateForPeriod(period);
-        List<Crash> crashes = crashRepository.findByCreateAtAfter(startDate);
 
-        Map<String, Long> dailyTrends = crashes.stream()
-                .collect(Collectors.groupingBy(
-                        crash -> crash.getCreateAt().toLocalDate().toString(),
-                        Collectors.counting()
-                ));
-
-        List<Map<String, Object>> trendsList = dailyTrends.entrySet().stream()
-                .map(entry -> {
+        List<Map<String, Object>> trendsList = crashRollups.series(RollupGranularity.DAY, RollupDimension.TOTAL, "",
+                        startDate, LocalDateTime.now().plusDays(1)).stream()
+                .map(point -> {
                     Map<String, Object> map = new HashMap<>();
-                    map.put("date", entry.getKey());
-                    map.put("count", entry.getValue());
+                    map.put("date", point.bucket().toLocalDate().toString());
+                    map.put("count", point.crashes());
                     return map;
                 })
-                .sorted(Comparator.comparing(m -> m.get("date").toString()))
                 .toList();
 
         return Map.of("dailyTrends", trendsList);
     }
 
-    public Map<String, Object> getTopPlayers(int limit, String period) {
-        LocalDateTime startDate = getStartDateForPeriod(period);
-        List<Object[]> results = crashRepository.findTopUsersByCrashes(startDate);
+    /**
+     * Ряд крашей за диапазон (всего, по сигнатуре или по исключению) и сравнение с предыдущим периодом той же длины
+     *
+     * @param granularity minute / hour / day или auto — самый мелкий шаг, дающий не больше {@link #MAX_SERIES_POINTS} корзин
+     */
+    public Map<String, Object> getTimeSeries(String period, LocalDateTime from, LocalDateTime to, String granularity,
+                                             String signature, String exception) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : getStartDateForPeriod(period);
+        // Явный шаг только огрубляется до подходящего: мельче — больше MAX_SERIES_POINTS корзин или уже не хранится
+        RollupGranularity fitting = crashRollups.granularityFor(start, end, MAX_SERIES_POINTS);
+        RollupGranularity step = "auto".equalsIgnoreCase(granularity) ? fitting
+                : Collections.max(List.of(RollupGranularity.valueOf(granularity.toUpperCase()), fitting));
+        // Даже по дням диапазон может быть длиннее лимита — тогда отдаем последние MAX_SERIES_POINTS корзин
+        if (!end.isBefore(step.truncate(start).plus(step.duration().multipliedBy(MAX_SERIES_POINTS)))) {
+            start = step.truncate(end).minus(step.duration().multipliedBy(MAX_SERIES_POINTS - 1));
+        }
+        RollupDimension dimension = signature != null ? RollupDimension.SIGNATURE
+                : exception != null ? RollupDimension.EXCEPTION : RollupDimension.TOTAL;
+        String key = signature != null ? signature : exception != null ? exception : "";
+
+        // Корзины выравниваются по шагу, поэтому концы диапазона включаются целыми корзинами
+        LocalDateTime seriesStart = step.truncate(start);
+        LocalDateTime seriesEnd = step.truncate(end).plus(step.duration());
+        List<Map<String, Object>> points = crashRollups.series(step, dimension, key, seriesStart, seriesEnd).stream()
+                .map(point -> {
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("bucket", point.bucket());
+                    map.put("count", point.crashes());
+                    return map;
+                })
+                .toList();
+        long total = points.stream().mapToLong(p -> (Long) p.get("count")).sum();
+
+        Duration span = Duration.between(seriesStart, seriesEnd);
+        long previousTotal = crashRollups.sum(step, dimension, key, seriesStart.minus(span), seriesStart);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("granularity", step.name().toLowerCase());
+        result.put("from", seriesStart);
+        result.put("to", seriesEnd);
+        result.put("points", points);
+        result.put("total", total);
+        result.put("previousTotal", previousTotal);
+        result.put("delta", total - previousTotal);
+        result.put("deltaPercent", previousTotal > 0 ? Math.round((total - previousTotal) * 1000.0 / previousTotal) / 10.0 : null);
+        return result;
+    }
 
-        List<Map<String, Object>> topPlayers = results.stream()
-                .map(result -> {
+    public Map<String, Object> getTopPlayers(int limit, String period) {
+        List<Map<String, Object>> topPlayers = playerLeaderboard.top(PlayerLeaderboard.Window.fromParam(period), limit).stream()
+                .map(entry -> {
                     Map<String, Object> map = new HashMap<>();
-                    map.put("username", result[0]);
-                    map.put("crashCount", result[1]);
-                    map.put("userId", result[2]);
+                    map.put("username", entry.username());
+                    map.put("crashCount", entry.crashCount());
+                    map.put("userId", entry.userId());
                     return map;
                 })
                 .toList();
@@ -83,13 +142,11 @@ public class StatsService {
     }
 
     public Map<String, Object> getCrashFrequencyDistribution() {
-        List<Object[]> frequencyData = crashRepository.findCrashFrequencyDistribution();
-
-        List<Map<String, Object>> distribution = frequencyData.stream()
-                .map(result -> {
+        List<Map<String, Object>> distribution = userCrashRepository.countByCrashCount().stream()
+                .map(row -> {
                     Map<String, Object> map = new HashMap<>();
-                    map.put("frequency", result[0]);
-                    map.put("users", result[1]);
+                    map.put("frequency", ((Number) row[0]).longValue());
+                    map.put("users", ((Number) row[1]).longValue());
                     return map;
                 })
                 .toList();
@@ -97,8 +154,9 @@ public class StatsService {
         return Map.of("frequencyDistribution", distribution);
     }
     public Map<String, Object> getFixStatusStatistics() {
-        long fixed = crashRepository.countByFix(true);
-        long notFixed = crashRepository.countByFix(false);
+        StatsEngine.Totals totals = statsEngine.totals();
+        long fixed = totals.fixed();
+        long notFixed = totals.crashes() - totals.fixed();
 
         List<Map<String, Object>> distribution = List.of(
                 Map.of("name", "Fixed", "value", fixed, "color", "#10B981"),
@@ -110,36 +168,23 @@ public class StatsService {
 
 
     public Map<String, Object> getHourlyDistribution() {
-        List<Object[]> hourlyData = crashRepository.findCrashesByHour();
-
-        List<Map<String, Object>> distribution = hourlyData.stream()
-                .map(result -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("hour", result[0] + ":00");
-                    map.put("count", result[1]);
-                    return map;
-                })
-                .toList();
+        long[] byHour = statsEngine.byHourOfDay();
+
+        List<Map<String, Object>> distribution = new ArrayList<>();
+        for (int hour = 0; hour < byHour.length; hour++) {
+            if (byHour[hour] == 0) continue;
+            Map<String, Object> map = new HashMap<>();
+            map.put("hour", hour + ":00");
+            map.put("count", byHour[hour]);
+            distribution.add(map);
+        }
 
 
         return Map.of("hourlyDistribution", distribution);
     }
 
     public Map<String, Object> getExceptionStatistics(int limit) {
-        // Extract exception types from crash content
-        List<Crash> crashes = crashRepository.findAll();
-
-        Map<String, Long> exceptionCounts = crashes.stream()
-                .map(this::extractExceptionFromContent)
-                .filter(Objects::nonNull)
-                .collect(Collectors.groupingBy(
-                        exception -> exception,
-                        Collectors.counting()
-                ));
-
-        List<Map<String, Object>> topExceptions = exceptionCounts.entrySet().stream()
-                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-                .limit(limit)
+        List<Map<String, Object>> topExceptions = statsEngine.topExceptions(limit).stream()
                 .map(entry -> {
                     Map<String, Object> map = new HashMap<>();
                     map.put("exception", entry.getKey());
@@ -151,38 +196,20 @@ public class StatsService {
         return Map.of("topExceptions", topExceptions);
     }
     public Map<String, Object> getUserPatterns() {
-        List<Crash> crashes = crashRepository.findAll();
-
         // Find most active hour
-        Map<Integer, Long> hourCounts = crashes.stream()
-                .collect(Collectors.groupingBy(
-                        crash -> crash.getCreateAt().getHour(),
-                        Collectors.counting()
-                ));
-
-        int mostActiveHour = hourCounts.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse(0);
+        int mostActiveHour = indexOfMax(statsEngine.byHourOfDay());
 
         // Find top crash day
-        Map<String, Long> dayCounts = crashes.stream()
-                .collect(Collectors.groupingBy(
-                        crash -> crash.getCreateAt().getDayOfWeek().toString(),
-                        Collectors.counting()
-                ));
-
-        String topCrashDay = dayCounts.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse("Unknown");
-
-        long totalCrashes = crashes.size();
-        long fixedCrashes = crashes.stream().filter(Crash::isFix).count();
+        int topDay = indexOfMax(statsEngine.byDayOfWeek());
+        String topCrashDay = topDay >= 0 ? DayOfWeek.of(topDay + 1).toString() : "Unknown";
+
+        StatsEngine.Totals totals = statsEngine.totals();
+        long totalCrashes = totals.crashes();
+        long fixedCrashes = totals.fixed();
         double resolutionRate = totalCrashes > 0 ? (fixedCrashes * 100.0) / totalCrashes : 0;
 
         return Map.of(
-                "mostActiveHour", mostActiveHour + ":00",
+                "mostActiveHour", Math.max(mostActiveHour, 0) + ":00",
                 "topCrashDay", topCrashDay,
                 "resolutionRate", Math.round(resolutionRate)
         );
@@ -190,39 +217,126 @@ public class StatsService {
 
     public Map<String, Object> getRecentActivity(int hours) {
         LocalDateTime since = LocalDateTime.now().minusHours(hours);
-        List<Crash> recentCrashes = crashRepository.findByCreateAtAfter(since);
+        List<CrashSummary> recentCrashes = crashRepository.findSummariesByCreateAtAfter(since);
 
         List<Map<String, Object>> activity = recentCrashes.stream()
                 .map(crash -> {
                     Map<String, Object> map = new HashMap<>();
                     map.put("id", crash.getId());
-                    map.put("username", crash.getUserCrash() != null ? crash.getUserCrash().getUsername() : "Unknown");
+                    map.put("username", crash.getUsername() != null ? crash.getUsername() : "Unknown");
                     map.put("timestamp", crash.getCreateAt());
-                    map.put("fixed", crash.isFix());
+                    map.put("fixed", Boolean.TRUE.equals(crash.getFix()));
                     return map;
                 })
-                .sorted((m1, m2) -> {
-                    LocalDateTime t1 = (LocalDateTime) m1.get("timestamp");
-                    LocalDateTime t2 = (LocalDateTime) m2.get("timestamp");
-                    return t2.compareTo(t1);
-                })
                 .toList();
 
         return Map.of("recentActivity", activity);
     }
 
-    private String extractExceptionFromContent(Crash crash) {
-        if (crash.getContent() == null) return null;
+    /**
+     * Последние всплески и текущие окна: общий поток и сигнатуры, сильнее всего отклонившиеся от нормы
+     */
+    public Map<String, Object> getAnomalies(int limit) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("anomalies", anomalyDetector.recent(limit));
+        result.put("global", anomalyDetector.globalSnapshot());
+        result.put("elevated", anomalyDetector.elevated(limit));
+        result.put("trackedSignatures", anomalyDetector.trackedKeys());
+        result.put("windowSeconds", anomalyDetector.getWindowSeconds());
+        result.put("sigma", anomalyDetector.getSigma());
+        return result;
+    }
 
-        // Simple regex to find exception patterns
-        String content = crash.getContent();
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("([A-Za-z0-9_]+\\.)+[A-Za-z0-9_]+Exception");
-        java.util.regex.Matcher matcher = pattern.matcher(content);
+    public Map<String, Object> getTopPackages(int limit, String period, LocalDateTime from, LocalDateTime to) {
+        long[] range = getIdRange(period, from, to);
+        return Map.of(
+                "topPackages", toEntries(stackFrameIndex.topPackages(range[0], range[1], limit), "package"),
+                "ready", stackFrameIndex.isReady()
+        );
+    }
+
+    public Map<String, Object> getTopFrames(int limit, String period, LocalDateTime from, LocalDateTime to) {
+        long[] range = getIdRange(period, from, to);
+        return Map.of(
+                "topFrames", toEntries(stackFrameIndex.topFrames(range[0], range[1], limit), "frame"),
+                "ready", stackFrameIndex.isReady()
+        );
+    }
+
+    /**
+     * Краши, в стектрейсе которых есть фрейм (или любой фрейм пакета) — общее число и самые свежие
+     */
+    public Map<String, Object> getCrashesWithFrame(String frame, String pkg, int limit, String period,
+                                                   LocalDateTime from, LocalDateTime to) {
+        long[] range = getIdRange(period, from, to);
+        StackFrameIndex.Matches matches = frame != null
+                ? stackFrameIndex.crashesWithFrame(frame, range[0], range[1], limit)
+                : stackFrameIndex.crashesWithPackage(pkg, range[0], range[1], limit);
+
+        List<Map<String, Object>> crashes = matches.latestCrashIds().isEmpty() ? List.of()
+                : crashRepository.findSummariesByIdIn(matches.latestCrashIds()).stream()
+                .map(crash -> {
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("id", crash.getId());
+                    map.put("userId", crash.getUserId());
+                    map.put("username", crash.getUsername());
+                    map.put("isFix", Boolean.TRUE.equals(crash.getFix()));
+                    map.put("createAt", crash.getCreateAt());
+                    map.put("signatureHash", crash.getSignature());
+                    return map;
+                })
+                .toList();
+
+        return Map.of(
+                "total", matches.total(),
+                "crashes", crashes,
+                "ready", stackFrameIndex.isReady()
+        );
+    }
 
-        if (matcher.find()) {
-            return matcher.group();
+    /**
+     * Индекс наибольшего ненулевого значения или -1, если все нули
+     */
+    private static int indexOfMax(long[] values) {
+        int best = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] > 0 && (best < 0 || values[i] > values[best])) {
+                best = i;
+            }
         }
-        return "UnknownException";
+        return best;
+    }
+
+    private static List<Map<String, Object>> toEntries(List<StackFrameIndex.Entry> entries, String key) {
+        return entries.stream()
+                .map(entry -> {
+                    Map<String, Object> map = new HashMap<>();
+                    map.put(key, entry.name());
+                    map.put("crashes", entry.crashes());
+                    return map;
+                })
+                .toList();
+    }
+
+    /**
+     * Временное окно -> диапазон id крашей [from, to] (id растут вместе с create_at)
+     */
+    private long[] getIdRange(String period, LocalDateTime from, LocalDateTime to) {
+        LocalDateTime start = from != null ? from : getStartDateForPeriod(period);
+        long fromId = crashRepository.findFirstIdCreatedFrom(start).orElse(Long.MAX_VALUE);
+        long toId = to != null ? crashRepository.findLastIdCreatedUntil(to).orElse(-1L) : Long.MAX_VALUE;
+        return new long[]{fromId, toId};
+    }
+
+    /**
+     * Период к одному из известных значений ("24h", "7d", "30d", "all"); все остальное — "all", как и раньше
+     */
+    public static String normalizePeriod(String period) {
+        String value = period != null ? period.toLowerCase(Locale.ROOT) : "";
+        return switch (value) {
+            case "24h", "7d", "30d" -> value;
+            default -> "all";
+        };
     }
 
     private LocalDateTime getStartDateForPeriod(String period) {
@@ -2,6 +2,10 @@ package ru.optimus.crashpusher.service;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -11,10 +15,13 @@ import ru.optimus.crashpusher.discord.DiscordManager;
 import ru.optimus.crashpusher.model.Crash;
 import ru.optimus.crashpusher.model.UserCrash;
 import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.repository.LikePatterns;
 import ru.optimus.crashpusher.repository.UserCrashRepository;
+import ru.optimus.crashpusher.repository.projection.CrashPreview;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -25,18 +32,27 @@ public class UserCrashService {
     private final UserCrashRepository userCrashRepository;
     private final CrashRepository crashRepository;
 
-    public List<UserCrash> findUsers(String q) {
-        if (q == null || q.isEmpty()) {
-            return userCrashRepository.findAll();
-        }
-        return userCrashRepository.findAll()
-                .stream()
-                .filter(u -> u.getUsername().toLowerCase().contains(q.toLowerCase()))
-                .toList();
+    /**
+     * Игроки постранично с агрегатами из users_crash, без чтения крашей
+     *
+     * @param sort crashes | unfixed | recent | name
+     */
+    public Page<UserCrash> findUsers(String q, String sort, int page, int size) {
+        Sort order = switch (sort) {
+            case "unfixed" -> Sort.by(Sort.Direction.DESC, "unfixedCount");
+            case "recent" -> Sort.by(Sort.Order.desc("lastCrashAt").nullsLast());
+            case "name" -> Sort.by("username");
+            default -> Sort.by(Sort.Direction.DESC, "crashCount");
+        };
+        Pageable pageable = PageRequest.of(page, size, order.and(Sort.by("id")));
+        String needle = q == null ? "" : q.trim().toLowerCase(Locale.ROOT);
+        return needle.isEmpty()
+                ? userCrashRepository.findAll(pageable)
+                : userCrashRepository.search(LikePatterns.contains(needle), pageable);
     }
 
-    public List<Crash> getCrashesByUser(Long userId) {
-        return crashRepository.findAllByUserCrashId(userId);
+    public Page<CrashPreview> getCrashesByUser(Long userId, int page, int size) {
+        return crashRepository.findPreviewsByUserId(userId, PageRequest.of(page, size));
     }
 
 }
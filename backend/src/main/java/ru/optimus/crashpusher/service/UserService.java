@@ -14,6 +14,7 @@ import org.springframework.transaction.annotation.Transactional;
 import ru.optimus.crashpusher.controller.UserManagementController;
 import ru.optimus.crashpusher.discord.DiscordManager;
 import ru.optimus.crashpusher.model.User;
+import ru.optimus.crashpusher.repository.LikePatterns;
 import ru.optimus.crashpusher.repository.UserRepository;
 
 import java.time.LocalDateTime;
@@ -88,7 +89,7 @@ public class UserService implements UserDetailsService {
         if (query == null || query.trim().isEmpty()) {
             return userRepository.findAll();
         }
-        return userRepository.findByUsernameContainingIgnoreCase(query);
+        return userRepository.searchByUsername(LikePatterns.contains(query.trim().toLowerCase(Locale.ROOT)));
     }
 
     public User getUserById(Long id) {
@@ -0,0 +1,238 @@
+package ru.optimus.crashpusher.stats;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.optimus.crashpusher.event.CrashAnomalyEvent;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Потоковый детектор всплесков крашей — в целом и по каждой сигнатуре.
+ * <p>
+ * Время режется на окна фиксированной длины. По закрытым окнам ведется EWMA среднего и дисперсии числа
+ * крашей за окно, поэтому на ключ хранится несколько чисел независимо от истории. Каждый принятый краш
+ * сравнивает уже набранное текущее окно с {@code база + sigma * отклонение}: всплеск виден через секунды,
+ * не дожидаясь конца окна, а тревога по окну поднимается один раз. Отклонение не меньше пуассоновского
+ * {@code sqrt(база)}, иначе ровный поток давал бы тревогу на первом лишнем краше.
+ * <p>
+ * Сигнатур может быть много, поэтому их число ограничено (LRU), а давно молчащие ключи удаляются.
+ */
+@Slf4j
+@Component
+public class CrashAnomalyDetector {
+
+    /**
+     * Дальше пустые окна уже не меняют базу заметно — пропускаем их, чтобы не крутить цикл после простоя
+     */
+    private static final int MAX_DECAY_WINDOWS = 500;
+
+    private static final int RECENT_LIMIT = 100;
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final long windowMillis;
+    private final double alpha;
+    private final double sigma;
+    private final long minCount;
+    private final int warmupWindows;
+    private final long idleMillis;
+
+    private final Baseline global = new Baseline();
+    private final Map<String, Baseline> signatures;
+    private final Deque<CrashAnomalyEvent> recent = new ArrayDeque<>();
+
+    public CrashAnomalyDetector(ApplicationEventPublisher eventPublisher,
+                                @Value("${crash.anomalies.window-seconds:60}") int windowSeconds,
+                                @Value("${crash.anomalies.alpha:0.1}") double alpha,
+                                @Value("${crash.anomalies.sigma:4}") double sigma,
+                                @Value("${crash.anomalies.min-count:10}") long minCount,
+                                @Value("${crash.anomalies.warmup-windows:30}") int warmupWindows,
+                                @Value("${crash.anomalies.max-keys:10000}") int maxKeys,
+                                @Value("${crash.anomalies.idle-hours:24}") int idleHours) {
+        this.eventPublisher = eventPublisher;
+        this.windowMillis = Math.max(1, windowSeconds) * 1000L;
+        this.alpha = Math.min(1, Math.max(0.001, alpha));
+        this.sigma = sigma;
+        this.minCount = minCount;
+        this.warmupWindows = warmupWindows;
+        this.idleMillis = Math.max(1, idleHours) * 3_600_000L;
+        this.signatures = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Baseline> eldest) {
+                return size() > Math.max(1, maxKeys);
+            }
+        };
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        long now = System.currentTimeMillis();
+        long window = now / windowMillis;
+
+        Alert globalAlert;
+        Alert signatureAlert;
+        synchronized (this) {
+            globalAlert = global.observe(window, now);
+            signatureAlert = signatures.computeIfAbsent(event.signature(), s -> new Baseline()).observe(window, now);
+        }
+
+        // Публикуем вне блокировки — слушатели ходят в Discord
+        if (globalAlert != null) publish(globalAlert, null, event, now);
+        if (signatureAlert != null) publish(signatureAlert, event.signature(), event, now);
+    }
+
+    /**
+     * Удаляем сигнатуры, по которым давно не было крашей
+     */
+    @Scheduled(fixedDelayString = "${crash.anomalies.sweep-interval-ms:600000}")
+    public synchronized void sweep() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        signatures.values().removeIf(baseline -> baseline.lastSeenMillis < cutoff);
+    }
+
+    /**
+     * Последние тревоги, новые первыми
+     */
+    public List<CrashAnomalyEvent> recent(int limit) {
+        synchronized (recent) {
+            return recent.stream().limit(Math.max(0, limit)).toList();
+        }
+    }
+
+    /**
+     * Текущее состояние общего потока
+     */
+    public synchronized Snapshot globalSnapshot() {
+        return global.snapshot(null, System.currentTimeMillis());
+    }
+
+    /**
+     * Сигнатуры, чье текущее окно дальше всего от базы (в сигмах)
+     */
+    public synchronized List<Snapshot> elevated(int limit) {
+        long now = System.currentTimeMillis();
+        return signatures.entrySet().stream()
+                .map(entry -> entry.getValue().snapshot(entry.getKey(), now))
+                .filter(snapshot -> snapshot.current() > 0)
+                .sorted(Comparator.comparingDouble(Snapshot::sigmas).reversed())
+                .limit(Math.max(0, limit))
+                .toList();
+    }
+
+    public synchronized int trackedKeys() {
+        return signatures.size();
+    }
+
+    public long getWindowSeconds() {
+        return windowMillis / 1000;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    private void publish(Alert alert, String signature, CrashIngestedEvent cause, long now) {
+        CrashAnomalyEvent anomaly = new CrashAnomalyEvent(signature, cause.exceptionClass(), alert.count(),
+                alert.baseline(), alert.stddev(), toLocalDateTime(alert.window() * windowMillis),
+                cause.crashId(), toLocalDateTime(now));
+        synchronized (recent) {
+            recent.addFirst(anomaly);
+            if (recent.size() > RECENT_LIMIT) recent.removeLast();
+        }
+        log.warn("Crash anomaly {}: {} crashes in window, baseline {} ± {}",
+                signature != null ? signature : "(all)", alert.count(),
+                Math.round(alert.baseline() * 10) / 10.0, Math.round(alert.stddev() * 10) / 10.0);
+        eventPublisher.publishEvent(anomaly);
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    /**
+     * @param current крашей в текущем окне
+     * @param sigmas  насколько текущее окно выше базы
+     */
+    public record Snapshot(String signature, long current, double baseline, double stddev, double sigmas,
+                           int samples, LocalDateTime lastSeen) {
+    }
+
+    private record Alert(long count, double baseline, double stddev, long window) {
+    }
+
+    /**
+     * Состояние одного ключа: EWMA по закрытым окнам и счетчик текущего
+     */
+    private final class Baseline {
+
+        double mean;
+        double variance;
+        int samples;
+        long window = -1;
+        long count;
+        long alertedWindow = -1;
+        long lastSeenMillis;
+
+        Alert observe(long currentWindow, long now) {
+            roll(currentWindow);
+            count++;
+            lastSeenMillis = now;
+
+            if (samples < warmupWindows || count < minCount || alertedWindow == window) return null;
+            double stddev = stddev();
+            if (count <= mean + sigma * stddev) return null;
+
+            alertedWindow = window;
+            return new Alert(count, mean, stddev, window);
+        }
+
+        /**
+         * Закрываем окна до {@code currentWindow}; пропущенные окна учитываются как нулевые
+         */
+        void roll(long currentWindow) {
+            if (window < 0) {
+                window = currentWindow;
+                return;
+            }
+            if (currentWindow <= window) return;
+
+            update(count);
+            long empty = Math.min(currentWindow - window - 1, MAX_DECAY_WINDOWS);
+            for (long i = 0; i < empty; i++) {
+                update(0);
+            }
+            window = currentWindow;
+            count = 0;
+        }
+
+        void update(long value) {
+            if (samples == 0) {
+                mean = value;
+            } else {
+                double diff = value - mean;
+                double increment = alpha * diff;
+                mean += increment;
+                variance = (1 - alpha) * (variance + diff * increment);
+            }
+            samples++;
+        }
+
+        double stddev() {
+            return Math.max(1, Math.sqrt(Math.max(variance, mean)));
+        }
+
+        Snapshot snapshot(String signature, long now) {
+            roll(now / windowMillis);
+            double stddev = stddev();
+            return new Snapshot(signature, count, Math.round(mean * 100) / 100.0, Math.round(stddev * 100) / 100.0,
+                    Math.round((count - mean) / stddev * 10) / 10.0, samples, lastSeenMillis > 0 ? toLocalDateTime(lastSeenMillis) : null);
+        }
+    }
+}
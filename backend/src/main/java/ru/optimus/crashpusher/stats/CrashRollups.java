@@ -0,0 +1,160 @@
+package ru.optimus.crashpusher.stats;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.optimus.crashpusher.analysis.CrashAnalyzer;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.model.RollupDimension;
+import ru.optimus.crashpusher.model.RollupGranularity;
+import ru.optimus.crashpusher.repository.CrashRollupRepository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Временные ряды крашей в таблице crash_rollups: корзины по минутам, часам и дням — всего, по сигнатурам
+ * и по исключениям.
+ * <p>
+ * Прием краша только увеличивает счетчики в памяти, в БД они сбрасываются пачкой раз в несколько секунд
+ * (как счетчики сигнатур). Все три шага ведутся параллельно, поэтому даунсэмплинг — это просто удаление
+ * минутных и часовых корзин старше срока хранения: их сумма уже лежит в корзинах крупнее.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CrashRollups {
+
+    private static final LocalDateTime ALL_TIME = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private final CrashRollupRepository rollupRepository;
+    private final DataVersion dataVersion;
+
+    @Value("${crash.rollups.minute-retention-hours:48}")
+    private int minuteRetentionHours;
+
+    @Value("${crash.rollups.hour-retention-days:90}")
+    private int hourRetentionDays;
+
+    private final Map<Key, Long> pending = new HashMap<>();
+
+    @PostConstruct
+    public void rebuild() {
+        if (rollupRepository.count() > 0) return;
+
+        int created = 0;
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            created += rollupRepository.rebuildFromCrashes(granularity.name(), granularity.sqlUnit(), retainedFrom(granularity));
+        }
+        log.info("Built {} crash rollup buckets from existing crashes", created);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        String exception = event.exceptionClass() != null ? event.exceptionClass() : CrashAnalyzer.UNKNOWN;
+        synchronized (pending) {
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                LocalDateTime bucket = granularity.truncate(event.createdAt());
+                pending.merge(new Key(granularity, RollupDimension.TOTAL, "", bucket), 1L, Long::sum);
+                pending.merge(new Key(granularity, RollupDimension.SIGNATURE, event.signature(), bucket), 1L, Long::sum);
+                pending.merge(new Key(granularity, RollupDimension.EXCEPTION, exception, bucket), 1L, Long::sum);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${crash.rollups.flush-interval-ms:5000}")
+    public void flush() {
+        Map<Key, Long> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            batch = new HashMap<>(pending);
+            pending.clear();
+        }
+
+        for (Map.Entry<Key, Long> entry : batch.entrySet()) {
+            Key key = entry.getKey();
+            try {
+                rollupRepository.upsert(key.granularity().name(), key.dimension().name(), key.key(), key.bucket(), entry.getValue());
+            } catch (Exception e) {
+                log.warn("Failed to persist crash rollup {}: {}", key, e.getMessage());
+                synchronized (pending) {
+                    pending.merge(key, entry.getValue(), Long::sum);
+                }
+            }
+        }
+        // Ответы с рядами кэшируются по версии данных — после сброса они должны пересчитаться
+        dataVersion.bump();
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    @Scheduled(initialDelayString = "${crash.rollups.downsample-interval-ms:3600000}",
+            fixedDelayString = "${crash.rollups.downsample-interval-ms:3600000}")
+    public void downsample() {
+        int minutes = rollupRepository.deleteOlderThan(RollupGranularity.MINUTE.name(), retainedFrom(RollupGranularity.MINUTE));
+        int hours = rollupRepository.deleteOlderThan(RollupGranularity.HOUR.name(), retainedFrom(RollupGranularity.HOUR));
+        if (minutes + hours > 0) {
+            log.debug("Crash rollups downsampled: {} minute and {} hour buckets removed", minutes, hours);
+        }
+    }
+
+    /**
+     * Корзины ключа в полуинтервале [from, to), начало выравнивается по корзине
+     */
+    public List<Point> series(RollupGranularity granularity, RollupDimension dimension, String key,
+                              LocalDateTime from, LocalDateTime to) {
+        return rollupRepository.findSeries(granularity.name(), dimension.name(), key, granularity.truncate(from), to).stream()
+                .map(row -> new Point(toLocalDateTime(row[0]), ((Number) row[1]).longValue()))
+                .toList();
+    }
+
+    public long sum(RollupGranularity granularity, RollupDimension dimension, String key,
+                    LocalDateTime from, LocalDateTime to) {
+        return rollupRepository.sumSeries(granularity.name(), dimension.name(), key, granularity.truncate(from), to);
+    }
+
+    /**
+     * Самый мелкий шаг, который еще хранится за весь диапазон и дает не больше {@code maxPoints} корзин
+     */
+    public RollupGranularity granularityFor(LocalDateTime from, LocalDateTime to, int maxPoints) {
+        Duration span = Duration.between(from, to);
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            if (granularity == RollupGranularity.DAY) break;
+            if (!from.isBefore(retainedFrom(granularity))
+                    && span.dividedBy(granularity.duration()) <= maxPoints) {
+                return granularity;
+            }
+        }
+        return RollupGranularity.DAY;
+    }
+
+    private LocalDateTime retainedFrom(RollupGranularity granularity) {
+        return switch (granularity) {
+            case MINUTE -> RollupGranularity.MINUTE.truncate(LocalDateTime.now().minusHours(minuteRetentionHours));
+            case HOUR -> RollupGranularity.HOUR.truncate(LocalDateTime.now().minusDays(hourRetentionDays));
+            case DAY -> ALL_TIME;
+        };
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    public record Point(LocalDateTime bucket, long crashes) {
+    }
+
+    private record Key(RollupGranularity granularity, RollupDimension dimension, String key, LocalDateTime bucket) {
+    }
+}
@@ -0,0 +1,537 @@
+package ru.optimus.crashpusher.stats;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.optimus.crashpusher.analysis.CrashSignatures;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.event.CrashRegressionEvent;
+import ru.optimus.crashpusher.event.SignatureFixChangedEvent;
+import ru.optimus.crashpusher.model.CrashSignature;
+import ru.optimus.crashpusher.model.RegressionReason;
+import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.repository.CrashSignatureRepository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Топ сигнатур крашей по окнам (час / сутки / неделя / все время), который обновляется при приеме краша.
+ * Счетчики живут в памяти, прирост сбрасывается в crash_signatures периодически,
+ * а после старта приложения состояние восстанавливается из БД.
+ * <p>
+ * В памяти держатся только "живые" группы: исправленные, помеченные регрессией и встречавшиеся за неделю.
+ * Остальные подгружаются из БД по одной, когда снова появляются; окно "все время" берется из crash_signatures.
+ * <p>
+ * Здесь же за O(1) на краш ведется состояние регрессий: исправленная группа, которая снова появилась,
+ * или новая сигнатура, превысившая порог частоты за час.
+ */
+@Slf4j
+@Component
+public class CrashSignatureTracker {
+
+    private static final int LOAD_BATCH = 1000;
+
+    private final CrashSignatureRepository signatureRepository;
+    private final CrashRepository crashRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate snapshot;
+    private final TransactionTemplate regroupTransaction;
+
+    /**
+     * Сколько крашей за час должна набрать новая сигнатура, чтобы считаться регрессией (0 — не проверять)
+     */
+    @Value("${crash.regressions.new-signature-threshold:50}")
+    private long newSignatureThreshold;
+
+    /**
+     * Сколько часов сигнатура считается новой
+     */
+    @Value("${crash.regressions.new-signature-hours:24}")
+    private long newSignatureHours;
+
+    private volatile SlidingWindowCounter<String> counter = newCounter();
+    private volatile Map<String, SignatureInfo> signatures = new ConcurrentHashMap<>();
+    private final Map<String, PendingDelta> pending = new HashMap<>();
+
+    /**
+     * События, пришедшие во время загрузки; null, когда загрузка не идет
+     */
+    private List<CrashIngestedEvent> buffered;
+
+    public CrashSignatureTracker(CrashSignatureRepository signatureRepository,
+                                 CrashRepository crashRepository,
+                                 ApplicationEventPublisher eventPublisher,
+                                 PlatformTransactionManager transactionManager) {
+        this.signatureRepository = signatureRepository;
+        this.crashRepository = crashRepository;
+        this.eventPublisher = eventPublisher;
+        this.snapshot = new TransactionTemplate(transactionManager);
+        this.snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshot.setReadOnly(true);
+        this.regroupTransaction = new TransactionTemplate(transactionManager);
+        this.regroupTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (signatureRepository.count() == 0) {
+            int created = signatureRepository.rebuildFromCrashes();
+            log.info("Built {} crash signatures from existing crashes", created);
+        }
+        rebuild();
+    }
+
+    /**
+     * Пересобрать состояние из БД. Все читается из одного снимка (REPEATABLE READ) до зафиксированного id;
+     * краши, принятые тем временем, копятся и применяются после, а в счетчики идут только те, что снимок не видел
+     */
+    public void rebuild() {
+        rebuild(false);
+    }
+
+    /**
+     * После смены сигнатур у крашей: пересчитать crash_signatures по таблице крашей и перезагрузить состояние.
+     * Пересчет и загрузка идут в одном снимке, поэтому накопленный прирост не складывается с пересчитанным
+     *
+     * @return сколько групп получилось
+     */
+    public int regroup() {
+        return rebuild(true);
+    }
+
+    private int rebuild(boolean regroup) {
+        synchronized (this) {
+            if (buffered == null) buffered = new ArrayList<>();
+        }
+        if (regroup) {
+            // Прирост до начала буферизации уже есть в crashes — сбрасываем его, чтобы пересчет его не удвоил
+            flush();
+        }
+
+        Map<String, SignatureInfo> loaded = new ConcurrentHashMap<>();
+        SlidingWindowCounter<String> loadedCounter = newCounter();
+        Set<Long> counted = new HashSet<>();
+        List<CrashIngestedEvent> replay = new ArrayList<>();
+        int[] groups = {0};
+        try {
+            (regroup ? regroupTransaction : snapshot).executeWithoutResult(status -> {
+                if (regroup) {
+                    signatureRepository.deleteOrphaned();
+                    groups[0] = signatureRepository.regroupFromCrashes();
+                }
+                long maxId = crashRepository.findMaxId();
+                LocalDateTime since = LocalDateTime.now().minusHours(Window.WEEK.buckets).truncatedTo(ChronoUnit.HOURS);
+                long after = 0;
+                List<CrashSignature> batch;
+                do {
+                    batch = signatureRepository.findActiveAfter(after, since, LOAD_BATCH);
+                    for (CrashSignature s : batch) {
+                        loaded.put(s.getSignature(), toInfo(s));
+                        after = s.getId();
+                    }
+                } while (batch.size() == LOAD_BATCH);
+
+                for (Object[] row : signatureRepository.countHourlySince(since, maxId)) {
+                    loadedCounter.add((String) row[0], ((Number) row[2]).longValue(), toMillis(toLocalDateTime(row[1])));
+                }
+
+                // Снимок еще открыт: какие из накопленных крашей он уже посчитал
+                synchronized (this) {
+                    replay.addAll(buffered);
+                    buffered = null;
+                }
+                if (!replay.isEmpty()) {
+                    counted.addAll(crashRepository.findIdsUpTo(replay.stream().map(CrashIngestedEvent::crashId).toList(), maxId));
+                }
+            });
+        } finally {
+            synchronized (this) {
+                if (buffered != null) {
+                    replay.addAll(buffered);
+                    buffered = null;
+                }
+            }
+        }
+
+        synchronized (pending) {
+            // Прирост, еще не сброшенный в БД, в загруженные occurrences не попал
+            pending.forEach((signature, delta) -> {
+                SignatureInfo info = loaded.get(signature);
+                if (info != null) info.addOccurrences(delta.count);
+            });
+        }
+        signatures = loaded;
+        counter = loadedCounter;
+        for (CrashIngestedEvent event : replay) {
+            boolean seen = counted.contains(event.crashId());
+            // После пересчета увиденный снимком краш уже учтен и в crash_signatures
+            if (seen && regroup) continue;
+            apply(event, !seen);
+        }
+        log.info("Crash signature tracker rebuilt: {} active signatures", loaded.size());
+        return groups[0];
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        synchronized (this) {
+            if (buffered != null) {
+                buffered.add(event);
+                return;
+            }
+        }
+        apply(event, true);
+    }
+
+    /**
+     * @param count учитывать ли краш в оконных счетчиках (false — он уже есть в загруженном снимке;
+     *              в crash_signatures его все равно нужно записать — туда пишет только flush)
+     */
+    private void apply(CrashIngestedEvent event, boolean count) {
+        LocalDateTime at = event.createdAt();
+        String signature = event.signature();
+
+        SignatureInfo info = signatures.computeIfAbsent(signature, s -> signatureRepository.findBySignature(s)
+                .map(CrashSignatureTracker::toInfo)
+                .orElseGet(() -> new SignatureInfo(s, CrashSignatures.preview(event.content()), event.crashId(), at, at, 0)));
+        info.touch(at);
+        info.countOccurrence();
+        if (count) {
+            counter.add(signature, 1, toMillis(at));
+        }
+
+        boolean afterFix = info.isFixed();
+        if (afterFix) {
+            info.countSinceFix();
+        }
+        RegressionReason detected = null;
+        if (afterFix) {
+            detected = info.flagRegression(RegressionReason.REAPPEARED, at);
+        } else if (newSignatureThreshold > 0 && info.getFirstSeen().isAfter(at.minusHours(newSignatureHours))
+                && counter.count(signature, Window.HOUR.ordinal()) >= newSignatureThreshold) {
+            detected = info.flagRegression(RegressionReason.NEW_SIGNATURE_SPIKE, at);
+        }
+
+        synchronized (pending) {
+            PendingDelta delta = pending.computeIfAbsent(signature, s -> new PendingDelta(info.getPreview(), event.crashId(), at));
+            delta.add(at, afterFix);
+            if (detected != null) {
+                delta.regression(detected, at);
+            }
+        }
+
+        if (detected != null) {
+            log.info("Crash signature {} flagged as regression: {}", signature, detected);
+            eventPublisher.publishEvent(new CrashRegressionEvent(signature, detected,
+                    afterFix ? info.getOccurrencesSinceFix() : counter.count(signature, Window.HOUR.ordinal()),
+                    info.getPreview(), info.getExampleCrashId(), at));
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSignatureFixChanged(SignatureFixChangedEvent event) {
+        // Исправленные группы должны быть в памяти — по ним проверяется каждый принятый краш
+        SignatureInfo info = signatures.computeIfAbsent(event.signature(),
+                s -> signatureRepository.findBySignature(s).map(CrashSignatureTracker::toInfo).orElse(null));
+        if (info != null) {
+            info.setFixed(event.fixed(), event.fixedAt());
+            info.restoreRegression(0, null, null);
+        }
+        synchronized (pending) {
+            PendingDelta delta = pending.get(event.signature());
+            if (delta != null) {
+                delta.resetRegression();
+            }
+        }
+    }
+
+    /**
+     * Текущие регрессии, самые свежие первыми
+     */
+    public List<SignatureInfo> getRegressions(int limit) {
+        return signatures.values().stream()
+                .filter(info -> info.getRegressedAt() != null)
+                .sorted(Comparator.comparing(SignatureInfo::getRegressedAt).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Помечена ли группа исправленной — O(1), вызывается при приеме каждого краша
+     */
+    public boolean isFixed(String signature) {
+        SignatureInfo info = signatures.get(signature);
+        return info != null && info.isFixed();
+    }
+
+    public List<TopSignature> getTopSignatures(Window window, int limit) {
+        if (window == Window.ALL) {
+            return getTopAllTime(limit);
+        }
+        return counter.top(window.ordinal(), limit).stream()
+                .map(e -> {
+                    SignatureInfo info = signatures.get(e.getKey());
+                    return new TopSignature(e.getKey(), e.getValue(),
+                            info != null ? info.getPreview() : "",
+                            info != null ? info.getExampleCrashId() : null,
+                            info != null ? info.getLastSeen() : null);
+                })
+                .toList();
+    }
+
+    public long getCount(String signature, Window window) {
+        if (window == Window.ALL) {
+            return getSignature(signature).map(SignatureInfo::getOccurrences).orElse(0L);
+        }
+        return counter.count(signature, window.ordinal());
+    }
+
+    /**
+     * Группа из памяти, а если она давно не встречалась — из БД (в память не кладется)
+     */
+    public Optional<SignatureInfo> getSignature(String signature) {
+        SignatureInfo info = signatures.get(signature);
+        if (info != null) return Optional.of(info);
+        return signatureRepository.findBySignature(signature).map(CrashSignatureTracker::toInfo);
+    }
+
+    /**
+     * Топ за все время: кандидаты из crash_signatures плюс группы в памяти, у которых есть еще не сброшенный прирост
+     */
+    private List<TopSignature> getTopAllTime(int limit) {
+        if (limit <= 0) return List.of();
+        Map<String, SignatureInfo> candidates = new HashMap<>();
+        for (CrashSignature s : signatureRepository.findTopByOccurrences(limit)) {
+            candidates.put(s.getSignature(), toInfo(s));
+        }
+        candidates.putAll(signatures);
+        return candidates.values().stream()
+                .sorted(Comparator.comparingLong(SignatureInfo::getOccurrences).reversed())
+                .limit(limit)
+                .map(info -> new TopSignature(info.getSignature(), info.getOccurrences(), info.getPreview(),
+                        info.getExampleCrashId(), info.getLastSeen()))
+                .toList();
+    }
+
+    /**
+     * Выгрузить из памяти группы, которые перестали быть "живыми": не исправлены, не регрессия и не встречались неделю
+     */
+    @Scheduled(initialDelayString = "${crash.signatures.prune-interval-ms:3600000}",
+            fixedDelayString = "${crash.signatures.prune-interval-ms:3600000}")
+    public void prune() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(Window.WEEK.buckets);
+        Set<String> unflushed;
+        synchronized (pending) {
+            unflushed = new HashSet<>(pending.keySet());
+        }
+        signatures.values().removeIf(info -> !info.isFixed() && info.getRegressedAt() == null
+                && info.getLastSeen() != null && info.getLastSeen().isBefore(cutoff)
+                && !unflushed.contains(info.getSignature()));
+    }
+
+    @Scheduled(fixedDelayString = "${crash.signatures.flush-interval-ms:10000}")
+    public void flush() {
+        Map<String, PendingDelta> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            batch = new HashMap<>(pending);
+            pending.clear();
+        }
+
+        for (Map.Entry<String, PendingDelta> entry : batch.entrySet()) {
+            PendingDelta delta = entry.getValue();
+            try {
+                signatureRepository.upsertOccurrences(entry.getKey(), delta.count, delta.firstSeen,
+                        delta.lastSeen, delta.exampleCrashId, delta.preview, delta.sinceFix, delta.regressedAt,
+                        delta.regressionReason != null ? delta.regressionReason.name() : null);
+            } catch (Exception e) {
+                log.warn("Failed to persist crash signature {}: {}", entry.getKey(), e.getMessage());
+                synchronized (pending) {
+                    pending.merge(entry.getKey(), delta, (newer, failed) -> failed.merge(newer));
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private static SignatureInfo toInfo(CrashSignature s) {
+        SignatureInfo info = new SignatureInfo(s.getSignature(), s.getPreview(),
+                s.getExampleCrashId(), s.getFirstSeen(), s.getLastSeen(), s.getOccurrences());
+        info.setFixed(s.isFixed(), s.getFixedAt());
+        info.restoreRegression(s.getOccurrencesSinceFix(), s.getRegressedAt(), s.getRegressionReason());
+        return info;
+    }
+
+    private static SlidingWindowCounter<String> newCounter() {
+        // Окно "все время" не в памяти — оно в crash_signatures.occurrences
+        return new SlidingWindowCounter<>(Duration.ofHours(1),
+                Window.HOUR.buckets, Window.DAY.buckets, Window.WEEK.buckets);
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public enum Window {
+        HOUR("1h", 1),
+        DAY("24h", 24),
+        WEEK("7d", 24 * 7),
+        ALL("all", SlidingWindowCounter.UNBOUNDED);
+
+        private final String param;
+        private final long buckets;
+
+        Window(String param, long buckets) {
+            this.param = param;
+            this.buckets = buckets;
+        }
+
+        public static Window fromParam(String param) {
+            return Arrays.stream(values())
+                    .filter(w -> w.param.equalsIgnoreCase(param))
+                    .findFirst()
+                    .orElse(ALL);
+        }
+    }
+
+    public record TopSignature(String signature, long count, String preview, Long exampleCrashId,
+                               LocalDateTime lastSeen) {
+    }
+
+    @Getter
+    public static class SignatureInfo {
+        private final String signature;
+        private final String preview;
+        private final Long exampleCrashId;
+        private final LocalDateTime firstSeen;
+        private volatile LocalDateTime lastSeen;
+        private volatile boolean fixed;
+        private volatile LocalDateTime fixedAt;
+        private volatile long occurrencesSinceFix;
+        private volatile LocalDateTime regressedAt;
+        private volatile RegressionReason regressionReason;
+        private volatile long occurrences;
+
+        SignatureInfo(String signature, String preview, Long exampleCrashId,
+                      LocalDateTime firstSeen, LocalDateTime lastSeen, long occurrences) {
+            this.signature = signature;
+            this.preview = preview;
+            this.exampleCrashId = exampleCrashId;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+            this.occurrences = occurrences;
+        }
+
+        synchronized void countOccurrence() {
+            occurrences++;
+        }
+
+        synchronized void addOccurrences(long delta) {
+            occurrences += delta;
+        }
+
+        synchronized void setFixed(boolean fixed, LocalDateTime fixedAt) {
+            this.fixed = fixed;
+            this.fixedAt = fixedAt;
+        }
+
+        synchronized void restoreRegression(long occurrencesSinceFix, LocalDateTime regressedAt,
+                                            RegressionReason regressionReason) {
+            this.occurrencesSinceFix = occurrencesSinceFix;
+            this.regressedAt = regressedAt;
+            this.regressionReason = regressionReason;
+        }
+
+        synchronized void countSinceFix() {
+            occurrencesSinceFix++;
+        }
+
+        /**
+         * @return причина, если группа помечена только что; null, если уже была помечена
+         */
+        synchronized RegressionReason flagRegression(RegressionReason reason, LocalDateTime at) {
+            if (regressedAt != null) return null;
+            regressedAt = at;
+            regressionReason = reason;
+            return reason;
+        }
+
+        synchronized void touch(LocalDateTime at) {
+            if (lastSeen == null || at.isAfter(lastSeen)) {
+                lastSeen = at;
+            }
+        }
+    }
+
+    private static class PendingDelta {
+        private final String preview;
+        private final Long exampleCrashId;
+        private final LocalDateTime firstSeen;
+        private LocalDateTime lastSeen;
+        private long count;
+        private long sinceFix;
+        private LocalDateTime regressedAt;
+        private RegressionReason regressionReason;
+
+        PendingDelta(String preview, Long exampleCrashId, LocalDateTime firstSeen) {
+            this.preview = preview;
+            this.exampleCrashId = exampleCrashId;
+            this.firstSeen = firstSeen;
+            this.lastSeen = firstSeen;
+        }
+
+        void add(LocalDateTime at, boolean afterFix) {
+            count++;
+            if (afterFix) sinceFix++;
+            if (at.isAfter(lastSeen)) lastSeen = at;
+        }
+
+        void regression(RegressionReason reason, LocalDateTime at) {
+            if (regressedAt == null) {
+                regressedAt = at;
+                regressionReason = reason;
+            }
+        }
+
+        void resetRegression() {
+            sinceFix = 0;
+            regressedAt = null;
+            regressionReason = null;
+        }
+
+        PendingDelta merge(PendingDelta other) {
+            count += other.count;
+            sinceFix += other.sinceFix;
+            if (other.lastSeen.isAfter(lastSeen)) lastSeen = other.lastSeen;
+            if (regressedAt == null) {
+                regressedAt = other.regressedAt;
+                regressionReason = other.regressionReason;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package ru.optimus.crashpusher.stats;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.optimus.crashpusher.analysis.MinHash;
+import ru.optimus.crashpusher.analysis.StackFrames;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.repository.CrashRepository;
+
+import java.util.*;
+
+/**
+ * Поиск похожих крашей: MinHash по множеству фреймов стектрейса + LSH по полосам.
+ * <p>
+ * Индексируются сигнатуры (группы одинаковых крашей), а не отдельные краши — дубликаты дают ту же
+ * MinHash-сигнатуру. Сигнатура разбивается на {@link #BANDS} полос по {@link #ROWS} значения; кандидаты —
+ * группы, совпавшие хотя бы в одной полосе, поэтому поиск не зависит от размера таблицы.
+ * Группы с оценкой сходства не ниже порога объединяются в кластеры (union-find) прямо при добавлении.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CrashSimilarityIndex {
+
+    static final int BANDS = 32;
+    static final int ROWS = MinHash.SIZE / BANDS;
+
+    private static final int BACKFILL_BATCH = 200;
+
+    private final CrashRepository crashRepository;
+
+    @Value("${crash.similarity.threshold:0.5}")
+    private double threshold;
+
+    private final Map<String, int[]> minhashes = new HashMap<>();
+    private final List<Map<Long, List<String>>> bands = new ArrayList<>();
+    private final Map<String, String> parent = new HashMap<>();
+    private final Map<String, Integer> clusterSizes = new HashMap<>();
+
+    {
+        for (int i = 0; i < BANDS; i++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload();
+
+        // Старые краши без MinHash досчитываем в фоне, индекс пополняется по ходу
+        Thread.ofPlatform().daemon().name("crash-similarity-backfill").start(this::backfill);
+    }
+
+    /**
+     * Перечитать индекс из БД — после перегруппировки крашей прежних сигнатур больше нет
+     */
+    public void reload() {
+        List<Object[]> rows = crashRepository.findMinhashesBySignature();
+        int loaded = 0;
+        synchronized (this) {
+            minhashes.clear();
+            bands.forEach(Map::clear);
+            parent.clear();
+            clusterSizes.clear();
+            for (Object[] row : rows) {
+                int[] minhash = MinHash.fromBytes((byte[]) row[1]);
+                if (minhash != null) {
+                    add((String) row[0], minhash);
+                    loaded++;
+                }
+            }
+        }
+        log.info("Crash similarity index loaded: {} signatures", loaded);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        if (contains(event.signature())) return;
+
+        int[] minhash = MinHash.of(StackFrames.extract(event.content()));
+        if (minhash != null) {
+            add(event.signature(), minhash);
+        }
+    }
+
+    public synchronized boolean contains(String signature) {
+        return minhashes.containsKey(signature);
+    }
+
+    public synchronized void add(String signature, int[] minhash) {
+        if (minhashes.putIfAbsent(signature, minhash) != null) return;
+
+        parent.put(signature, signature);
+        clusterSizes.put(signature, 1);
+
+        for (Neighbour neighbour : candidates(signature, minhash)) {
+            if (neighbour.similarity() >= threshold) {
+                union(signature, neighbour.signature());
+            }
+        }
+        for (int band = 0; band < BANDS; band++) {
+            bands.get(band).computeIfAbsent(bandKey(minhash, band), k -> new ArrayList<>(1)).add(signature);
+        }
+    }
+
+    /**
+     * Ближайшие группы по оценке сходства (не ниже {@code minSimilarity}), по убыванию
+     */
+    public synchronized List<Neighbour> findSimilar(String signature, double minSimilarity, int limit) {
+        int[] minhash = minhashes.get(signature);
+        if (minhash == null) return List.of();
+
+        return candidates(signature, minhash).stream()
+                .filter(n -> n.similarity() >= minSimilarity)
+                .sorted(Comparator.comparingDouble(Neighbour::similarity).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Кластер группы: корневая сигнатура и число групп в нем
+     */
+    public synchronized Optional<Cluster> getCluster(String signature) {
+        if (!parent.containsKey(signature)) return Optional.empty();
+        String root = find(signature);
+        return Optional.of(new Cluster(root, clusterSizes.get(root)));
+    }
+
+    private List<Neighbour> candidates(String signature, int[] minhash) {
+        Set<String> seen = new HashSet<>();
+        List<Neighbour> result = new ArrayList<>();
+        for (int band = 0; band < BANDS; band++) {
+            List<String> bucket = bands.get(band).get(bandKey(minhash, band));
+            if (bucket == null) continue;
+            for (String other : bucket) {
+                if (!other.equals(signature) && seen.add(other)) {
+                    result.add(new Neighbour(other, MinHash.similarity(minhash, minhashes.get(other))));
+                }
+            }
+        }
+        return result;
+    }
+
+    private String find(String signature) {
+        String root = signature;
+        while (!root.equals(parent.get(root))) {
+            root = parent.get(root);
+        }
+        // Сжатие путей
+        String current = signature;
+        while (!current.equals(root)) {
+            String next = parent.get(current);
+            parent.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    private void union(String a, String b) {
+        String rootA = find(a);
+        String rootB = find(b);
+        if (rootA.equals(rootB)) return;
+
+        int sizeA = clusterSizes.get(rootA);
+        int sizeB = clusterSizes.get(rootB);
+        if (sizeA < sizeB) {
+            String swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parent.put(rootB, rootA);
+        clusterSizes.put(rootA, sizeA + sizeB);
+        clusterSizes.remove(rootB);
+    }
+
+    private static long bandKey(int[] minhash, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+            key = key * 0x9E3779B97F4A7C15L + minhash[i];
+        }
+        return key;
+    }
+
+    private void backfill() {
+        String after = "";
+        int processed = 0;
+        try {
+            while (true) {
+                List<Object[]> batch = crashRepository.findContentWithoutMinhash(after, BACKFILL_BATCH);
+                if (batch.isEmpty()) break;
+
+                for (Object[] row : batch) {
+                    String signature = (String) row[0];
+                    int[] minhash = MinHash.of(StackFrames.extract((String) row[1]));
+                    crashRepository.updateMinhashBySignature(signature, MinHash.toBytes(minhash));
+                    if (minhash != null) {
+                        add(signature, minhash);
+                    }
+                    after = signature;
+                }
+                processed += batch.size();
+            }
+            if (processed > 0) {
+                log.info("Computed MinHash for {} crash signatures", processed);
+            }
+        } catch (Exception e) {
+            log.warn("MinHash backfill stopped after {} signatures: {}", processed, e.getMessage());
+        }
+    }
+
+    public record Neighbour(String signature, double similarity) {
+    }
+
+    public record Cluster(String root, int size) {
+    }
+}
@@ -0,0 +1,121 @@
+package ru.optimus.crashpusher.stats;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.WebRequest;
+import ru.optimus.crashpusher.event.CrashFixChangedEvent;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.event.SignatureFixChangedEvent;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Глобальная версия данных дашборда. Растет при приеме краша, приеме лога и смене статуса исправления.
+ * <p>
+ * Версия стартует от текущего времени, поэтому ETag'и, выданные до перезапуска, не совпадут с новыми.
+ * Она же годится как ключ для серверных кэшей ответов.
+ * <p>
+ * Изменения копятся, а наружу новая версия выходит не чаще раза в {@code crash.stats.version-min-interval-ms}:
+ * во время шторма крашей кэши и ETag'и не сбрасываются на каждом приеме, а данные отстают не больше чем на интервал.
+ */
+@Component
+public class DataVersion {
+
+    private final AtomicLong latest = new AtomicLong(System.currentTimeMillis());
+    private final long minIntervalNanos;
+    private volatile long published = latest.get();
+    private volatile long publishedAt = System.nanoTime();
+
+    public DataVersion(@Value("${crash.stats.version-min-interval-ms:5000}") long minIntervalMs) {
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minIntervalMs));
+    }
+
+    public long current() {
+        if (latest.get() != published && System.nanoTime() - publishedAt >= minIntervalNanos) {
+            publish();
+        }
+        return published;
+    }
+
+    /**
+     * Данные изменились фоном (прием краша, лога, сброс роллапов) — новая версия выйдет не позже чем через интервал
+     */
+    public void bump() {
+        latest.incrementAndGet();
+    }
+
+    /**
+     * Изменение от действия пользователя — видно сразу, иначе он получит свой же старый ответ
+     */
+    public void bumpNow() {
+        latest.incrementAndGet();
+        publish(true);
+    }
+
+    private void publish() {
+        publish(false);
+    }
+
+    private synchronized void publish(boolean force) {
+        long now = System.nanoTime();
+        if (!force && now - publishedAt < minIntervalNanos) return;
+        published = latest.get();
+        publishedAt = now;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        bump();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashFixChanged(CrashFixChangedEvent event) {
+        bumpNow();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSignatureFixChanged(SignatureFixChangedEvent event) {
+        bumpNow();
+    }
+
+    /**
+     * Условный ответ: если у клиента актуальный ETag, отдаем 304 и не вызываем {@code response}
+     */
+    public <T> ResponseEntity<T> respond(WebRequest request, Supplier<ResponseEntity<T>> response) {
+        return respond(request, Long.toString(current()), response);
+    }
+
+    /**
+     * То же для ответов, зависящих от текущего времени (окна "последние 24 часа" и т.п.):
+     * ETag дополнительно меняется раз в {@code granularity}
+     */
+    public <T> ResponseEntity<T> respond(WebRequest request, Duration granularity, Supplier<ResponseEntity<T>> response) {
+        long slot = System.currentTimeMillis() / granularity.toMillis();
+        return respond(request, current() + "-" + slot, response);
+    }
+
+    private <T> ResponseEntity<T> respond(WebRequest request, String tag, Supplier<ResponseEntity<T>> response) {
+        String etag = "\"" + tag + "\"";
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        ResponseEntity<T> result = response.get();
+        if (!result.getStatusCode().is2xxSuccessful()) {
+            return result;
+        }
+        // no-cache: браузер хранит ответ, но каждый раз переспрашивает сервер с If-None-Match
+        return ResponseEntity.status(result.getStatusCode())
+                .headers(result.getHeaders())
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .body(result.getBody());
+    }
+}
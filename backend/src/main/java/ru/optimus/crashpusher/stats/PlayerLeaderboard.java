@@ -0,0 +1,112 @@
+package ru.optimus.crashpusher.stats;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.repository.CrashRepository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Топ игроков по крашам за сутки / неделю / 30 дней / все время.
+ * <p>
+ * Краши раскладываются по часовым корзинам {@link SlidingWindowCounter}, поэтому прием краша — O(число окон),
+ * а корзина, вышедшая из окна, вычитается из итогов один раз. Дашборд не делает GROUP BY по окну:
+ * топ N берется из кэша топа счетчика, который пересчитывается только после изменений.
+ * При старте счетчики восстанавливаются из БД — почасово за 30 дней, остальное одним итогом.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PlayerLeaderboard {
+
+    private final CrashRepository crashRepository;
+
+    private final SlidingWindowCounter<Long> counter = new SlidingWindowCounter<>(Duration.ofHours(1),
+            Window.DAY.buckets, Window.WEEK.buckets, Window.MONTH.buckets, Window.ALL.buckets);
+    private final Map<Long, String> usernames = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void rebuild() {
+        counter.clear();
+        usernames.clear();
+
+        Map<Long, Long> recent = new HashMap<>();
+        LocalDateTime since = LocalDateTime.now().minusHours(Window.MONTH.buckets).truncatedTo(ChronoUnit.HOURS);
+        for (Object[] row : crashRepository.countByUserHourlySince(since)) {
+            long userId = ((Number) row[0]).longValue();
+            long count = ((Number) row[2]).longValue();
+            counter.add(userId, count, toMillis(toLocalDateTime(row[1])));
+            recent.merge(userId, count, Long::sum);
+        }
+
+        // Все, что старше 30 дней, попадает только в окно "все время"
+        for (Object[] row : crashRepository.countByUser()) {
+            long userId = ((Number) row[0]).longValue();
+            usernames.put(userId, (String) row[1]);
+            long older = ((Number) row[2]).longValue() - recent.getOrDefault(userId, 0L);
+            if (older > 0) {
+                counter.add(userId, older, 0L);
+            }
+        }
+
+        log.info("Player leaderboard rebuilt: {} players", usernames.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        usernames.put(event.userId(), event.username());
+        counter.add(event.userId(), 1, toMillis(event.createdAt()));
+    }
+
+    /**
+     * Ровно {@code limit} (или меньше, если игроков меньше) самых падающих игроков окна, по убыванию
+     */
+    public List<Entry> top(Window window, int limit) {
+        return counter.top(window.ordinal(), limit).stream()
+                .map(e -> new Entry(e.getKey(), usernames.get(e.getKey()), e.getValue()))
+                .toList();
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public enum Window {
+        DAY("24h", 24),
+        WEEK("7d", 24 * 7),
+        MONTH("30d", 24 * 30),
+        ALL("all", SlidingWindowCounter.UNBOUNDED);
+
+        private final String param;
+        private final long buckets;
+
+        Window(String param, long buckets) {
+            this.param = param;
+            this.buckets = buckets;
+        }
+
+        public static Window fromParam(String param) {
+            return Arrays.stream(values())
+                    .filter(w -> w.param.equalsIgnoreCase(param))
+                    .findFirst()
+                    .orElse(ALL);
+        }
+    }
+
+    public record Entry(long userId, String username, long crashCount) {
+    }
+}
@@ -0,0 +1,316 @@
+package ru.optimus.crashpusher.stats;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.repository.UserCrashRepository;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Подсказки по никам игроков для автодополнения.
+ * <p>
+ * Основной снимок — отсортированный массив ников в нижнем регистре: совпадения по префиксу лежат подряд,
+ * поэтому первые N находятся бинпоиском за O(log n + N). Если префиксных совпадений меньше N, добираем
+ * совпадения в середине ника по триграммам: у каждой триграммы список номеров ников, проверяем только
+ * ники из самого короткого списка среди триграмм запроса.
+ * <p>
+ * Новые игроки копятся в небольшом TreeMap и вливаются в снимок пересборкой по расписанию,
+ * поэтому прием краша не перестраивает массивы.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PlayerNameIndex {
+
+    /**
+     * Длина триграммы; запросы короче ищутся только по префиксу
+     */
+    private static final int GRAM = 3;
+
+    private final UserCrashRepository userCrashRepository;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final TreeMap<String, List<Suggestion>> recent = new TreeMap<>();
+
+    @PostConstruct
+    public void rebuild() {
+        List<Suggestion> all = new ArrayList<>();
+        for (Object[] row : userCrashRepository.findAllNames()) {
+            all.add(new Suggestion(((Number) row[0]).longValue(), (String) row[1]));
+        }
+        Snapshot built = Snapshot.of(all);
+        synchronized (recent) {
+            snapshot = built;
+            recent.clear();
+        }
+        log.info("Player name index built: {} names", built.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        String username = event.username();
+        if (username == null) return;
+        String key = username.toLowerCase(Locale.ROOT);
+
+        synchronized (recent) {
+            if (snapshot.contains(key, event.userId())) return;
+            List<Suggestion> sameKey = recent.computeIfAbsent(key, k -> new ArrayList<>(1));
+            if (sameKey.stream().noneMatch(s -> s.id() == event.userId())) {
+                sameKey.add(new Suggestion(event.userId(), username));
+            }
+        }
+    }
+
+    /**
+     * Вливаем новых игроков в снимок; снимок пересобирается целиком, поиск все это время идет по старому
+     */
+    @Scheduled(fixedDelayString = "${crash.players.name-index-merge-interval-ms:300000}")
+    public void merge() {
+        Snapshot current;
+        List<Suggestion> added = new ArrayList<>();
+        synchronized (recent) {
+            if (recent.isEmpty()) return;
+            current = snapshot;
+            recent.values().forEach(added::addAll);
+        }
+
+        List<Suggestion> all = new ArrayList<>(current.size() + added.size());
+        for (int i = 0; i < current.size(); i++) {
+            all.add(new Suggestion(current.ids[i], current.names[i]));
+        }
+        all.addAll(added);
+        Snapshot merged = Snapshot.of(all);
+
+        synchronized (recent) {
+            snapshot = merged;
+            for (Suggestion s : added) {
+                String key = s.username().toLowerCase(Locale.ROOT);
+                List<Suggestion> sameKey = recent.get(key);
+                if (sameKey != null && sameKey.remove(s) && sameKey.isEmpty()) {
+                    recent.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * До {@code limit} ников: сначала начинающиеся с {@code query} (по алфавиту), затем содержащие его
+     */
+    public List<Suggestion> suggest(String query, int limit) {
+        String q = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        if (q.isEmpty() || limit <= 0) return List.of();
+
+        Snapshot current;
+        List<Suggestion> pending = new ArrayList<>();
+        synchronized (recent) {
+            current = snapshot;
+            for (List<Suggestion> sameKey : recent.subMap(q, true, q + Character.MAX_VALUE, false).values()) {
+                pending.addAll(sameKey);
+            }
+        }
+
+        List<Suggestion> result = mergePrefix(current, current.prefixStart(q), q, pending, limit);
+        if (result.size() >= limit || q.length() < GRAM) {
+            return result;
+        }
+
+        Set<Long> seen = new HashSet<>();
+        for (Suggestion s : result) seen.add(s.id());
+
+        current.infix(q, index -> {
+            if (seen.add(current.ids[index])) {
+                result.add(new Suggestion(current.ids[index], current.names[index]));
+            }
+            return result.size() < limit;
+        });
+        if (result.size() < limit) {
+            synchronized (recent) {
+                for (List<Suggestion> sameKey : recent.values()) {
+                    for (Suggestion s : sameKey) {
+                        if (result.size() >= limit) return result;
+                        if (s.username().toLowerCase(Locale.ROOT).contains(q) && seen.add(s.id())) {
+                            result.add(s);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        int pending;
+        synchronized (recent) {
+            pending = recent.values().stream().mapToInt(List::size).sum();
+        }
+        return snapshot.size() + pending;
+    }
+
+    /**
+     * Слияние двух отсортированных потоков префиксных совпадений: снимка и еще не влитых игроков
+     */
+    private static List<Suggestion> mergePrefix(Snapshot current, int from, String q, List<Suggestion> pending, int limit) {
+        List<Suggestion> result = new ArrayList<>(limit);
+        int i = from;
+        int j = 0;
+        while (result.size() < limit) {
+            boolean hasSnapshot = i < current.size() && current.keys[i].startsWith(q);
+            boolean hasPending = j < pending.size();
+            if (!hasSnapshot && !hasPending) break;
+
+            if (hasSnapshot && (!hasPending
+                    || current.keys[i].compareTo(pending.get(j).username().toLowerCase(Locale.ROOT)) <= 0)) {
+                result.add(new Suggestion(current.ids[i], current.names[i]));
+                i++;
+            } else {
+                result.add(pending.get(j++));
+            }
+        }
+        return result;
+    }
+
+    public record Suggestion(long id, String username) {
+    }
+
+    /**
+     * Неизменяемый снимок: параллельные массивы, отсортированные по нику в нижнем регистре, и списки триграмм
+     */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = of(List.of());
+
+        final String[] keys;
+        final String[] names;
+        final long[] ids;
+        final Map<Integer, int[]> grams;
+
+        private Snapshot(String[] keys, String[] names, long[] ids, Map<Integer, int[]> grams) {
+            this.keys = keys;
+            this.names = names;
+            this.ids = ids;
+            this.grams = grams;
+        }
+
+        static Snapshot of(List<Suggestion> players) {
+            int n = players.size();
+            record Entry(String key, Suggestion player) {
+            }
+            Entry[] sorted = new Entry[n];
+            for (int i = 0; i < n; i++) {
+                Suggestion player = players.get(i);
+                sorted[i] = new Entry(player.username().toLowerCase(Locale.ROOT), player);
+            }
+            Arrays.sort(sorted, Comparator.comparing(Entry::key).thenComparingLong(e -> e.player().id()));
+
+            String[] keys = new String[n];
+            String[] names = new String[n];
+            long[] ids = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = sorted[i].key();
+                String username = sorted[i].player().username();
+                names[i] = username.equals(keys[i]) ? keys[i] : username;
+                ids[i] = sorted[i].player().id();
+            }
+
+            // Пары (хэш триграммы, номер ника) в одном массиве: после сортировки списки идут подряд и уже
+            // упорядочены по нику, а повторы триграммы внутри ника стоят рядом. Коллизия хэшей лишь добавляет
+            // кандидатов — каждый кандидат все равно проверяется по подстроке
+            long[] pairs = new long[Math.max(16, n * 8)];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                String key = keys[i];
+                for (int j = 0; j + GRAM <= key.length(); j++) {
+                    if (count == pairs.length) pairs = Arrays.copyOf(pairs, count * 2);
+                    pairs[count++] = ((long) gram(key, j) << 32) | i;
+                }
+            }
+            Arrays.sort(pairs, 0, count);
+
+            Map<Integer, int[]> postings = new HashMap<>();
+            int[] buffer = new int[Math.max(1, n)];
+            for (int from = 0; from < count; ) {
+                int gram = (int) (pairs[from] >> 32);
+                int size = 0;
+                int to = from;
+                for (; to < count && (int) (pairs[to] >> 32) == gram; to++) {
+                    if (to == from || pairs[to] != pairs[to - 1]) {
+                        buffer[size++] = (int) pairs[to];
+                    }
+                }
+                postings.put(gram, Arrays.copyOf(buffer, size));
+                from = to;
+            }
+
+            return new Snapshot(keys, names, ids, postings);
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        /**
+         * Первая позиция, с которой ники не меньше {@code q}
+         */
+        int prefixStart(String q) {
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid].compareTo(q) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        boolean contains(String key, long id) {
+            for (int i = prefixStart(key); i < keys.length && keys[i].equals(key); i++) {
+                if (ids[i] == id) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Ники, содержащие {@code q} не в начале, по порядку снимка, пока {@code consumer} просит еще
+         */
+        void infix(String q, IntPredicate consumer) {
+            int[] shortest = null;
+            for (int gram : grams(q)) {
+                int[] list = grams.get(gram);
+                if (list == null) return;
+                if (shortest == null || list.length < shortest.length) shortest = list;
+            }
+            if (shortest == null) return;
+
+            for (int index : shortest) {
+                if (!keys[index].startsWith(q) && keys[index].contains(q) && !consumer.test(index)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Различные триграммы строки
+         */
+        static Set<Integer> grams(String s) {
+            Set<Integer> result = new HashSet<>();
+            for (int i = 0; i + GRAM <= s.length(); i++) {
+                result.add(gram(s, i));
+            }
+            return result;
+        }
+
+        /**
+         * 32-битный хэш триграммы с позиции {@code i}
+         */
+        static int gram(String s, int i) {
+            long packed = ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+            return (int) ((packed * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.optimus.crashpusher.stats;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Счетчики по ключам в нескольких скользящих окнах сразу (например, час / сутки / неделя / все время).
+ * <p>
+ * События раскладываются по корзинам фиксированной длины. Для каждого окна держится готовый итог,
+ * поэтому добавление стоит O(число окон), а корзина, вышедшая за границу окна, вычитается из его итога
+ * ровно один раз. Топ по окну считается за O(ключи * log limit) и кэшируется до следующего изменения.
+ */
+public class SlidingWindowCounter<K> {
+
+    /**
+     * Окно без ограничения по времени
+     */
+    public static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private static final int TOP_CACHE_SIZE = 100;
+
+    private final long bucketMillis;
+    private final long[] windowBuckets;
+    private final long retainedBuckets;
+
+    private final Map<K, long[]> totals = new HashMap<>();
+    private final TreeMap<Long, Map<K, Long>> buckets = new TreeMap<>();
+    private final long[] evictedUpTo;
+    private final List<Map.Entry<K, Long>>[] topCache;
+    private long currentBucket;
+
+    @SuppressWarnings("unchecked")
+    public SlidingWindowCounter(Duration bucket, long... windowBuckets) {
+        this.bucketMillis = bucket.toMillis();
+        this.windowBuckets = windowBuckets.clone();
+        this.retainedBuckets = Arrays.stream(windowBuckets).filter(w -> w != UNBOUNDED).max().orElse(0);
+        this.evictedUpTo = new long[windowBuckets.length];
+        this.topCache = new List[windowBuckets.length];
+        this.currentBucket = bucketOf(System.currentTimeMillis());
+        for (int i = 0; i < windowBuckets.length; i++) {
+            evictedUpTo[i] = windowBuckets[i] == UNBOUNDED ? Long.MIN_VALUE : currentBucket - windowBuckets[i];
+        }
+    }
+
+    public synchronized void add(K key, long delta, long timestampMillis) {
+        advance(System.currentTimeMillis());
+
+        long bucket = bucketOf(timestampMillis);
+        long[] counts = null;
+        for (int i = 0; i < windowBuckets.length; i++) {
+            if (bucket > evictedUpTo[i]) {
+                if (counts == null) {
+                    counts = totals.computeIfAbsent(key, k -> new long[windowBuckets.length]);
+                }
+                counts[i] += delta;
+                topCache[i] = null;
+            }
+        }
+
+        if (retainedBuckets > 0 && bucket > currentBucket - retainedBuckets) {
+            buckets.computeIfAbsent(bucket, b -> new HashMap<>()).merge(key, delta, Long::sum);
+        }
+    }
+
+    public synchronized long count(K key, int window) {
+        advance(System.currentTimeMillis());
+        long[] counts = totals.get(key);
+        return counts != null ? counts[window] : 0;
+    }
+
+    /**
+     * Топ ключей по окну в порядке убывания счетчика
+     */
+    public synchronized List<Map.Entry<K, Long>> top(int window, int limit) {
+        advance(System.currentTimeMillis());
+
+        if (limit <= TOP_CACHE_SIZE) {
+            if (topCache[window] == null) {
+                topCache[window] = computeTop(window, TOP_CACHE_SIZE);
+            }
+            List<Map.Entry<K, Long>> cached = topCache[window];
+            return cached.subList(0, Math.min(limit, cached.size()));
+        }
+        return computeTop(window, limit);
+    }
+
+    public synchronized void clear() {
+        totals.clear();
+        buckets.clear();
+        Arrays.fill(topCache, null);
+    }
+
+    private List<Map.Entry<K, Long>> computeTop(int window, int limit) {
+        PriorityQueue<Map.Entry<K, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<K, long[]> entry : totals.entrySet()) {
+            long value = entry.getValue()[window];
+            if (value <= 0) continue;
+            if (heap.size() < limit) {
+                heap.add(Map.entry(entry.getKey(), value));
+            } else if (value > heap.peek().getValue()) {
+                heap.poll();
+                heap.add(Map.entry(entry.getKey(), value));
+            }
+        }
+
+        List<Map.Entry<K, Long>> result = new ArrayList<>(heap);
+        result.sort(Map.Entry.<K, Long>comparingByValue().reversed());
+        return Collections.unmodifiableList(result);
+    }
+
+    private void advance(long nowMillis) {
+        long now = bucketOf(nowMillis);
+        if (now <= currentBucket) return;
+        currentBucket = now;
+
+        Set<K> touched = new HashSet<>();
+        for (int i = 0; i < windowBuckets.length; i++) {
+            if (windowBuckets[i] == UNBOUNDED) continue;
+
+            long boundary = now - windowBuckets[i];
+            if (boundary <= evictedUpTo[i]) continue;
+
+            for (Map<K, Long> expired : buckets.subMap(evictedUpTo[i], false, boundary, true).values()) {
+                for (Map.Entry<K, Long> e : expired.entrySet()) {
+                    long[] counts = totals.get(e.getKey());
+                    if (counts != null) {
+                        counts[i] -= e.getValue();
+                        touched.add(e.getKey());
+                    }
+                }
+            }
+            evictedUpTo[i] = boundary;
+            topCache[i] = null;
+        }
+
+        buckets.headMap(now - retainedBuckets, true).clear();
+
+        for (K key : touched) {
+            long[] counts = totals.get(key);
+            if (counts != null && Arrays.stream(counts).allMatch(c -> c <= 0)) {
+                totals.remove(key);
+            }
+        }
+    }
+
+    private long bucketOf(long timestampMillis) {
+        return Math.floorDiv(timestampMillis, bucketMillis);
+    }
+}
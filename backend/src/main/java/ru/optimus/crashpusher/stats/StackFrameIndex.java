@@ -0,0 +1,319 @@
+package ru.optimus.crashpusher.stats;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.optimus.crashpusher.analysis.FrameIds;
+import ru.optimus.crashpusher.analysis.StackFrames;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.model.StackFrame;
+import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.service.StackFrameDictionary;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инвертированный индекс "фрейм / пакет -> краши" на roaring-битмапах.
+ * <p>
+ * Фреймы адресуются id из словаря stack_frames, пакеты интернируются здесь же в памяти; для каждого id
+ * хранится битмап id крашей, где он встречается. Временное окно — это диапазон id крашей (id растут
+ * вместе с датой), поэтому "топ пакетов за неделю" — это пересечение мощностей битмапов с диапазоном,
+ * без чтения содержимого крашей. Последовательность фреймов берется из crashes.frame_ids один раз
+ * на сигнатуру: дубликаты добавляются по уже известному набору id.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StackFrameIndex {
+
+    private static final int LOAD_BATCH = 1000;
+
+    private final CrashRepository crashRepository;
+    private final StackFrameDictionary stackFrameDictionary;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, String> frameNames = new HashMap<>();
+    private final Map<String, Integer> frameIdsByName = new HashMap<>();
+    private final Map<Integer, RoaringBitmap> framePostings = new HashMap<>();
+    private final Map<Integer, Integer> framePackages = new HashMap<>();
+    private final Terms packages = new Terms();
+    private final Map<String, int[]> bySignature = new HashMap<>();
+    private volatile boolean ready;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        Thread.ofPlatform().daemon().name("stack-frame-index-load").start(() -> {
+            try {
+                loadDictionary();
+                loadSignatures();
+                backfillFrameIds();
+                loadCrashes();
+                ready = true;
+                log.info("Stack frame index loaded: {} frames, {} packages", frameNames.size(), packages.size());
+            } catch (Exception e) {
+                log.warn("Stack frame index load failed: {}", e.getMessage());
+            }
+        });
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        add(event.crashId(), event.signature(), event.frameIds());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Пакеты, встречающиеся в наибольшем числе крашей из диапазона id [fromId, toId]
+     */
+    public List<Entry> topPackages(long fromId, long toId, int limit) {
+        RoaringBitmap range = range(fromId, toId);
+        lock.readLock().lock();
+        try {
+            return top(packages.postings.size(), id -> packages.postings.get(id), packages.names::get, range, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Entry> topFrames(long fromId, long toId, int limit) {
+        RoaringBitmap range = range(fromId, toId);
+        lock.readLock().lock();
+        try {
+            List<Integer> ids = new ArrayList<>(framePostings.keySet());
+            return top(ids.size(), i -> framePostings.get(ids.get(i)), i -> frameNames.get(ids.get(i)), range, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Краши из диапазона, содержащие фрейм (или любой фрейм пакета): общее число и самые свежие id
+     */
+    public Matches crashesWithFrame(String frame, long fromId, long toId, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer id = frameIdsByName.get(frame);
+            return matches(id != null ? framePostings.get(id) : null, fromId, toId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Matches crashesWithPackage(String pkg, long fromId, long toId, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer id = packages.ids.get(pkg);
+            return matches(id != null ? packages.postings.get(id) : null, fromId, toId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void add(long crashId, String signature, int[] frameIds) {
+        if (crashId > Integer.MAX_VALUE) {
+            log.warn("Crash id {} does not fit the frame index", crashId);
+            return;
+        }
+
+        if (frameIds != null) {
+            // Подписи для фреймов, которых индекс еще не видел, читаем вне блокировки
+            List<Integer> unknown = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (int id : frameIds) {
+                    if (!frameNames.containsKey(id)) unknown.add(id);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (!unknown.isEmpty()) {
+                Map<Integer, String> names = stackFrameDictionary.names(unknown);
+                lock.writeLock().lock();
+                try {
+                    names.forEach(this::register);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            int[] ids = frameIds != null ? frameIds : bySignature.get(signature);
+            if (ids == null) return;
+            bySignature.putIfAbsent(signature, ids);
+
+            Set<Integer> crashPackages = new HashSet<>();
+            for (int id : ids) {
+                RoaringBitmap postings = framePostings.get(id);
+                if (postings == null) continue;
+                postings.add((int) crashId);
+                Integer pkg = framePackages.get(id);
+                if (pkg != null && crashPackages.add(pkg)) {
+                    packages.postings.get(pkg).add((int) crashId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void register(int id, String name) {
+        if (frameNames.putIfAbsent(id, name) != null) return;
+        frameIdsByName.put(name, id);
+        framePostings.put(id, new RoaringBitmap());
+        String pkg = StackFrames.packageOf(name);
+        if (pkg != null) {
+            framePackages.put(id, packages.intern(pkg));
+        }
+    }
+
+    private static List<Entry> top(int size, IntFunction<RoaringBitmap> postings,
+                                   IntFunction<String> names, RoaringBitmap range, int limit) {
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingLong(Entry::crashes));
+        for (int i = 0; i < size; i++) {
+            long count = RoaringBitmap.andCardinality(postings.apply(i), range);
+            if (count == 0) continue;
+            if (heap.size() < limit) {
+                heap.add(new Entry(names.apply(i), count));
+            } else if (count > heap.peek().crashes()) {
+                heap.poll();
+                heap.add(new Entry(names.apply(i), count));
+            }
+        }
+
+        List<Entry> result = new ArrayList<>(heap);
+        result.sort(Comparator.comparingLong(Entry::crashes).reversed());
+        return result;
+    }
+
+    private static Matches matches(RoaringBitmap postings, long fromId, long toId, int limit) {
+        if (postings == null) return new Matches(0, List.of());
+        RoaringBitmap matched = RoaringBitmap.and(postings, range(fromId, toId));
+
+        List<Long> latest = new ArrayList<>(limit);
+        IntIterator it = matched.getReverseIntIterator();
+        while (it.hasNext() && latest.size() < limit) {
+            latest.add((long) it.next());
+        }
+        return new Matches(matched.getLongCardinality(), latest);
+    }
+
+    private static RoaringBitmap range(long fromId, long toId) {
+        long from = Math.max(fromId, 0);
+        long to = Math.min(toId, Integer.MAX_VALUE);
+        return from > to ? new RoaringBitmap() : RoaringBitmap.bitmapOfRange(from, to + 1);
+    }
+
+    private void loadDictionary() {
+        List<StackFrame> all = stackFrameDictionary.findAll();
+        lock.writeLock().lock();
+        try {
+            all.forEach(frame -> register(frame.getId(), frame.getFrame()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void loadSignatures() {
+        List<Object[]> rows = crashRepository.findFrameIdsBySignature();
+        lock.writeLock().lock();
+        try {
+            for (Object[] row : rows) {
+                bySignature.putIfAbsent((String) row[0], FrameIds.decode((byte[]) row[1]));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Краши, сохраненные до появления словаря: разбираем по одному примеру на сигнатуру
+     */
+    private void backfillFrameIds() {
+        String after = "";
+        int processed = 0;
+        while (true) {
+            List<Object[]> batch = crashRepository.findContentWithoutFrameIds(after, LOAD_BATCH);
+            if (batch.isEmpty()) break;
+
+            for (Object[] row : batch) {
+                String signature = (String) row[0];
+                List<String> frames = new ArrayList<>(StackFrames.extract((String) row[1]));
+                int[] ids = stackFrameDictionary.resolve(frames);
+                crashRepository.updateFrameIdsBySignature(signature, FrameIds.encode(ids));
+
+                lock.writeLock().lock();
+                try {
+                    for (int i = 0; i < ids.length; i++) {
+                        register(ids[i], frames.get(i));
+                    }
+                    bySignature.putIfAbsent(signature, ids);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                after = signature;
+            }
+            processed += batch.size();
+        }
+        if (processed > 0) {
+            log.info("Encoded stack frames for {} crash signatures", processed);
+        }
+    }
+
+    private void loadCrashes() {
+        long afterId = 0;
+        while (true) {
+            List<Object[]> batch = crashRepository.findSignaturesAfterId(afterId, LOAD_BATCH);
+            if (batch.isEmpty()) break;
+
+            for (Object[] row : batch) {
+                long crashId = ((Number) row[0]).longValue();
+                if (row[1] != null) {
+                    // Свои фреймы у каждого краша: в группе совпадают только верхние
+                    add(crashId, (String) row[1], row[2] != null ? FrameIds.decode((byte[]) row[2]) : null);
+                }
+                afterId = crashId;
+            }
+        }
+    }
+
+    public record Entry(String name, long crashes) {
+    }
+
+    public record Matches(long total, List<Long> latestCrashIds) {
+    }
+
+    /**
+     * Строка <-> плотный int id и битмап крашей на каждый id
+     */
+    private static class Terms {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<RoaringBitmap> postings = new ArrayList<>();
+
+        int intern(String name) {
+            Integer id = ids.get(name);
+            if (id != null) return id;
+            ids.put(name, names.size());
+            names.add(name);
+            postings.add(new RoaringBitmap());
+            return names.size() - 1;
+        }
+
+        int size() {
+            return names.size();
+        }
+    }
+}
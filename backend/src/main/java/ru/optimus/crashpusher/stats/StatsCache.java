@@ -0,0 +1,156 @@
+package ru.optimus.crashpusher.stats;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Кэш ответов статистики перед {@code StatsService}.
+ * <p>
+ * Ключ — имя запроса с параметрами плюс {@link DataVersion}, поэтому после приема краша старые ответы
+ * просто перестают совпадать (версия меняется не чаще раза в несколько секунд). Одновременные промахи по одному
+ * ключу ждут одно и то же вычисление. Запросы, к которым недавно обращались, после смены версии пересчитываются
+ * в фоне, так что толпа браузеров после инцидента попадает в уже прогретый кэш. Размеры кэша и списка горячих
+ * запросов ограничены, TTL задается на ключ; параметры в имени запроса вызывающий код нормализует сам.
+ */
+@Slf4j
+@Component
+public class StatsCache {
+
+    /**
+     * Сколько запрос считается "горячим" после последнего обращения
+     */
+    private static final Duration HOT_TTL = Duration.ofMinutes(5);
+
+    /**
+     * TTL ответов, посчитанных относительно текущего времени — меньше шага их ETag
+     */
+    public static final Duration TIME_TTL = Duration.ofSeconds(30);
+
+    /**
+     * TTL ответов, которые меняются только вместе с версией данных
+     */
+    public static final Duration DATA_TTL = Duration.ofMinutes(10);
+
+    private final DataVersion dataVersion;
+    private final ExecutorService executor;
+    private final AsyncCache<String, Loaded> cache;
+    private final Cache<String, Hot> hot;
+    private final AtomicLong refreshes = new AtomicLong();
+    private volatile long refreshedVersion;
+
+    public StatsCache(DataVersion dataVersion,
+                      @Value("${crash.stats.cache.max-size:500}") long maxSize,
+                      @Value("${crash.stats.cache.loader-threads:4}") int loaderThreads,
+                      @Value("${crash.stats.cache.max-hot:200}") long maxHot) {
+        this.dataVersion = dataVersion;
+        this.refreshedVersion = dataVersion.current();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, loaderThreads),
+                Thread.ofPlatform().daemon().name("stats-cache-", 0).factory());
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(Expiry.<String, Loaded>creating((key, loaded) -> loaded.ttl()))
+                .executor(executor)
+                .recordStats()
+                .buildAsync();
+        this.hot = Caffeine.newBuilder()
+                .maximumSize(maxHot)
+                .expireAfterAccess(HOT_TTL)
+                .build();
+    }
+
+    /**
+     * Ответ из кэша или вычисленный {@code loader}; одновременные вызовы с тем же {@code name} вычисляют его один раз
+     *
+     * @param name имя запроса вместе со всеми параметрами
+     */
+    public Map<String, Object> get(String name, Duration ttl, Supplier<Map<String, Object>> loader) {
+        return get(name, dataVersion.current(), ttl, loader);
+    }
+
+    /**
+     * То же для заранее зафиксированной версии — несколько ответов одного снимка берутся из одной версии кэша
+     */
+    public Map<String, Object> get(String name, long version, Duration ttl, Supplier<Map<String, Object>> loader) {
+        try {
+            return getAsync(name, version, ttl, loader).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Без ожидания: вычисление идет на пуле кэша, так что несколько ответов можно запросить параллельно
+     */
+    public CompletableFuture<Map<String, Object>> getAsync(String name, long version, Duration ttl,
+                                                           Supplier<Map<String, Object>> loader) {
+        hot.put(name, new Hot(ttl, loader));
+        return load(name, version, ttl, loader).thenApply(Loaded::value);
+    }
+
+    /**
+     * После смены версии данных пересчитываем горячие запросы в фоне и выбрасываем ответы старых версий
+     */
+    @Scheduled(fixedDelayString = "${crash.stats.cache.refresh-interval-ms:1000}")
+    public void refresh() {
+        long version = dataVersion.current();
+        if (version == refreshedVersion) return;
+        refreshedVersion = version;
+
+        hot.asMap().forEach((name, h) -> {
+            load(name, version, h.ttl(), h.loader());
+            refreshes.incrementAndGet();
+        });
+
+        String suffix = "@" + version;
+        cache.synchronous().asMap().keySet().removeIf(key -> !key.endsWith(suffix));
+    }
+
+    public Map<String, Object> getMetrics() {
+        CacheStats stats = cache.synchronous().stats();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("size", cache.synchronous().estimatedSize());
+        metrics.put("hits", stats.hitCount());
+        metrics.put("misses", stats.missCount());
+        metrics.put("hitRate", stats.requestCount() > 0 ? Math.round(stats.hitRate() * 1000) / 10.0 : 0.0);
+        metrics.put("loads", stats.loadCount());
+        metrics.put("loadFailures", stats.loadFailureCount());
+        metrics.put("averageLoadMillis", Math.round(stats.averageLoadPenalty() / 1e5) / 10.0);
+        metrics.put("evictions", stats.evictionCount());
+        metrics.put("backgroundRefreshes", refreshes.get());
+        metrics.put("hotQueries", hot.estimatedSize());
+        metrics.put("version", dataVersion.current());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<Loaded> load(String name, long version, Duration ttl, Supplier<Map<String, Object>> loader) {
+        return cache.get(name + "@" + version, (key, pool) ->
+                CompletableFuture.supplyAsync(() -> new Loaded(loader.get(), ttl), pool));
+    }
+
+    private record Loaded(Map<String, Object> value, Duration ttl) {
+    }
+
+    private record Hot(Duration ttl, Supplier<Map<String, Object>> loader) {
+    }
+}
@@ -0,0 +1,278 @@
+package ru.optimus.crashpusher.stats;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.optimus.crashpusher.event.CrashFixChangedEvent;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.event.SignatureFixChangedEvent;
+import ru.optimus.crashpusher.repository.CrashRepository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Счетчики дашборда в памяти: всего / исправлено, по часам суток и дням недели, по типам исключений
+ * и по игрокам. Временные ряды лежат в {@link CrashRollups}. Обновляются на приеме краша и смене статуса исправления,
+ * поэтому запросы статистики не ходят в БД.
+ * <p>
+ * На старте счетчики собираются агрегатными запросами, затем периодически пересобираются заново
+ * (сверка с БД). Пересборка идет в отдельный набор счетчиков из одного снимка (REPEATABLE READ) до зафиксированного
+ * максимального id; краши, принятые за это время, дописываются в него из событий, после чего наборы подменяются.
+ * Краши с id не больше зафиксированного могут закоммититься уже после снимка — их события копятся и перед
+ * подменой сверяются со снимком по id.
+ */
+@Slf4j
+@Component
+public class StatsEngine {
+
+    private final CrashRepository crashRepository;
+    private final TransactionTemplate snapshot;
+
+    private volatile Counters current = new Counters();
+    private volatile Counters rebuilding;
+
+    // События пересборки, которые нельзя отнести по id: снимок их мог и не увидеть
+    private final List<CrashIngestedEvent> late = new ArrayList<>();
+
+    // Обработчики событий берут read-блокировку (параллельно друг другу), подмена набора — write
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    public StatsEngine(CrashRepository crashRepository, PlatformTransactionManager transactionManager) {
+        this.crashRepository = crashRepository;
+        this.snapshot = new TransactionTemplate(transactionManager);
+        this.snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshot.setReadOnly(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        rebuild();
+        Counters counters = current;
+        log.info("Stats engine loaded: {} crashes, {} players", counters.total.sum(), counters.byPlayer.size());
+    }
+
+    /**
+     * Сверка с БД: пересобираем счетчики целиком, накопившийся дрейф (например, изменения статуса
+     * исправления, пришедшие во время прошлой пересборки) исчезает
+     */
+    @Scheduled(initialDelayString = "${crash.stats.reconcile-interval-ms:600000}",
+            fixedDelayString = "${crash.stats.reconcile-interval-ms:600000}")
+    public void reconcile() {
+        long before = current.total.sum();
+        rebuild();
+        long after = current.total.sum();
+        log.debug("Stats engine reconciled: {} -> {} crashes", before, after);
+    }
+
+    private synchronized void rebuild() {
+        // Набор публикуется до снимка: пока maxId не прочитан, все события копятся в late
+        Counters counters = new Counters();
+        rebuilding = counters;
+        try {
+            snapshot.executeWithoutResult(status -> {
+                counters.maxId = crashRepository.findMaxId();
+                for (Object[] row : crashRepository.countByHourUpTo(counters.maxId)) {
+                    counters.addHour(toLocalDateTime(row[0]), ((Number) row[1]).longValue(), ((Number) row[2]).longValue());
+                }
+                for (Object[] row : crashRepository.countByExceptionUpTo(counters.maxId)) {
+                    counters.byException.computeIfAbsent((String) row[0], k -> new LongAdder()).add(((Number) row[1]).longValue());
+                }
+                for (Object[] row : crashRepository.countByUsernameUpTo(counters.maxId)) {
+                    counters.byPlayer.computeIfAbsent((String) row[0], k -> new LongAdder()).add(((Number) row[1]).longValue());
+                }
+
+                // Основную часть отложенных сверяем без блокировки, остаток — уже под ней, в том же снимке
+                replayLate(counters);
+                swapLock.writeLock().lock();
+                try {
+                    replayLate(counters);
+                    current = counters;
+                    rebuilding = null;
+                } finally {
+                    swapLock.writeLock().unlock();
+                }
+            });
+        } finally {
+            if (rebuilding == counters) {
+                rebuilding = null;
+            }
+            synchronized (late) {
+                late.clear();
+            }
+        }
+    }
+
+    /**
+     * Дописать в пересобираемый набор отложенные краши, которых нет в снимке
+     */
+    private void replayLate(Counters counters) {
+        List<CrashIngestedEvent> events;
+        synchronized (late) {
+            if (late.isEmpty()) return;
+            events = new ArrayList<>(late);
+            late.clear();
+        }
+        Set<Long> seen = new HashSet<>(crashRepository.findIdsUpTo(
+                events.stream().map(CrashIngestedEvent::crashId).toList(), counters.maxId));
+        for (CrashIngestedEvent event : events) {
+            if (!seen.contains(event.crashId())) {
+                counters.addCrash(event);
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashIngested(CrashIngestedEvent event) {
+        swapLock.readLock().lock();
+        try {
+            current.addCrash(event);
+            Counters next = rebuilding;
+            if (next != null) {
+                if (event.crashId() > next.maxId) {
+                    next.addCrash(event);
+                } else {
+                    synchronized (late) {
+                        late.add(event);
+                    }
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Событие публикуется только при реальной смене статуса, поэтому это ровно ±1
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCrashFixChanged(CrashFixChangedEvent event) {
+        long delta = event.fix() ? 1 : -1;
+        swapLock.readLock().lock();
+        try {
+            current.fixed.add(delta);
+            Counters next = rebuilding;
+            if (next != null && event.crashId() > next.maxId) {
+                next.fixed.add(delta);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSignatureFixChanged(SignatureFixChangedEvent event) {
+        // id затронутых крашей неизвестны — в пересобираемый набор не пишем, его поправит следующая сверка
+        current.fixed.add(event.fixed() ? event.crashesUpdated() : -event.crashesUpdated());
+    }
+
+    /**
+     * Всего крашей, исправленных и игроков — из одного набора счетчиков
+     */
+    public Totals totals() {
+        Counters counters = current;
+        return new Totals(counters.total.sum(), counters.fixed.sum(), counters.byPlayer.size());
+    }
+
+    /**
+     * Краши по часу суток, индекс — час
+     */
+    public long[] byHourOfDay() {
+        return sums(current.byHour);
+    }
+
+    /**
+     * Краши по дню недели, индекс 0 — понедельник
+     */
+    public long[] byDayOfWeek() {
+        return sums(current.byDayOfWeek);
+    }
+
+    public List<Map.Entry<String, Long>> topExceptions(int limit) {
+        return top(current.byException, limit);
+    }
+
+    public record Totals(long crashes, long fixed, long players) {
+    }
+
+    private static List<Map.Entry<String, Long>> top(Map<String, LongAdder> counters, int limit) {
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            long value = entry.getValue().sum();
+            if (value <= 0) continue;
+            if (heap.size() < limit) {
+                heap.add(Map.entry(entry.getKey(), value));
+            } else if (!heap.isEmpty() && value > heap.peek().getValue()) {
+                heap.poll();
+                heap.add(Map.entry(entry.getKey(), value));
+            }
+        }
+
+        List<Map.Entry<String, Long>> result = new ArrayList<>(heap);
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return result;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] result = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            result[i] = adders[i].sum();
+        }
+        return result;
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    private static final class Counters {
+
+        /**
+         * Последний id в снимке; до чтения снимка — Long.MAX_VALUE
+         */
+        volatile long maxId = Long.MAX_VALUE;
+        final LongAdder total = new LongAdder();
+        final LongAdder fixed = new LongAdder();
+        final LongAdder[] byHour = adders(24);
+        final LongAdder[] byDayOfWeek = adders(7);
+        final ConcurrentHashMap<String, LongAdder> byException = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, LongAdder> byPlayer = new ConcurrentHashMap<>();
+
+        void addCrash(CrashIngestedEvent event) {
+            addHour(event.createdAt().truncatedTo(ChronoUnit.HOURS), 1, 0);
+            if (event.exceptionClass() != null) {
+                byException.computeIfAbsent(event.exceptionClass(), k -> new LongAdder()).increment();
+            }
+            if (event.username() != null) {
+                byPlayer.computeIfAbsent(event.username(), k -> new LongAdder()).increment();
+            }
+        }
+
+        void addHour(LocalDateTime hour, long count, long fixedCount) {
+            total.add(count);
+            fixed.add(fixedCount);
+            byHour[hour.getHour()].add(count);
+            byDayOfWeek[hour.getDayOfWeek().getValue() - 1].add(count);
+        }
+
+        private static LongAdder[] adders(int size) {
+            LongAdder[] adders = new LongAdder[size];
+            for (int i = 0; i < size; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.optimus.crashpusher.analysis;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrashSignaturesTest {
+
+    @Test
+    void sameBugWithDifferentTimeAndLinesGivesSameSignature() {
+        String first = """
+                ---- Minecraft Crash Report ----
+                Time: 2024-01-01 10:00:00
+                java.lang.NullPointerException: Cannot invoke "Object.toString()"
+                \tat net.example.Foo.tick(Foo.java:42)
+                \tat net.example.Bar.run(Bar.java:7)
+                """;
+        String second = """
+                ---- Minecraft Crash Report ----
+                Time: 2024-02-03 18:30:12
+                java.lang.NullPointerException: Cannot invoke "Object.toString()" on null
+                \tat net.example.Foo.tick(Foo.java:45)
+                \tat net.example.Bar.run(Bar.java:9)
+                """;
+
+        assertEquals(CrashSignatures.of(first), CrashSignatures.of(second));
+    }
+
+    @Test
+    void differentExceptionOrFramesGiveDifferentSignatures() {
+        String npe = "java.lang.NullPointerException: boom\n\tat net.example.Foo.tick(Foo.java:42)";
+        String ise = "java.lang.IllegalStateException: boom\n\tat net.example.Foo.tick(Foo.java:42)";
+        String otherFrame = "java.lang.NullPointerException: boom\n\tat net.example.Baz.tick(Baz.java:42)";
+
+        assertNotEquals(CrashSignatures.of(npe), CrashSignatures.of(ise));
+        assertNotEquals(CrashSignatures.of(npe), CrashSignatures.of(otherFrame));
+    }
+
+    @Test
+    void onlyTopFramesAreSignificant() {
+        StringBuilder first = new StringBuilder("java.lang.RuntimeException: boom\n");
+        StringBuilder second = new StringBuilder(first);
+        for (int i = 0; i < CrashSignatures.TOP_FRAMES; i++) {
+            first.append("\tat net.example.C").append(i).append(".m(C.java:1)\n");
+            second.append("\tat net.example.C").append(i).append(".m(C.java:2)\n");
+        }
+        first.append("\tat net.example.Deep.first(Deep.java:1)\n");
+        second.append("\tat net.example.Deep.second(Deep.java:1)\n");
+
+        assertEquals(CrashSignatures.of(first.toString()), CrashSignatures.of(second.toString()));
+    }
+
+    @Test
+    void withoutFramesNumbersInMessageAreIgnored() {
+        String first = "java.lang.OutOfMemoryError: Failed to allocate 1048576 bytes at 0x7ffd1a2b";
+        String second = "java.lang.OutOfMemoryError: Failed to allocate 2097152 bytes at 0x7ffd9f00";
+        String other = "java.lang.OutOfMemoryError: Metaspace";
+
+        assertEquals(CrashSignatures.of(first), CrashSignatures.of(second));
+        assertNotEquals(CrashSignatures.of(first), CrashSignatures.of(other));
+    }
+
+    @Test
+    void unknownCrashFallsBackToContent() {
+        assertEquals(CrashSignatures.of("game closed unexpectedly"), CrashSignatures.of("game closed unexpectedly"));
+        assertNotEquals(CrashSignatures.of("game closed unexpectedly"), CrashSignatures.of("game froze"));
+        assertEquals(32, CrashSignatures.of(null).length());
+    }
+}
@@ -0,0 +1,35 @@
+package ru.optimus.crashpusher.analysis;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameIdsTest {
+
+    @Test
+    void roundTripsIdsOfEveryVarintLength() {
+        // 1, 2, 3, 4 и 5 байт: граница 2^14 — первый id, которому нужен третий байт
+        int[] ids = {0, 1, 127, 128, 16_383, 16_384, 16_385, 2_097_151, 2_097_152, 268_435_456, Integer.MAX_VALUE};
+
+        assertArrayEquals(ids, FrameIds.decode(FrameIds.encode(ids)));
+    }
+
+    @Test
+    void usesThreeBytesFrom2To14() {
+        assertEquals(2, FrameIds.encode(new int[]{(1 << 14) - 1}).length);
+        assertEquals(3, FrameIds.encode(new int[]{1 << 14}).length);
+    }
+
+    @Test
+    void keepsOrderAndDuplicates() {
+        int[] ids = {70_000, 5, 70_000, 1 << 20, 5};
+
+        assertArrayEquals(ids, FrameIds.decode(FrameIds.encode(ids)));
+    }
+
+    @Test
+    void decodesEmptyAndNull() {
+        assertArrayEquals(new int[0], FrameIds.decode(FrameIds.encode(new int[0])));
+        assertArrayEquals(new int[0], FrameIds.decode(null));
+    }
+}
@@ -0,0 +1,60 @@
+package ru.optimus.crashpusher.analysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MinHashTest {
+
+    @Test
+    void identicalSetsAreFullySimilar() {
+        int[] a = MinHash.of(frames(0, 100));
+        int[] b = MinHash.of(frames(0, 100).reversed());
+
+        assertEquals(1.0, MinHash.similarity(a, b));
+    }
+
+    @Test
+    void disjointSetsAreAlmostDissimilar() {
+        double similarity = MinHash.similarity(MinHash.of(frames(0, 100)), MinHash.of(frames(100, 200)));
+
+        assertTrue(similarity >= 0.0 && similarity <= 0.1, "similarity " + similarity);
+    }
+
+    @Test
+    void estimatesJaccardOfOverlappingSets() {
+        // 50 общих из 150 — коэффициент Жаккара 1/3
+        double similarity = MinHash.similarity(MinHash.of(frames(0, 100)), MinHash.of(frames(50, 150)));
+
+        assertEquals(1.0 / 3, similarity, 0.15);
+    }
+
+    @Test
+    void similarityStaysWithinBounds() {
+        for (int shift = 0; shift <= 40; shift += 5) {
+            double similarity = MinHash.similarity(MinHash.of(frames(0, 20)), MinHash.of(frames(shift, shift + 20)));
+            assertTrue(similarity >= 0.0 && similarity <= 1.0, "similarity " + similarity);
+        }
+    }
+
+    @Test
+    void emptySetHasNoSignature() {
+        assertNull(MinHash.of(List.of()));
+        assertArrayEquals(new byte[0], MinHash.toBytes(null));
+        assertNull(MinHash.fromBytes(new byte[0]));
+    }
+
+    @Test
+    void roundTripsThroughBytes() {
+        int[] signature = MinHash.of(frames(0, 10));
+
+        assertArrayEquals(signature, MinHash.fromBytes(MinHash.toBytes(signature)));
+    }
+
+    private static List<String> frames(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "net.example.Class" + i + ".method").toList();
+    }
+}
@@ -0,0 +1,72 @@
+package ru.optimus.crashpusher.analysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StackFramesTest {
+
+    @Test
+    void dropsLineNumbersAndModulePrefixes() {
+        String trace = """
+                java.lang.IllegalStateException: boom
+                \tat java.base/java.lang.Thread.run(Thread.java:833)
+                \tat app//net.minecraft.client.Minecraft.tick(Minecraft.java:1842)
+                \tat TRANSFORMER/minecraft@1.20.1/net.minecraft.world.level.Level.tick(Level.java:10)
+                """;
+
+        assertEquals(List.of("java.lang.Thread.run", "net.minecraft.client.Minecraft.tick", "net.minecraft.world.level.Level.tick"),
+                List.copyOf(StackFrames.extract(trace)));
+    }
+
+    @Test
+    void normalizesGeneratedLambdaNames() {
+        assertEquals("net.example.Foo.lambda$tick", StackFrames.normalize("net.example.Foo.lambda$tick$3"));
+        assertEquals("net.example.Foo$$Lambda.run", StackFrames.normalize("net.example.Foo$$Lambda$1234/0x0000000801234c00.run"));
+        assertEquals("net.example.Foo$$Lambda.run", StackFrames.normalize("net.example.Foo$$Lambda/0x0000000801234c00.run"));
+        assertEquals("net.example.Foo$Inner.run", StackFrames.normalize("net.example.Foo$Inner.run"));
+    }
+
+    @Test
+    void sameBugOnDifferentBuildsGivesSameFrames() {
+        String first = "\tat net.example.Foo.lambda$tick$3(Foo.java:42)\n\tat net.example.Bar.run(Bar.java:7)";
+        String second = "\tat net.example.Foo.lambda$tick$7(Foo.java:45)\n\tat net.example.Bar.run(Bar.java:9)";
+
+        assertEquals(StackFrames.extract(first), StackFrames.extract(second));
+    }
+
+    @Test
+    void keepsUniqueFramesInOrderOfAppearance() {
+        String trace = "\tat a.B.c(B.java:1)\n\tat d.E.f(E.java:2)\n\tat a.B.c(B.java:3)";
+
+        assertEquals(List.of("a.B.c", "d.E.f"), List.copyOf(StackFrames.extract(trace)));
+    }
+
+    @Test
+    void capsFramesAndLength() {
+        StringBuilder trace = new StringBuilder();
+        for (int i = 0; i < StackFrames.MAX_FRAMES + 50; i++) {
+            trace.append("\tat net.example.C").append(i).append(".m(C.java:1)\n");
+        }
+        assertEquals(StackFrames.MAX_FRAMES, StackFrames.extract(trace.toString()).size());
+
+        Set<String> longFrame = StackFrames.extract("\tat " + "a".repeat(StackFrames.MAX_FRAME_LENGTH + 100) + ".m(A.java:1)");
+        assertEquals(StackFrames.MAX_FRAME_LENGTH, longFrame.iterator().next().length());
+    }
+
+    @Test
+    void ignoresTextWithoutFrames() {
+        assertTrue(StackFrames.extract(null).isEmpty());
+        assertTrue(StackFrames.extract("").isEmpty());
+        assertTrue(StackFrames.extract("Description: Ticking entity\nat the end of the world").isEmpty());
+    }
+
+    @Test
+    void extractsPackageOfFrame() {
+        assertEquals("net.minecraft.client", StackFrames.packageOf("net.minecraft.client.Foo$Bar.run"));
+        assertNull(StackFrames.packageOf("Foo.run"));
+    }
+}
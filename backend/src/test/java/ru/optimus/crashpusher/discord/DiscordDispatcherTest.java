@@ -0,0 +1,115 @@
+package ru.optimus.crashpusher.discord;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DiscordDispatcherTest {
+
+    private DiscordBot bot;
+    private DiscordDispatcher dispatcher;
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        bot = mock(DiscordBot.class);
+        when(bot.isConnected()).thenReturn(true);
+        doAnswer(call -> sent.add(call.getArgument(0))).when(bot).send(anyString(), any(), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void repeatsOfSignatureGoIntoOneDigest() throws Exception {
+        dispatcher = new DiscordDispatcher(bot, 16, 1, 0);
+        dispatcher.start();
+
+        CompletableFuture<Void> first = submit(1, "alex");
+        CompletableFuture<Void> second = submit(2, "steve");
+        CompletableFuture<Void> third = submit(3, "steve");
+
+        first.get(5, TimeUnit.SECONDS);
+        assertFalse(second.isDone(), "digested crash is delivered only with the digest");
+        assertTrue(DiscordDispatcher.awaitsDigest(second));
+
+        CompletableFuture.allOf(second, third).get(5, TimeUnit.SECONDS);
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(0).startsWith("full "));
+        assertTrue(sent.get(1).contains("×2"), sent.get(1));
+        assertTrue(sent.get(1).contains("steve"), sent.get(1));
+    }
+
+    @Test
+    void resubmittedCrashIsNotCountedTwice() throws Exception {
+        dispatcher = new DiscordDispatcher(bot, 16, 1, 0);
+        dispatcher.start();
+
+        submit(1, "alex").get(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> repeat = submit(2, "alex");
+        // Истекла аренда строки outbox — тот же краш пришел снова
+        assertSame(repeat, submit(2, "alex"));
+
+        repeat.get(5, TimeUnit.SECONDS);
+        assertTrue(sent.get(1).contains("×1"), sent.get(1));
+    }
+
+    @Test
+    void extraPlayersAreCountedOncePerName() throws Exception {
+        dispatcher = new DiscordDispatcher(bot, 16, 1, 0);
+        dispatcher.start();
+
+        submit(1, "first").get(5, TimeUnit.SECONDS);
+        long id = 2;
+        for (String player : List.of("p1", "p2", "p3", "p4", "p5", "extra1", "extra2")) {
+            // Каждый игрок сверх первых пяти крашится несколько раз
+            for (int i = 0; i < 3; i++) {
+                submit(id++, player);
+            }
+        }
+        CompletableFuture<Void> last = submit(id, "extra2");
+
+        last.get(5, TimeUnit.SECONDS);
+        String digest = sent.get(1);
+        assertTrue(digest.contains("и другие (2)"), digest);
+        assertTrue(digest.contains("×22"), digest);
+    }
+
+    @Test
+    void rejectedFirstCrashDoesNotOpenDigest() {
+        when(bot.isConnected()).thenReturn(false);
+        dispatcher = new DiscordDispatcher(bot, 1, 60, 0);
+        dispatcher.start();
+        dispatcher.submit("fills the queue");
+
+        CompletableFuture<Void> first = submit(1, "alex");
+        CompletableFuture<Void> next = submit(2, "alex");
+
+        assertTrue(first.isCompletedExceptionally());
+        // Окна нет — следующий краш снова идет полным сообщением, а не в дайджест
+        assertFalse(DiscordDispatcher.awaitsDigest(next));
+        assertEquals(0L, dispatcher.getMetrics().get("coalesced"));
+        assertEquals(0, dispatcher.getMetrics().get("openDigests"));
+        Exception e = assertThrows(Exception.class, () -> next.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+    private CompletableFuture<Void> submit(long crashId, String player) {
+        return dispatcher.submitCrash("sig", crashId, player, "NPE in Foo.tick",
+                () -> new DiscordDispatcher.Notification("full " + crashId, null, null));
+    }
+}
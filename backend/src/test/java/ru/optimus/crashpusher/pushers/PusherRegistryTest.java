@@ -0,0 +1,121 @@
+package ru.optimus.crashpusher.pushers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PusherRegistryTest {
+
+    private PusherRegistry registry;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (registry != null) {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    void everySinkReceivesEveryCrash() throws InterruptedException {
+        MemoryPusher first = new MemoryPusher(10);
+        MemoryPusher second = new MemoryPusher(10) {
+            @Override
+            public String name() {
+                return "memory-2";
+            }
+        };
+        registry = new PusherRegistry(List.of(first, second), environment());
+
+        registry.onCrashIngested(event(1));
+        registry.onCrashIngested(event(2));
+
+        awaitReceived(first, 2);
+        awaitReceived(second, 2);
+        assertEquals(List.of("1", "2"), first.received().stream().map(data -> data.get("crash_id")).toList());
+        assertEquals("player", second.received().get(0).get("player_name"));
+    }
+
+    @Test
+    void failingSinkDoesNotBlockOthers() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        IPusher failing = new IPusher() {
+            @Override
+            public void push(Map<String, String> data) {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("sink is down");
+            }
+
+            @Override
+            public String name() {
+                return "failing";
+            }
+        };
+        MemoryPusher memory = new MemoryPusher(10);
+        registry = new PusherRegistry(List.of(failing, memory), environment());
+
+        for (int i = 1; i <= 3; i++) {
+            registry.onCrashIngested(event(i));
+        }
+
+        awaitReceived(memory, 3);
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((long) status("failing").get("discarded") < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(3L, status("failing").get("discarded"));
+        assertTrue(attempts.get() > 0);
+    }
+
+    @Test
+    void pushersOptedOutOfFanOutAreNotRegistered() {
+        IPusher ingest = new IPusher() {
+            @Override
+            public void push(Map<String, String> data) {
+                fail("should not receive saved crashes");
+            }
+
+            @Override
+            public boolean fanOut() {
+                return false;
+            }
+        };
+        registry = new PusherRegistry(List.of(ingest, new MemoryPusher(10)), environment());
+
+        assertEquals(List.of("memory"), registry.getStatus().stream().map(status -> status.get("name")).toList());
+    }
+
+    private Map<String, Object> status(String name) {
+        return registry.getStatus().stream()
+                .filter(status -> name.equals(status.get("name")))
+                .findFirst().orElseThrow();
+    }
+
+    private static MockEnvironment environment() {
+        return new MockEnvironment()
+                .withProperty("crash.sinks.failing.max-attempts", "1")
+                .withProperty("crash.sinks.memory.linger-ms", "0")
+                .withProperty("crash.sinks.memory-2.linger-ms", "0")
+                .withProperty("crash.sinks.failing.linger-ms", "0");
+    }
+
+    private static CrashIngestedEvent event(long id) {
+        return new CrashIngestedEvent(id, 1, "player", "sig" + id, "content " + id, "java.lang.RuntimeException",
+                LocalDateTime.now(), false, new int[0]);
+    }
+
+    private static void awaitReceived(MemoryPusher pusher, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pusher.received().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, pusher.received().size());
+    }
+}
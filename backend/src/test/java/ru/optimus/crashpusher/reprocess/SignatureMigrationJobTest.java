@@ -0,0 +1,97 @@
+package ru.optimus.crashpusher.reprocess;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.optimus.crashpusher.analysis.CrashSignatures;
+import ru.optimus.crashpusher.repository.CrashRepository;
+import ru.optimus.crashpusher.repository.CrashSignatureRepository;
+import ru.optimus.crashpusher.stats.CrashSignatureTracker;
+import ru.optimus.crashpusher.stats.CrashSimilarityIndex;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SignatureMigrationJobTest {
+
+    private static final String FIRST = """
+            ---- Minecraft Crash Report ----
+            Time: 2024-01-01 10:00:00
+            java.lang.NullPointerException: Cannot invoke "Object.toString()"
+            \tat net.example.Foo.tick(Foo.java:42)
+            \tat net.example.Bar.run(Bar.java:7)
+            """;
+    private static final String SECOND = """
+            ---- Minecraft Crash Report ----
+            Time: 2024-02-03 18:30:12
+            java.lang.NullPointerException: Cannot invoke "Object.toString()"
+            \tat net.example.Foo.tick(Foo.java:45)
+            \tat net.example.Bar.run(Bar.java:9)
+            """;
+
+    private CrashRepository crashRepository;
+    private CrashSignatureRepository signatureRepository;
+    private CrashSignatureTracker tracker;
+    private CrashSimilarityIndex similarityIndex;
+    private ReprocessingRunner runner;
+    private SignatureMigrationJob job;
+
+    @BeforeEach
+    void setUp() {
+        crashRepository = mock(CrashRepository.class);
+        signatureRepository = mock(CrashSignatureRepository.class);
+        tracker = mock(CrashSignatureTracker.class);
+        similarityIndex = mock(CrashSimilarityIndex.class);
+        runner = mock(ReprocessingRunner.class);
+        job = new SignatureMigrationJob(crashRepository, signatureRepository, tracker, similarityIndex, runner);
+    }
+
+    @Test
+    void firstUpgradeFromBaselineRegroupsAndRecomputesPlayers() {
+        // Базовое состояние: сигнатур нет, crash_signatures пустая — сиротских групп нет
+        when(crashRepository.updateSignatureByIds(anyCollection(), anyString(), anyInt()))
+                .thenAnswer(call -> call.<List<?>>getArgument(0).size());
+        when(signatureRepository.existsOrphaned()).thenReturn(false);
+        when(signatureRepository.existsUngrouped()).thenReturn(false);
+
+        job.process(List.of(new Object[]{1L, FIRST}, new Object[]{2L, SECOND}));
+        job.onComplete();
+
+        verify(crashRepository).updateSignatureByIds(List.of(1L, 2L), CrashSignatures.of(FIRST), CrashSignatures.VERSION);
+        verify(tracker).regroup();
+        verify(similarityIndex).reload();
+        verify(runner).rerun(PlayerAggregatesJob.NAME);
+    }
+
+    @Test
+    void regroupsWhenCrashesHaveNoGroupAfterInterruptedRun() {
+        when(signatureRepository.existsUngrouped()).thenReturn(true);
+
+        job.onComplete();
+
+        verify(tracker).regroup();
+        verify(runner).rerun(PlayerAggregatesJob.NAME);
+    }
+
+    @Test
+    void emptyPassOnRegularStartupDoesNothing() {
+        when(signatureRepository.existsUngrouped()).thenReturn(false);
+        when(signatureRepository.existsOrphaned()).thenReturn(false);
+
+        job.onComplete();
+
+        verifyNoInteractions(tracker, similarityIndex, runner);
+    }
+
+    @Test
+    void migratedCountIsResetBetweenPasses() {
+        when(crashRepository.updateSignatureByIds(anyCollection(), anyString(), anyInt())).thenReturn(1);
+
+        job.process(List.<Object[]>of(new Object[]{1L, FIRST}));
+        job.onComplete();
+        job.onComplete();
+
+        verify(tracker, times(1)).regroup();
+    }
+}
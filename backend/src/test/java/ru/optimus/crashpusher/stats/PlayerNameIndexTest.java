@@ -0,0 +1,122 @@
+package ru.optimus.crashpusher.stats;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.repository.UserCrashRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PlayerNameIndexTest {
+
+    private UserCrashRepository userCrashRepository;
+    private PlayerNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        userCrashRepository = mock(UserCrashRepository.class);
+        names(new Object[]{1L, "Steve"}, new Object[]{2L, "alex"}, new Object[]{3L, "Stevenson"},
+                new Object[]{4L, "BigSteve"}, new Object[]{5L, "notch"}, new Object[]{6L, "xXsteveXx"});
+        index = new PlayerNameIndex(userCrashRepository);
+        index.rebuild();
+    }
+
+    @Test
+    void prefixMatchesComeFirstThenInfix() {
+        assertEquals(List.of("Steve", "Stevenson", "BigSteve", "xXsteveXx"), usernames(index.suggest("steve", 10)));
+    }
+
+    @Test
+    void queryIsCaseInsensitiveAndKeepsOriginalCase() {
+        assertEquals(List.of("Steve", "Stevenson"), usernames(index.suggest("  STE ", 2)));
+        assertEquals(List.of("notch"), usernames(index.suggest("NoTcH", 10)));
+    }
+
+    @Test
+    void limitIsRespected() {
+        assertEquals(3, index.suggest("steve", 3).size());
+        assertEquals(List.of(), index.suggest("steve", 0));
+        assertEquals(List.of(), index.suggest("", 10));
+    }
+
+    @Test
+    void shortQueriesMatchOnlyByPrefix() {
+        // "ev" встречается внутри нескольких ников, но запрос короче триграммы
+        assertEquals(List.of(), index.suggest("ev", 10));
+        assertEquals(List.of("BigSteve"), usernames(index.suggest("bi", 10)));
+    }
+
+    @Test
+    void newPlayersAreVisibleBeforeAndAfterMerge() {
+        index.onCrashIngested(event(7, "Stevie"));
+        index.onCrashIngested(event(8, "MegaSteve"));
+
+        // Префиксные совпадения сливаются по алфавиту сразу, совпадения в середине ника из очереди идут последними
+        assertEquals(List.of("Steve", "Stevenson", "Stevie", "BigSteve", "xXsteveXx", "MegaSteve"),
+                usernames(index.suggest("stev", 10)));
+        assertEquals(8, index.size());
+
+        index.merge();
+
+        assertEquals(List.of("Steve", "Stevenson", "Stevie", "BigSteve", "MegaSteve", "xXsteveXx"),
+                usernames(index.suggest("stev", 10)));
+        assertEquals(8, index.size());
+    }
+
+    @Test
+    void knownPlayersAreNotDuplicated() {
+        index.onCrashIngested(event(1, "Steve"));
+        index.onCrashIngested(event(7, "Stevie"));
+        index.onCrashIngested(event(7, "Stevie"));
+
+        assertEquals(7, index.size());
+        assertEquals(List.of(1L, 3L, 7L), ids(index.suggest("stev", 3)));
+
+        index.merge();
+        index.onCrashIngested(event(7, "Stevie"));
+
+        assertEquals(7, index.size());
+        assertEquals(List.of(1L, 3L, 7L), ids(index.suggest("stev", 3)));
+    }
+
+    @Test
+    void samePlayerNameWithDifferentIdsIsKept() {
+        // В users_crash ник не уникален: игрок с тем же ником — другая запись
+        index.onCrashIngested(event(9, "steve"));
+
+        assertEquals(List.of(1L, 9L), ids(index.suggest("steve", 2)));
+    }
+
+    @Test
+    void rebuildReplacesPendingPlayers() {
+        index.onCrashIngested(event(7, "Stevie"));
+        names(new Object[]{1L, "Steve"});
+
+        index.rebuild();
+
+        assertEquals(1, index.size());
+        assertEquals(List.of("Steve"), usernames(index.suggest("stev", 10)));
+    }
+
+    private void names(Object[]... rows) {
+        when(userCrashRepository.findAllNames()).thenReturn(new ArrayList<>(List.of(rows)));
+    }
+
+    private static List<String> usernames(List<PlayerNameIndex.Suggestion> suggestions) {
+        return suggestions.stream().map(PlayerNameIndex.Suggestion::username).toList();
+    }
+
+    private static List<Long> ids(List<PlayerNameIndex.Suggestion> suggestions) {
+        return suggestions.stream().map(PlayerNameIndex.Suggestion::id).toList();
+    }
+
+    private static CrashIngestedEvent event(long userId, String username) {
+        return new CrashIngestedEvent(100 + userId, userId, username, "sig", "content", "java.lang.RuntimeException",
+                LocalDateTime.now(), false, new int[0]);
+    }
+}
@@ -0,0 +1,87 @@
+package ru.optimus.crashpusher.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlidingWindowCounterTest {
+
+    private static final int SHORT = 0;
+    private static final int LONG = 1;
+    private static final int ALL = 2;
+
+    @Test
+    void countsIntoEveryWindow() {
+        SlidingWindowCounter<String> counter = new SlidingWindowCounter<>(Duration.ofHours(1), 1, 24, SlidingWindowCounter.UNBOUNDED);
+        long now = System.currentTimeMillis();
+
+        counter.add("a", 2, now);
+        counter.add("a", 1, now);
+
+        assertEquals(3, counter.count("a", SHORT));
+        assertEquals(3, counter.count("a", LONG));
+        assertEquals(3, counter.count("a", ALL));
+        assertEquals(0, counter.count("missing", SHORT));
+    }
+
+    @Test
+    void oldEventsOnlyReachWiderWindows() {
+        SlidingWindowCounter<String> counter = new SlidingWindowCounter<>(Duration.ofHours(1), 1, 24, SlidingWindowCounter.UNBOUNDED);
+        long now = System.currentTimeMillis();
+
+        counter.add("a", 1, now - Duration.ofHours(3).toMillis());
+        counter.add("a", 1, now - Duration.ofDays(30).toMillis());
+
+        assertEquals(0, counter.count("a", SHORT));
+        assertEquals(1, counter.count("a", LONG));
+        assertEquals(2, counter.count("a", ALL));
+    }
+
+    @Test
+    void expiresBucketsAsTimePasses() throws InterruptedException {
+        SlidingWindowCounter<String> counter = new SlidingWindowCounter<>(Duration.ofMillis(100), 1, 10, SlidingWindowCounter.UNBOUNDED);
+        counter.add("a", 5, System.currentTimeMillis());
+        assertEquals(5, counter.count("a", SHORT));
+
+        // Не меньше двух корзин: короткое окно уже пусто, длинное (1 с) еще держит событие
+        Thread.sleep(250);
+
+        assertEquals(0, counter.count("a", SHORT));
+        assertEquals(5, counter.count("a", LONG));
+        assertEquals(5, counter.count("a", ALL));
+        assertTrue(counter.top(SHORT, 10).isEmpty());
+    }
+
+    @Test
+    void dropsKeysThatExpiredFromEveryBoundedWindow() throws InterruptedException {
+        SlidingWindowCounter<String> counter = new SlidingWindowCounter<>(Duration.ofMillis(50), 1, 2);
+        counter.add("a", 1, System.currentTimeMillis());
+
+        Thread.sleep(250);
+
+        assertEquals(0, counter.count("a", SHORT));
+        assertEquals(0, counter.count("a", LONG));
+        assertTrue(counter.top(LONG, 10).isEmpty());
+    }
+
+    @Test
+    void topIsOrderedAndLimited() {
+        SlidingWindowCounter<String> counter = new SlidingWindowCounter<>(Duration.ofHours(1), 1, SlidingWindowCounter.UNBOUNDED);
+        long now = System.currentTimeMillis();
+        counter.add("a", 1, now);
+        counter.add("b", 3, now);
+        counter.add("c", 2, now);
+
+        List<Map.Entry<String, Long>> top = counter.top(SHORT, 2);
+
+        assertEquals(List.of(Map.entry("b", 3L), Map.entry("c", 2L)), top);
+
+        // Кэш топа сбрасывается при изменении
+        counter.add("a", 5, now);
+        assertEquals("a", counter.top(SHORT, 1).get(0).getKey());
+    }
+}
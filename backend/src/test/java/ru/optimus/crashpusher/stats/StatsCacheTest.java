@@ -0,0 +1,119 @@
+package ru.optimus.crashpusher.stats;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsCacheTest {
+
+    private StatsCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentMissesLoadOnce() throws Exception {
+        DataVersion version = new DataVersion(0);
+        cache = new StatsCache(version, 100, 4, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Map<String, Object>> first = cache.getAsync("summary", version.current(), StatsCache.DATA_TTL, () -> {
+            loads.incrementAndGet();
+            await(release);
+            return Map.of("crashes", 1);
+        });
+        CompletableFuture<Map<String, Object>> second = cache.getAsync("summary", version.current(), StatsCache.DATA_TTL, () -> {
+            loads.incrementAndGet();
+            return Map.of("crashes", 2);
+        });
+        release.countDown();
+
+        assertEquals(Map.of("crashes", 1), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Map.of("crashes", 1), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void newDataVersionMissesOldAnswers() {
+        DataVersion version = new DataVersion(0);
+        cache = new StatsCache(version, 100, 1, 10);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(1, cache.get("summary", StatsCache.DATA_TTL, () -> Map.of("n", loads.incrementAndGet())).get("n"));
+        assertEquals(1, cache.get("summary", StatsCache.DATA_TTL, () -> Map.of("n", loads.incrementAndGet())).get("n"));
+
+        version.bump();
+
+        assertEquals(2, cache.get("summary", StatsCache.DATA_TTL, () -> Map.of("n", loads.incrementAndGet())).get("n"));
+    }
+
+    @Test
+    void refreshReloadsHotQueriesForNewVersion() throws InterruptedException {
+        DataVersion version = new DataVersion(0);
+        cache = new StatsCache(version, 100, 1, 10);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("summary", StatsCache.DATA_TTL, () -> Map.of("n", loads.incrementAndGet()));
+        version.bump();
+        cache.refresh();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loads.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Браузер после смены версии попадает в прогретый кэш
+        assertEquals(2, cache.get("summary", StatsCache.DATA_TTL, () -> Map.of("n", loads.incrementAndGet())).get("n"));
+        assertEquals(1L, cache.getMetrics().get("backgroundRefreshes"));
+    }
+
+    @Test
+    void failedLoadIsNotCached() throws InterruptedException {
+        DataVersion version = new DataVersion(0);
+        cache = new StatsCache(version, 100, 1, 10);
+
+        assertThrows(IllegalStateException.class, () -> cache.get("summary", StatsCache.DATA_TTL, () -> {
+            throw new IllegalStateException("db is down");
+        }));
+        // Caffeine убирает неудачную загрузку колбэком future, он может отработать чуть позже join
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((long) cache.getMetrics().get("size") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Map.of("n", 1), cache.get("summary", StatsCache.DATA_TTL, () -> Map.of("n", 1)));
+    }
+
+    @Test
+    void backgroundChangesArePublishedAtMostOncePerInterval() {
+        DataVersion version = new DataVersion(60_000);
+        long initial = version.current();
+
+        version.bump();
+        version.bump();
+        assertEquals(initial, version.current());
+
+        // Действие пользователя видно сразу и заодно публикует накопленные фоновые изменения
+        version.bumpNow();
+        assertEquals(initial + 3, version.current());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
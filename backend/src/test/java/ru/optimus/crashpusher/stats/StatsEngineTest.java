@@ -0,0 +1,154 @@
+package ru.optimus.crashpusher.stats;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import ru.optimus.crashpusher.event.CrashFixChangedEvent;
+import ru.optimus.crashpusher.event.CrashIngestedEvent;
+import ru.optimus.crashpusher.repository.CrashRepository;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StatsEngineTest {
+
+    private static final LocalDateTime HOUR = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+
+    private CrashRepository crashRepository;
+    private StatsEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        crashRepository = mock(CrashRepository.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(crashRepository.countByExceptionUpTo(anyLong())).thenReturn(List.of());
+        when(crashRepository.countByUsernameUpTo(anyLong())).thenReturn(List.of());
+        engine = new StatsEngine(crashRepository, transactionManager);
+    }
+
+    @Test
+    void loadsCountersFromSnapshot() {
+        snapshot(10, 10, 3);
+
+        engine.load();
+
+        assertEquals(10, engine.totals().crashes());
+        assertEquals(3, engine.totals().fixed());
+        assertEquals(10, engine.byHourOfDay()[HOUR.getHour()]);
+    }
+
+    @Test
+    void eventsDuringRebuildAreCountedOnce() {
+        snapshot(0, 0, 0);
+        engine.load();
+
+        // Снимок до id 10 видит 8 крашей: краш 8 уже в нем, краш 9 закоммитился после снимка, 11 — новый
+        when(crashRepository.findMaxId()).thenReturn(10L);
+        when(crashRepository.countByHourUpTo(10L)).thenAnswer(call -> {
+            engine.onCrashIngested(event(8));
+            engine.onCrashIngested(event(9));
+            engine.onCrashIngested(event(11));
+            List<Object[]> rows = new ArrayList<>();
+            rows.add(new Object[]{HOUR, 8L, 0L});
+            return rows;
+        });
+        when(crashRepository.findIdsUpTo(anyCollection(), eq(10L))).thenAnswer(call ->
+                call.<Collection<Long>>getArgument(0).stream().filter(id -> id <= 8).toList());
+
+        engine.reconcile();
+
+        assertEquals(10, engine.totals().crashes());
+    }
+
+    @Test
+    void fixChangesDuringRebuildApplyOnlyToCrashesAfterSnapshot() {
+        snapshot(0, 0, 0);
+        engine.load();
+
+        when(crashRepository.findMaxId()).thenReturn(5L);
+        when(crashRepository.countByHourUpTo(5L)).thenAnswer(call -> {
+            engine.onCrashIngested(event(6));
+            // Краш 3 в снимке уже посчитан исправленным, краш 6 — нет
+            engine.onCrashFixChanged(new CrashFixChangedEvent(3, "sig", true));
+            engine.onCrashFixChanged(new CrashFixChangedEvent(6, "sig", true));
+            List<Object[]> rows = new ArrayList<>();
+            rows.add(new Object[]{HOUR, 5L, 1L});
+            return rows;
+        });
+        when(crashRepository.findIdsUpTo(anyCollection(), eq(5L))).thenReturn(List.of());
+
+        engine.reconcile();
+
+        assertEquals(6, engine.totals().crashes());
+        assertEquals(2, engine.totals().fixed());
+    }
+
+    @Test
+    void concurrentIngestAcrossSwapIsCountedExactlyOnce() throws InterruptedException {
+        snapshot(0, 0, 0);
+        engine.load();
+
+        // Снимок до id 2000 видит краши 1..500; 501..1500 закоммитятся после снимка, с 2001 — новые
+        long maxId = 2000;
+        int threads = 4;
+        int perThread = 500;
+        AtomicLong nextLate = new AtomicLong(500);
+        AtomicLong nextNew = new AtomicLong(maxId);
+        CountDownLatch started = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        when(crashRepository.findMaxId()).thenReturn(maxId);
+        when(crashRepository.countByHourUpTo(maxId)).thenAnswer(call -> {
+            // Потоки шлют события все время пересборки и после подмены наборов
+            for (int t = 0; t < threads; t++) {
+                executor.submit(() -> {
+                    started.countDown();
+                    for (int i = 0; i < perThread; i++) {
+                        long id = i % 2 == 0 ? nextLate.incrementAndGet() : nextNew.incrementAndGet();
+                        engine.onCrashIngested(event(id));
+                    }
+                });
+            }
+            started.await();
+            List<Object[]> rows = new ArrayList<>();
+            rows.add(new Object[]{HOUR, 500L, 0L});
+            return rows;
+        });
+        when(crashRepository.findIdsUpTo(anyCollection(), eq(maxId))).thenAnswer(call ->
+                call.<Collection<Long>>getArgument(0).stream().filter(id -> id <= 500).toList());
+
+        engine.reconcile();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(500 + threads * perThread, engine.totals().crashes());
+    }
+
+    private void snapshot(long maxId, long crashes, long fixed) {
+        when(crashRepository.findMaxId()).thenReturn(maxId);
+        List<Object[]> rows = new ArrayList<>();
+        if (crashes > 0) {
+            rows.add(new Object[]{HOUR, crashes, fixed});
+        }
+        when(crashRepository.countByHourUpTo(maxId)).thenReturn(rows);
+    }
+
+    private static CrashIngestedEvent event(long id) {
+        return new CrashIngestedEvent(id, 1, "player", "sig", "content", "java.lang.RuntimeException",
+                HOUR, false, new int[0]);
+    }
+}
@@ -8,6 +8,7 @@ import GlobalCrashesPage from "./pages/GlobalCrashesPage";
 import StatsPage from "./pages/StatsPage";
 import UploadPage from "./pages/UploadPage";
 import ExceptionDetailPage from "./pages/ExceptionDetailPage";
+import CrashPage from "./pages/CrashPage";
 import AuthPage from "./components/AuthPage";
 import ProtectedRoute from "./components/ProtectedRoute";
 import AdminFilesPage from "./components/AdminFilesPage"
@@ -95,6 +96,14 @@ export default function App() {
           </Layout>
         </ProtectedRoute>
       } />
+
+      <Route path="/crash/:id" element={
+        <ProtectedRoute requiredRoles={['ADMIN']}>
+          <Layout>
+            <CrashPage />
+          </Layout>
+        </ProtectedRoute>
+      } />
       
       {/* Корневой путь - на dashboard */}
       <Route path="/" element={
@@ -40,16 +40,27 @@ export const fetchCrashById = (id) => api.get(`/crashes/${id}`).then(r => r.data
 export const fetchGlobalCrashes = (params) =>
   api.get("/crashes", { params }).then(r => r.data);
 
+// one page of GET /crashes with the total from X-Total-Count -> {items, total}
+export const fetchGlobalCrashesPage = (params) =>
+  api.get("/crashes", { params }).then(r => ({
+    items: r.data,
+    total: Number(r.headers["x-total-count"] ?? r.data.length),
+  }));
+
 // top crashes (analytics)
 export const fetchTopCrashes = (limit = 10) =>
   api.get("/crashes/top", { params: { limit } }).then(r => r.data);
 
-// update crash fix status: PATCH /crashes/:id/fix
-export const updateCrashFixStatus = (crashId, isFixed) =>
-  api.patch(`/crashes/${crashId}/fix`, { isFix: isFixed }).then(r => r.data);
+// update crash fix status: PATCH /crashes/:id/fix (group = true - whole signature group)
+export const updateCrashFixStatus = (crashId, isFixed, group = false) =>
+  api.patch(`/crashes/${crashId}/fix`, { isFix: isFixed }, { params: group ? { group } : undefined }).then(r => r.data);
 
 // ========== STATISTICS ENDPOINTS ==========
 
+// Whole stats page in one request
+export const fetchDashboard = (period = "7d") =>
+  api.get("/stats/dashboard", { params: { period, topPlayersLimit: 10, exceptionsLimit: 15, hours: 24 } }).then(r => r.data);
+
 // Overall statistics
 export const fetchOverallStats = () => api.get("/stats/overall").then(r => r.data);
 
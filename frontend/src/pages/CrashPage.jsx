@@ -0,0 +1,42 @@
+import React, { useEffect, useState } from "react";
+import { fetchCrashById } from "../api/crashApi";
+import { useParams } from "react-router-dom";
+import CrashViewer from "../components/CrashViewer";
+
+// Полный отчет одного краша — на него ведет ссылка из уведомления в Discord
+export default function CrashPage() {
+  const { id } = useParams();
+  const [crash, setCrash] = useState(null);
+  const [loading, setLoading] = useState(true);
+  const [error, setError] = useState(false);
+
+  useEffect(() => {
+    const load = async () => {
+      setLoading(true);
+      setError(false);
+      try {
+        setCrash(await fetchCrashById(id));
+      } catch (e) {
+        console.error(e);
+        setError(true);
+      } finally {
+        setLoading(false);
+      }
+    };
+    load();
+  }, [id]);
+
+  return (
+    <div className="p-4 sm:p-6">
+      <h2 className="text-xl font-semibold mb-4">
+        Crash <span className="text-accentTeal">#{id}</span>
+      </h2>
+
+      {loading && <div className="text-textSecondary">Loading...</div>}
+
+      {!loading && error && <div className="text-textSecondary">Crash not found</div>}
+
+      {!loading && crash && <CrashViewer crash={crash} />}
+    </div>
+  );
+}
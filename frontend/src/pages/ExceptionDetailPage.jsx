@@ -1,14 +1,19 @@
 import React, { useEffect, useState } from "react";
-import { fetchGlobalCrashes, fetchCrashById } from "../api/crashApi";
+import { fetchGlobalCrashesPage, fetchCrashById } from "../api/crashApi";
 import { useParams } from "react-router-dom";
 import CrashCard from "../components/CrashCard";
 import CrashViewer from "../components/CrashViewer";
 
+const PAGE_SIZE = 100;
+
 export default function ExceptionDetailPage() {
   const { type } = useParams();
   const [crashes, setCrashes] = useState([]);
   const [selectedCrash, setSelectedCrash] = useState(null);
   const [loading, setLoading] = useState(true);
+  const [loadingMore, setLoadingMore] = useState(false);
+  const [page, setPage] = useState(0);
+  const [total, setTotal] = useState(0);
 
   useEffect(() => {
     load();
@@ -17,8 +22,10 @@ export default function ExceptionDetailPage() {
   const load = async () => {
     setLoading(true);
     try {
-      const data = await fetchGlobalCrashes({ q: type, grouped: false });
-      setCrashes(data);
+      const { items, total } = await fetchGlobalCrashesPage({ q: type, grouped: false, page: 0, size: PAGE_SIZE });
+      setCrashes(items);
+      setTotal(total);
+      setPage(0);
     } catch (e) {
       console.error(e);
     } finally {
@@ -26,6 +33,21 @@ export default function ExceptionDetailPage() {
     }
   };
 
+  const loadMore = async () => {
+    setLoadingMore(true);
+    try {
+      const next = page + 1;
+      const { items, total } = await fetchGlobalCrashesPage({ q: type, grouped: false, page: next, size: PAGE_SIZE });
+      setCrashes((prev) => [...prev, ...items]);
+      setTotal(total);
+      setPage(next);
+    } catch (e) {
+      console.error(e);
+    } finally {
+      setLoadingMore(false);
+    }
+  };
+
   const openCrash = async (crash) => {
     if (selectedCrash && selectedCrash.id === crash.id) {
       setSelectedCrash(null);
@@ -54,6 +76,16 @@ export default function ExceptionDetailPage() {
       {!loading &&
         crashes.map((c) => <CrashCard key={c.id} crash={c} onView={openCrash} />)}
 
+      {!loading && crashes.length < total && (
+        <button
+          onClick={loadMore}
+          disabled={loadingMore}
+          className="mt-4 px-4 py-2 rounded bg-purple-500 text-white hover:bg-purple-600 transition disabled:opacity-50"
+        >
+          {loadingMore ? "Loading..." : `Load more (${crashes.length} of ${total})`}
+        </button>
+      )}
+
       {selectedCrash && (
         <div className="mt-6">
           <CrashViewer crash={selectedCrash} />
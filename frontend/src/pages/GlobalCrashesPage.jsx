@@ -369,7 +369,7 @@ const GlobalCrashesPage = () => {
 
   const handleFixStatusChange = useCallback(async (crashId, isFixed) => {
     try {
-      await updateCrashFixStatus(crashId, isFixed);
+      await updateCrashFixStatus(crashId, isFixed, true);
       setItems(prev => prev.map(item => 
         (item.exampleId === crashId || item.id === crashId) 
           ? { ...item, isFix: isFixed } 
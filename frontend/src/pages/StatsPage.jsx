@@ -1,14 +1,6 @@
 import React, { useState, useEffect, useCallback, useMemo, memo } from 'react';
 import {
-  fetchOverallStats,
-  fetchCrashTrends,
-  fetchTopPlayers,
-  fetchCrashFrequency,
-  fetchFixStats,
-  fetchHourlyStats,
-  fetchExceptionStats,
-  fetchUserPatterns,
-  fetchRecentActivity
+  fetchDashboard
 } from '../api/crashApi';
 
 // Компоненты для визуализации
@@ -97,27 +89,18 @@ const useStatsManagement = () => {
   const loadStats = useCallback(async () => {
     setLoading(true);
     try {
-      const [
-        overall,
-        trends,
-        topPlayers,
-        frequency,
-        fixStats,
-        hourly,
-        exceptions,
-        userPatterns,
-        recentActivityResponse
-      ] = await Promise.all([
-        fetchOverallStats().catch(() => ({})),
-        fetchCrashTrends(timeRange).catch(() => ({ dailyTrends: [] })),
-        fetchTopPlayers(10, timeRange).catch(() => []),
-        fetchCrashFrequency().catch(() => ({ frequencyDistribution: [] })),
-        fetchFixStats().catch(() => ({ distribution: [] })),
-        fetchHourlyStats().catch(() => ({ hourlyDistribution: [] })),
-        fetchExceptionStats(15).catch(() => ({ topExceptions: [] })),
-        fetchUserPatterns().catch(() => ({})),
-        fetchRecentActivity(24).catch(() => ({ recentActivity: [] }))
-      ]);
+      const dashboard = await fetchDashboard(timeRange);
+      const section = (data) => (data && !data.error ? data : null);
+
+      const overall = section(dashboard.overall);
+      const trends = section(dashboard.trends);
+      const topPlayers = section(dashboard.topPlayers)?.topPlayers;
+      const frequency = section(dashboard.frequency);
+      const fixStats = section(dashboard.fixStats);
+      const hourly = section(dashboard.hourly);
+      const exceptions = section(dashboard.exceptions);
+      const userPatterns = section(dashboard.userPatterns);
+      const recentActivityResponse = section(dashboard.recentActivity);
 
       setStats({
         overall: overall || {},